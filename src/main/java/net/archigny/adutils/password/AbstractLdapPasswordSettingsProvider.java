@@ -0,0 +1,519 @@
+package net.archigny.adutils.password;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.directory.Attributes;
+
+import net.archigny.adutils.password.PasswordSettingsRefreshScheduler.DaemonThreadFactory;
+import net.archigny.adutils.password.util.IChangeNotificationHandler;
+import net.archigny.adutils.password.util.LdapChangeNotificationListener;
+import net.archigny.adutils.password.util.PasswordSettingsInterner;
+import net.archigny.adutils.password.util.PasswordSettingsSnapshotFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapTemplate;
+
+/**
+ * Common refresh logic of the providers reading their settings from the directory. Settings are read at startup, then :
+ * <ul>
+ * <li>if a {@link PasswordSettingsRefreshScheduler} has been set, by the scheduler threads ;</li>
+ * <li>otherwise, by a background thread started when a reader finds the settings expired. Expired settings are still served until
+ * new ones have been read.</li>
+ * </ul>
+ * In both cases, readers never wait for the directory.
+ * <p>
+ * If a <code>notificationContextSource</code> is set, changes are also pushed by the directory through a change notification
+ * search, and applied as they arrive. While this search runs, periodic refreshes are skipped ; they are resumed if it fails.
+ * <p>
+ * If a <code>snapshotFile</code> is set, the settings are saved to it after each successful read which changed them. At startup, settings are
+ * restored from this file when it exists, and read from the directory in background instead of blocking the startup.
+ * <p>
+ * Settings read or restored are interned into a {@link PasswordSettingsInterner}, shared by default by all the providers : equal
+ * policies of several domains, or of successive refreshes, are then the same instance.
+ * 
+ * @author Philippe MARASSE
+ */
+public abstract class AbstractLdapPasswordSettingsProvider implements IRefreshable, InitializingBean, DisposableBean {
+
+    /**
+     * Logger instance
+     */
+    protected final Logger                   log             = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Template used to query policy
+     */
+    private LdapTemplate                     ldapTemplate;
+
+    /**
+     * Timestamp of last query
+     */
+    private volatile long                    lastTimeFetched = 0;
+
+    /**
+     * Time between two reloads of the policy
+     */
+    private long                             refreshInterval = 86400000L;
+
+    /**
+     * Optional shared scheduler
+     */
+    private PasswordSettingsRefreshScheduler refreshScheduler;
+
+    /**
+     * True while a background refresh is pending or running
+     */
+    private final AtomicBoolean              refreshing      = new AtomicBoolean(false);
+
+    /**
+     * Executor running background refreshes when no scheduler is set, created at first need
+     */
+    private ExecutorService                  refreshExecutor;
+
+    /**
+     * Optional dedicated source for change notifications, should not be pooled
+     */
+    private ContextSource                    notificationContextSource;
+
+    /**
+     * Change notification listener, null if notifications are not used
+     */
+    private LdapChangeNotificationListener   listener;
+
+    /**
+     * True if changes may have been missed since last refresh
+     */
+    private volatile boolean                 resyncNeeded    = true;
+
+    /**
+     * Optional local copy of the last settings read
+     */
+    private File                             snapshotFile;
+
+    /**
+     * Settings last saved to or restored from the snapshot file, guarded by the provider lock
+     */
+    private Map<String, PasswordSettings>    savedPasswordSettings;
+
+    /**
+     * Pool of canonical settings, null if settings are not interned
+     */
+    private PasswordSettingsInterner         interner        = PasswordSettingsInterner.getShared();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+
+        if (ldapTemplate == null) {
+            throw new BeanInitializationException("contextSource has not been set");
+        }
+
+        final boolean restored = restoreSnapshot();
+        final boolean loaded = restored || startupRefresh();
+        if (!loaded && log.isInfoEnabled()) {
+            log.info("Password settings have not been read at startup. Another reload attempt will be done in background");
+        }
+
+        if (refreshScheduler != null) {
+            refreshScheduler.register(this);
+            if (!loaded) {
+                // Do not wait for a whole refresh interval without any settings
+                refreshScheduler.requestRetry(this);
+            }
+        }
+        if (restored) {
+            requestBackgroundRefresh();
+        }
+
+        if (notificationContextSource != null) {
+            listener = new LdapChangeNotificationListener(notificationContextSource, getNotificationBase(),
+                    getNotificationScope(), getNotificationAttributes(), new NotificationHandler());
+            listener.setShowDeleted(isShowDeletedNotified());
+            listener.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+
+        if (listener != null) {
+            listener.stop();
+            listener = null;
+        }
+        if (refreshScheduler != null) {
+            refreshScheduler.unregister(this);
+        }
+        synchronized (refreshing) {
+            if (refreshExecutor != null) {
+                refreshExecutor.shutdownNow();
+                refreshExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * First read of the settings. A directory which cannot be reached does not prevent the startup : the read is retried in
+     * background.
+     * 
+     * @return true if settings have been read
+     */
+    private boolean startupRefresh() {
+
+        try {
+            return refresh();
+        } catch (RuntimeException e) {
+            log.warn("Unable to read password settings at startup", e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the settings from the directory, only one read at a time. Readers are never blocked by this method : the new settings
+     * are published atomically once read.
+     * 
+     * @return true if fetch has really been done
+     */
+    @Override
+    public final synchronized boolean refresh() {
+
+        final long now = System.currentTimeMillis();
+        if (!resyncNeeded && isNotified()) {
+            // Changes are pushed by the directory
+            lastTimeFetched = now;
+            return true;
+        }
+
+        resyncNeeded = false;
+        boolean fetched = false;
+        try {
+            fetched = fetchPasswordSettings();
+        } finally {
+            if (fetched) {
+                lastTimeFetched = now;
+                saveSnapshotIfChanged(now);
+            } else {
+                resyncNeeded = true;
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * Reads the settings from the directory and publishes them if some have been read
+     * 
+     * @return true if settings have been read, even if they did not change
+     */
+    protected abstract boolean fetchPasswordSettings();
+
+    /**
+     * Restores the settings from the snapshot file, if there is one
+     * 
+     * @return true if settings have been restored
+     */
+    private boolean restoreSnapshot() {
+
+        if (snapshotFile == null) {
+            return false;
+        }
+        try {
+            final PasswordSettingsSnapshotFile snapshot = PasswordSettingsSnapshotFile.read(snapshotFile);
+            if (snapshot == null) {
+                log.info("Password settings snapshot {} does not exist yet", snapshotFile);
+                return false;
+            }
+            synchronized (this) {
+                final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>(
+                        snapshot.getPolicies().size() * 2);
+                for (Map.Entry<String, PasswordSettings> entry : snapshot.getPolicies().entrySet()) {
+                    policies.put(entry.getKey(), intern(entry.getValue()));
+                }
+                if (!restorePasswordSettings(policies)) {
+                    return false;
+                }
+                lastTimeFetched = snapshot.getTimestamp();
+                savedPasswordSettings = policies;
+            }
+            if (log.isInfoEnabled()) {
+                log.info("Password settings restored from {}, saved at {}", snapshotFile, new Date(snapshot.getTimestamp()));
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to read password settings snapshot " + snapshotFile + ", settings will be read from the directory", e);
+            return false;
+        }
+    }
+
+    /**
+     * Saves the current settings to the snapshot file, if there is one and they differ from the ones last saved : a refresh
+     * finding nothing new does not rewrite the file. Failures are only logged.
+     */
+    private void saveSnapshotIfChanged(final long timestamp) {
+
+        if (snapshotFile == null) {
+            return;
+        }
+        final Map<String, PasswordSettings> current = getSnapshotPasswordSettings();
+        if (current.equals(savedPasswordSettings)) {
+            log.debug("Password settings unchanged, snapshot {} kept as is", snapshotFile);
+            return;
+        }
+        try {
+            PasswordSettingsSnapshotFile.write(snapshotFile, current, timestamp);
+            savedPasswordSettings = current;
+        } catch (IOException e) {
+            log.warn("Unable to save password settings snapshot " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * @param ps
+     *            settings read or restored
+     * @return the canonical instance equal to ps, or ps itself if settings are not interned
+     */
+    protected PasswordSettings intern(final PasswordSettings ps) {
+
+        final PasswordSettingsInterner current = interner;
+        return (current == null) ? ps : current.intern(ps);
+    }
+
+    /**
+     * @return the settings to save in the snapshot file
+     */
+    protected abstract Map<String, PasswordSettings> getSnapshotPasswordSettings();
+
+    /**
+     * Publishes settings read from the snapshot file, called with the lock held by {@link #refresh()}
+     * 
+     * @param policies
+     *            settings as returned by {@link #getSnapshotPasswordSettings()}
+     * @return false if the settings could not be used
+     */
+    protected abstract boolean restorePasswordSettings(final Map<String, PasswordSettings> policies);
+
+    /**
+     * @return true if some settings have already been published
+     */
+    protected abstract boolean hasPasswordSettings();
+
+    /**
+     * @return DN of the entry watched by change notifications
+     */
+    protected abstract String getNotificationBase();
+
+    /**
+     * @return SearchControls.OBJECT_SCOPE to watch the base entry, SearchControls.ONELEVEL_SCOPE to watch its children
+     */
+    protected abstract int getNotificationScope();
+
+    /**
+     * @return Attributes returned with each change notification
+     */
+    protected abstract String[] getNotificationAttributes();
+
+    /**
+     * @return true if deletions have to be notified too
+     */
+    protected boolean isShowDeletedNotified() {
+
+        return false;
+    }
+
+    /**
+     * Applies a change pushed by the directory, called with the lock held by {@link #refresh()}
+     * 
+     * @param dn
+     *            Full DN of the changed entry
+     * @param attributes
+     *            Current values of the notification attributes
+     * @return false if the change could not be applied and a refresh is needed
+     */
+    protected abstract boolean applyNotification(final String dn, final Attributes attributes);
+
+    /**
+     * @return true while changes are pushed by the directory
+     */
+    public boolean isNotified() {
+
+        final LdapChangeNotificationListener current = listener;
+        return (current != null) && current.isSubscribed();
+    }
+
+    /**
+     * To be called on the read path : triggers a single background refresh if settings have expired, unless the refresh scheduler
+     * is in charge. Never blocks.
+     */
+    protected final void refreshIfExpired() {
+
+        if (refreshScheduler != null) {
+            return;
+        }
+        if (hasPasswordSettings() && (System.currentTimeMillis() <= lastTimeFetched + refreshInterval)) {
+            return;
+        }
+        if (isNotified() && !resyncNeeded) {
+            return;
+        }
+        requestBackgroundRefresh();
+    }
+
+    /**
+     * Starts a refresh as soon as possible, without waiting for it : through the scheduler if set, through the background
+     * executor otherwise
+     */
+    protected final void requestBackgroundRefresh() {
+
+        if ((refreshScheduler != null) && refreshScheduler.requestRefresh(this)) {
+            return;
+        }
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    log.warn("Background refresh of password settings failed, keeping previous ones", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            }
+        };
+
+        try {
+            synchronized (refreshing) {
+                if (refreshExecutor == null) {
+                    refreshExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory(getClass().getSimpleName() + "-refresh"));
+                }
+                refreshExecutor.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            refreshing.set(false);
+            log.warn("Background refresh of password settings rejected : provider is shutting down");
+        }
+    }
+
+    protected LdapTemplate getLdapTemplate() {
+
+        return ldapTemplate;
+    }
+
+    /**
+     * Receives changes from the listener
+     */
+    private final class NotificationHandler implements IChangeNotificationHandler {
+
+        @Override
+        public void subscriptionStarted() {
+
+            // Changes may have been missed before subscription
+            resyncNeeded = true;
+            requestBackgroundRefresh();
+        }
+
+        @Override
+        public void entryChanged(final String dn, final Attributes attributes) {
+
+            final boolean applied;
+            synchronized (AbstractLdapPasswordSettingsProvider.this) {
+                applied = applyNotification(dn, attributes);
+            }
+            if (!applied) {
+                log.info("Change notified on {} could not be applied, settings will be read again", dn);
+                resyncNeeded = true;
+                requestBackgroundRefresh();
+            }
+        }
+
+        @Override
+        public void subscriptionLost() {
+
+            log.warn("Change notifications lost, falling back to periodic refreshes");
+            resyncNeeded = true;
+        }
+    }
+
+    // Setters & Getters
+
+    public void setContextSource(final ContextSource cs) {
+
+        this.ldapTemplate = new LdapTemplate(cs);
+    }
+
+    @Override
+    public long getRefreshInterval() {
+
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(final long refreshInterval) {
+
+        this.refreshInterval = refreshInterval;
+    }
+
+    public long getLastTimeFetched() {
+
+        return lastTimeFetched;
+    }
+
+    public PasswordSettingsRefreshScheduler getRefreshScheduler() {
+
+        return refreshScheduler;
+    }
+
+    public void setRefreshScheduler(final PasswordSettingsRefreshScheduler refreshScheduler) {
+
+        this.refreshScheduler = refreshScheduler;
+    }
+
+    public File getSnapshotFile() {
+
+        return snapshotFile;
+    }
+
+    public void setSnapshotFile(final File snapshotFile) {
+
+        this.snapshotFile = snapshotFile;
+    }
+
+    public ContextSource getNotificationContextSource() {
+
+        return notificationContextSource;
+    }
+
+    public void setNotificationContextSource(final ContextSource notificationContextSource) {
+
+        this.notificationContextSource = notificationContextSource;
+    }
+
+    public PasswordSettingsInterner getInterner() {
+
+        return interner;
+    }
+
+    /**
+     * @param interner
+     *            pool of canonical settings, null to keep the instances read. Applies from the next read.
+     */
+    public void setInterner(final PasswordSettingsInterner interner) {
+
+        this.interner = interner;
+    }
+
+}
@@ -1,88 +1,88 @@
 package net.archigny.adutils.password;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import net.archigny.adutils.password.util.PasswordSettingsMapper;
+import java.util.Map;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.BeanInitializationException;
-import org.springframework.beans.factory.InitializingBean;
-import org.springframework.ldap.core.ContextSource;
-import org.springframework.ldap.core.LdapTemplate;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
 
-public final class DefaultDomainPolicyPasswordSettingsProvider implements IDefaultPasswordSettingsProvider, InitializingBean {
+import net.archigny.adutils.password.util.DecoderPlan;
+import net.archigny.adutils.password.util.PasswordSettingsMapper;
 
-    /**
-     * Logger instance
-     */
-    private final Logger     log             = LoggerFactory.getLogger(DefaultDomainPolicyPasswordSettingsProvider.class);
+import org.springframework.ldap.BadLdapGrammarException;
+import org.springframework.ldap.core.DistinguishedName;
 
-    /**
-     * Template used to query policy
-     */
-    private LdapTemplate     ldapTemplate;
+public final class DefaultDomainPolicyPasswordSettingsProvider extends AbstractLdapPasswordSettingsProvider implements
+        IDefaultPasswordSettingsProvider {
 
     /**
-     * Timestamp of last query
+     * Ldap domain DN to read (eg: dc=example, dc=com), can be empty if ContextSource has a base DN <=> domain DN
      */
-    private long             lastTimeFetched = 0;
+    private String                                domainDN         = "";
 
     /**
-     * Time between two reloads of the policy
+     * Decoding of the domain entry, can extend PasswordSettingsMapper.DEFAULT_DOMAIN_POLICY_PLAN to read other attributes
      */
-    private long             refreshInterval = 86400000L;
+    private DecoderPlan<PasswordSettings.Builder> domainPolicyPlan = PasswordSettingsMapper.DEFAULT_DOMAIN_POLICY_PLAN;
 
     /**
-     * Ldap domain DN to read (eg: dc=example, dc=com), can be empty if ContextSource has a base DN <=> domain DN
+     * Attributes read from the domain entry, those of domainPolicyPlan
      */
-    private String           domainDN        = "";
+    private String[]                              policyAttributes = domainPolicyPlan.getAttributeNames();
 
     /**
      * Password settings
      */
-    private PasswordSettings ps;
+    private volatile PasswordSettings             ps;
 
     @Override
-    public void afterPropertiesSet() throws Exception {
+    public PasswordSettings getPasswordSettings() {
 
-        if (ldapTemplate == null) {
-            throw new BeanInitializationException("contextSource has not been set");
-        }
+        refreshIfExpired();
+        return ps;
+    }
 
-        if (!updatePasswordSettings(true) && log.isInfoEnabled()) {
-            log.info("PasswordPolicy has not been read although forceUpdate = true. Another reload attempt will be done at first query");
-        }
+    @Override
+    protected boolean hasPasswordSettings() {
+
+        return ps != null;
     }
 
     @Override
-    public PasswordSettings getPasswordSettings() {
+    protected Map<String, PasswordSettings> getSnapshotPasswordSettings() {
 
-        updatePasswordSettings(false);
-        return ps;
+        final PasswordSettings current = ps;
+        if (current == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(PasswordSettingsProvider.DEFAULT_POLICY, current);
     }
 
-    /**
-     * Domain Policy fetching, should be thread-safe
-     * 
-     * @return true if fetch has really been done
-     */
-    private synchronized boolean updatePasswordSettings(boolean forceUpdate) {
+    @Override
+    protected boolean restorePasswordSettings(final Map<String, PasswordSettings> policies) {
 
-        if ((System.currentTimeMillis() <= lastTimeFetched + refreshInterval) && !forceUpdate && (ps != null)) {
+        final PasswordSettings restored = policies.get(PasswordSettingsProvider.DEFAULT_POLICY);
+        if (restored == null) {
             return false;
         }
+        this.ps = restored;
+        return true;
+    }
+
+    @Override
+    protected boolean fetchPasswordSettings() {
 
         if (log.isDebugEnabled()) {
-            log.debug("Password policy will be read : " + ((ps == null) ? " it has never been fetched." : "")
-                    + ((forceUpdate) ? " Update has been forced." : ""));
-            log.debug("Attributes fetched {}", Arrays.toString(PasswordSettingsMapper.DEFAULT_DOMAIN_POLICY_ATTRS));
+            log.debug("Password policy will be read : " + ((ps == null) ? " it has never been fetched." : ""));
+            log.debug("Attributes fetched {}", Arrays.toString(policyAttributes));
         }
 
         HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>();
 
-        ldapTemplate.lookup(domainDN, PasswordSettingsMapper.DEFAULT_DOMAIN_POLICY_ATTRS, new PasswordSettingsMapper(policies,
-                PasswordSettingsMapper.DEFAULT_DOMAIN_POLICY_ATTRS));
+        getLdapTemplate().lookup(domainDN, policyAttributes,
+                new PasswordSettingsMapper(policies, domainPolicyPlan, getInterner()));
 
         if (policies.isEmpty()) {
             log.warn("No Policy has been read from LDAP !!");
@@ -91,18 +91,55 @@ public final class DefaultDomainPolicyPasswordSettingsProvider implements IDefau
 
         // Only override if a result has been read
         this.ps = policies.values().iterator().next();
-        this.lastTimeFetched = System.currentTimeMillis();
 
         return true;
     }
 
-    // Setters & Getters
+    @Override
+    protected String getNotificationBase() {
 
-    public void setContextSource(final ContextSource cs) {
+        return domainDN;
+    }
 
-        this.ldapTemplate = new LdapTemplate(cs);
+    @Override
+    protected int getNotificationScope() {
+
+        return SearchControls.OBJECT_SCOPE;
+    }
+
+    @Override
+    protected String[] getNotificationAttributes() {
+
+        return policyAttributes;
+    }
+
+    @Override
+    protected boolean applyNotification(final String dn, final Attributes attributes) {
+
+        final DistinguishedName name;
+        try {
+            name = new DistinguishedName(dn);
+        } catch (BadLdapGrammarException e) {
+            log.warn("Unable to parse notified DN : [{}]", dn);
+            return false;
+        }
+        if (name.isEmpty()) {
+            return false;
+        }
+
+        final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>();
+        new PasswordSettingsMapper(policies, domainPolicyPlan, getInterner()).mapFromAttributes(name.get(name.size() - 1),
+                attributes);
+
+        if (policies.isEmpty()) {
+            return false;
+        }
+        this.ps = policies.values().iterator().next();
+        return true;
     }
 
+    // Setters & Getters
+
     public void setDomainDN(final String domainDN) {
 
         if (domainDN != null) {
@@ -115,22 +152,22 @@ public final class DefaultDomainPolicyPasswordSettingsProvider implements IDefau
         return domainDN;
     }
 
-    
-    
-    public long getRefreshInterval() {
-    
-        return refreshInterval;
-    }
+    public DecoderPlan<PasswordSettings.Builder> getDomainPolicyPlan() {
 
-    
-    public void setRefreshInterval(final long refreshInterval) {
-    
-        this.refreshInterval = refreshInterval;
+        return domainPolicyPlan;
     }
 
-    public long getLastTimeFetched() {
-    
-        return lastTimeFetched;
+    /**
+     * @param domainPolicyPlan
+     *            decoding of the domain entry, its attributes are requested. Has to be set before afterPropertiesSet().
+     */
+    public void setDomainPolicyPlan(final DecoderPlan<PasswordSettings.Builder> domainPolicyPlan) {
+
+        if (domainPolicyPlan == null) {
+            throw new IllegalArgumentException("domainPolicyPlan : null value not allowed");
+        }
+        this.domainPolicyPlan = domainPolicyPlan;
+        this.policyAttributes = domainPolicyPlan.getAttributeNames();
     }
 
 }
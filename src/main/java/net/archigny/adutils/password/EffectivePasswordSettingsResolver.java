@@ -0,0 +1,246 @@
+package net.archigny.adutils.password;
+
+import net.archigny.adutils.password.util.BoundedCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.ldap.core.ContextMapper;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.ldap.core.LdapTemplate;
+
+/**
+ * Resolves the password settings applying to a user : the PSO given by the msDS-ResultantPSO constructed attribute, or the default
+ * domain policy if no PSO applies. The DONT_EXPIRE_PASSWORD flag of userAccountControl is read along : for such users, the
+ * settings returned are the ones of their policy with a maximum password age of {@link I8#NEVER}.
+ * <p>
+ * Only the resultant PSO DN and the flag are cached, settings themselves are always taken from the
+ * {@link PasswordSettingsProvider}, so a refreshed PSO is seen at once by all cached users.
+ * 
+ * @author Philippe MARASSE
+ */
+public class EffectivePasswordSettingsResolver implements InitializingBean {
+
+    /**
+     * User attribute : DN of the PSO applying to the user, absent if the default domain policy applies
+     */
+    public static final String                                     AD_RESULTANT_PSO        = "msDS-ResultantPSO";
+
+    /**
+     * User attribute : account flags
+     */
+    public static final String                                     AD_USER_ACCOUNT_CONTROL = "userAccountControl";
+
+    /**
+     * userAccountControl flag : password never expires
+     */
+    public static final int                                        UF_DONT_EXPIRE_PASSWD   = 0x10000;
+
+    /**
+     * Attributes read from user entries
+     */
+    private static final String[]                                  USER_ATTRS              = { AD_RESULTANT_PSO, AD_USER_ACCOUNT_CONTROL };
+
+    /**
+     * Logger instance
+     */
+    private final Logger                                           log                     = LoggerFactory.getLogger(EffectivePasswordSettingsResolver.class);
+
+    /**
+     * Template used to read users
+     */
+    private LdapTemplate                                           ldapTemplate;
+
+    /**
+     * Provider of default policy and PSO's
+     */
+    private PasswordSettingsProvider                               passwordSettingsProvider;
+
+    /**
+     * Maximum number of cached users
+     */
+    private int                                                    cacheSize               = 10000;
+
+    /**
+     * Time to live of cached users in ms
+     */
+    private long                                                   cacheTimeToLive         = 300000L;
+
+    /**
+     * Cache of user policies, key is user DN in lower case
+     */
+    private BoundedCache<String, UserPolicy>                       cache;
+
+    /**
+     * Never expiring copies of the policies, built once per distinct policy
+     */
+    private final BoundedCache<PasswordSettings, PasswordSettings> neverExpiring           = new BoundedCache<PasswordSettings, PasswordSettings>(64, 0);
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+
+        if (ldapTemplate == null) {
+            throw new BeanInitializationException("contextSource has not been set");
+        }
+        if (passwordSettingsProvider == null) {
+            throw new BeanInitializationException("passwordSettingsProvider has not been set");
+        }
+        cache = new BoundedCache<String, UserPolicy>(cacheSize, cacheTimeToLive);
+    }
+
+    /**
+     * @param userDN
+     *            Full DN of the user
+     * @return Password settings applying to the user, with a maximum password age of {@link I8#NEVER} if DONT_EXPIRE_PASSWORD
+     *         is set on the user account
+     * @throws org.springframework.ldap.NameNotFoundException
+     *             if the user does not exist
+     */
+    public PasswordSettings getPasswordSettings(final String userDN) {
+
+        final UserPolicy policy = getUserPolicy(userDN);
+        final PasswordSettings ps;
+        if (policy.resultantPso == null) {
+            ps = passwordSettingsProvider.getDefaultPolicyProvider().getPasswordSettings();
+        } else {
+            ps = passwordSettingsProvider.getPasswordSettings(policy.resultantPso);
+        }
+        if ((ps == null) || !policy.dontExpirePassword) {
+            return ps;
+        }
+        return neverExpiring(ps);
+    }
+
+    /**
+     * @param userDN
+     *            Full DN of the user
+     * @return true if DONT_EXPIRE_PASSWORD is set on the user account
+     * @throws org.springframework.ldap.NameNotFoundException
+     *             if the user does not exist
+     */
+    public boolean isPasswordNeverExpires(final String userDN) {
+
+        return getUserPolicy(userDN).dontExpirePassword;
+    }
+
+    /**
+     * Forgets a cached user, eg. after its PSO or its account flags have been changed
+     */
+    public void evict(final String userDN) {
+
+        if (userDN == null) {
+            throw new IllegalArgumentException("userDN : null value not allowed");
+        }
+        cache.remove(userDN.toLowerCase());
+    }
+
+    /**
+     * @return ps with a maximum password age of I8.NEVER
+     */
+    private PasswordSettings neverExpiring(final PasswordSettings ps) {
+
+        if (ps.getMaximumPasswordAge() == I8.NEVER) {
+            return ps;
+        }
+        PasswordSettings copy = neverExpiring.get(ps);
+        if (copy == null) {
+            copy = PasswordSettings.builder().from(ps).maximumPasswordAge(I8.NEVER).build();
+            neverExpiring.put(ps, copy);
+        }
+        return copy;
+    }
+
+    private UserPolicy getUserPolicy(final String userDN) {
+
+        if (userDN == null) {
+            throw new IllegalArgumentException("userDN : null value not allowed");
+        }
+
+        final String key = userDN.toLowerCase();
+        UserPolicy policy = cache.get(key);
+        if (policy == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Reading resultant PSO of {}", userDN);
+            }
+            policy = (UserPolicy) ldapTemplate.lookup(userDN, USER_ATTRS, UserPolicyMapper.INSTANCE);
+            cache.put(key, policy);
+        }
+        return policy;
+    }
+
+    /**
+     * What is cached about a user
+     */
+    private static final class UserPolicy {
+
+        /**
+         * DN of the resultant PSO, null if the default domain policy applies
+         */
+        final String  resultantPso;
+
+        final boolean dontExpirePassword;
+
+        UserPolicy(final String resultantPso, final boolean dontExpirePassword) {
+
+            this.resultantPso = resultantPso;
+            this.dontExpirePassword = dontExpirePassword;
+        }
+    }
+
+    /**
+     * Maps a user entry to its UserPolicy
+     */
+    private static final class UserPolicyMapper implements ContextMapper {
+
+        static final UserPolicyMapper INSTANCE = new UserPolicyMapper();
+
+        @Override
+        public Object mapFromContext(final Object ctx) {
+
+            final DirContextAdapter context = (DirContextAdapter) ctx;
+            final String uac = context.getStringAttribute(AD_USER_ACCOUNT_CONTROL);
+            final boolean dontExpire = (uac != null) && ((Long.parseLong(uac) & UF_DONT_EXPIRE_PASSWD) != 0);
+            return new UserPolicy(context.getStringAttribute(AD_RESULTANT_PSO), dontExpire);
+        }
+    }
+
+    // Setters & Getters
+
+    public void setContextSource(final ContextSource cs) {
+
+        this.ldapTemplate = new LdapTemplate(cs);
+    }
+
+    public PasswordSettingsProvider getPasswordSettingsProvider() {
+
+        return passwordSettingsProvider;
+    }
+
+    public void setPasswordSettingsProvider(final PasswordSettingsProvider passwordSettingsProvider) {
+
+        this.passwordSettingsProvider = passwordSettingsProvider;
+    }
+
+    public int getCacheSize() {
+
+        return cacheSize;
+    }
+
+    public void setCacheSize(final int cacheSize) {
+
+        this.cacheSize = cacheSize;
+    }
+
+    public long getCacheTimeToLive() {
+
+        return cacheTimeToLive;
+    }
+
+    public void setCacheTimeToLive(final long cacheTimeToLive) {
+
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+}
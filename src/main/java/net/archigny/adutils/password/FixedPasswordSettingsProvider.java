@@ -4,16 +4,22 @@ import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.InitializingBean;
 
 /**
- * Dummy provider class which provides manually feeded password settings
+ * Dummy provider class which provides manually feeded password settings. Setters are meant to be called while the bean is
+ * configured, each one replaces the immutable settings handed out.
  * 
  * @author Philippe MARASSE
  */
 public final class FixedPasswordSettingsProvider implements IDefaultPasswordSettingsProvider, InitializingBean {
 
     /**
-     * Default PasswordSettings... are not consistent.
+     * Fields set so far, all 0 by default... which are not consistent.
      */
-    private PasswordSettings ps = new PasswordSettings(false, 0, false, 0, 0, 0, 0, 0, 0);
+    private final PasswordSettings.Builder builder = PasswordSettings.builder();
+
+    /**
+     * Settings built from the fields, rebuilt by each setter
+     */
+    private volatile PasswordSettings      ps      = builder.build();
 
     @Override
     public PasswordSettings getPasswordSettings() {
@@ -31,49 +37,49 @@ public final class FixedPasswordSettingsProvider implements IDefaultPasswordSett
 
     // Setters & Getters
 
-    public void setReversibleEncryption(final boolean reversibleEncryption) {
+    public synchronized void setReversibleEncryption(final boolean reversibleEncryption) {
 
-        ps.setReversibleEncryption(reversibleEncryption);
+        ps = builder.reversibleEncryption(reversibleEncryption).build();
     }
 
-    public void setHistoryLength(final int historyLength) {
+    public synchronized void setHistoryLength(final int historyLength) {
 
-        ps.setHistoryLength(historyLength);
+        ps = builder.historyLength(historyLength).build();
     }
 
-    public void setPasswordComplexity(final boolean passwordComplexity) {
+    public synchronized void setPasswordComplexity(final boolean passwordComplexity) {
 
-        ps.setPasswordComplexity(passwordComplexity);
+        ps = builder.passwordComplexity(passwordComplexity).build();
     }
 
-    public void setMinimumPasswordLength(final int minimumPasswordLength) {
+    public synchronized void setMinimumPasswordLength(final int minimumPasswordLength) {
 
-        ps.setMinimumPasswordLength(minimumPasswordLength);
+        ps = builder.minimumPasswordLength(minimumPasswordLength).build();
     }
 
-    public void setMinimumPasswordAge(final long minimumPasswordAge) {
+    public synchronized void setMinimumPasswordAge(final long minimumPasswordAge) {
 
-        ps.setMinimumPasswordAge(minimumPasswordAge);
+        ps = builder.minimumPasswordAge(minimumPasswordAge).build();
     }
 
-    public void setMaximumPasswordAge(final long maximumPasswordAge) {
+    public synchronized void setMaximumPasswordAge(final long maximumPasswordAge) {
 
-        ps.setMaximumPasswordAge(maximumPasswordAge);
+        ps = builder.maximumPasswordAge(maximumPasswordAge).build();
     }
 
-    public void setLockoutThreshold(final int lockoutThreshold) {
+    public synchronized void setLockoutThreshold(final int lockoutThreshold) {
 
-        ps.setLockoutThreshold(lockoutThreshold);
+        ps = builder.lockoutThreshold(lockoutThreshold).build();
     }
 
-    public void setLockoutDuration(final long lockoutDuration) {
+    public synchronized void setLockoutDuration(final long lockoutDuration) {
 
-        ps.setLockoutDuration(lockoutDuration);
+        ps = builder.lockoutDuration(lockoutDuration).build();
     }
 
-    public void setLockoutObservationWindow(final long lockoutObservationWindow) {
+    public synchronized void setLockoutObservationWindow(final long lockoutObservationWindow) {
 
-        ps.setLockoutObservationWindow(lockoutObservationWindow);
+        ps = builder.lockoutObservationWindow(lockoutObservationWindow).build();
     }
 
 }
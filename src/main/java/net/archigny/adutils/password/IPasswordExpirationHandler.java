@@ -0,0 +1,21 @@
+package net.archigny.adutils.password;
+
+/**
+ * Receives the password expiration times computed by a {@link PasswordExpirationScanner}
+ * 
+ * @author Philippe MARASSE
+ */
+public interface IPasswordExpirationHandler {
+
+    /**
+     * Called once per account, from the thread running the scan
+     * 
+     * @param dn
+     *            Full DN of the account
+     * @param expirationTime
+     *            Password expiration time in ms since epoch, 0 if password has to be changed at next logon,
+     *            PasswordMetaData.NEVER_EXPIRES if password never expires
+     */
+    public void handleExpiration(final String dn, final long expirationTime);
+
+}
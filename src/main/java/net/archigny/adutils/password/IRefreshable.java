@@ -0,0 +1,23 @@
+package net.archigny.adutils.password;
+
+/**
+ * Interface describing a source of password settings that has to be periodically re-read from the directory. Implementations can
+ * be registered to a {@link PasswordSettingsRefreshScheduler}.
+ * 
+ * @author Philippe MARASSE
+ */
+public interface IRefreshable {
+
+    /**
+     * Reads the settings from their source and publishes them. Called from a scheduler thread, never from the request path.
+     * 
+     * @return true if settings have been read, even if they did not change
+     */
+    public boolean refresh();
+
+    /**
+     * @return Time between two refreshes in ms
+     */
+    public long getRefreshInterval();
+
+}
@@ -0,0 +1,229 @@
+package net.archigny.adutils.password;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the password expiration times of many accounts at once (eg. expiration reports), on primitive arrays : pwdLastSet
+ * values in I8 format and, in a parallel array, the index of the policy applying to each account. Nothing is allocated per account.
+ * <p>
+ * Results are those of {@link PasswordMetaData#computeExpirationTime(long, long)} : 0 if the password has to be changed at next
+ * logon, {@link PasswordMetaData#NEVER_EXPIRES} if the maximum age of the policy is not set or is {@link I8#NEVER}, no overflow
+ * for any pwdLastSet value. Instances are immutable and thread safe.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class PasswordExpirationCalculator {
+
+    /**
+     * Fewer accounts than this are not worth a thread
+     */
+    private static final int MIN_SHARD_SIZE = 65536;
+
+    /**
+     * Maximum password age of each policy in I8 format, by index
+     */
+    private final long[]     maximumAges;
+
+    /**
+     * @param policies
+     *            Password settings, in the order of their indexes
+     */
+    public PasswordExpirationCalculator(final PasswordSettings... policies) {
+
+        if (policies == null) {
+            throw new IllegalArgumentException("policies : null value not allowed");
+        }
+        maximumAges = new long[policies.length];
+        for (int i = 0; i < policies.length; i++) {
+            if (policies[i] == null) {
+                throw new IllegalArgumentException("policies : null value not allowed");
+            }
+            maximumAges[i] = policies[i].getMaximumPasswordAge();
+        }
+    }
+
+    /**
+     * @return number of policies
+     */
+    public int getPolicyCount() {
+
+        return maximumAges.length;
+    }
+
+    /**
+     * Computes the expiration times of all accounts, up to 256 policies
+     * 
+     * @param pwdLastSet
+     *            pwdLastSet of each account in I8 format
+     * @param policyIndexes
+     *            policy of each account, read as unsigned bytes
+     * @param expirations
+     *            receives the expiration time of each account in ms since epoch
+     */
+    public void computeExpirationTimes(final long[] pwdLastSet, final byte[] policyIndexes, final long[] expirations) {
+
+        if (policyIndexes == null) {
+            throw new IllegalArgumentException("policyIndexes : null value not allowed");
+        }
+        check(pwdLastSet, policyIndexes.length, expirations);
+        compute(pwdLastSet, policyIndexes, null, expirations, 0, pwdLastSet.length);
+    }
+
+    /**
+     * Computes the expiration times of all accounts
+     * 
+     * @param pwdLastSet
+     *            pwdLastSet of each account in I8 format
+     * @param policyIndexes
+     *            policy of each account
+     * @param expirations
+     *            receives the expiration time of each account in ms since epoch
+     */
+    public void computeExpirationTimes(final long[] pwdLastSet, final int[] policyIndexes, final long[] expirations) {
+
+        if (policyIndexes == null) {
+            throw new IllegalArgumentException("policyIndexes : null value not allowed");
+        }
+        check(pwdLastSet, policyIndexes.length, expirations);
+        compute(pwdLastSet, null, policyIndexes, expirations, 0, pwdLastSet.length);
+    }
+
+    /**
+     * Computes the expiration times of all accounts on several threads, for very large arrays
+     * 
+     * @param pwdLastSet
+     *            pwdLastSet of each account in I8 format
+     * @param policyIndexes
+     *            policy of each account, read as unsigned bytes
+     * @param expirations
+     *            receives the expiration time of each account in ms since epoch
+     * @param executor
+     *            Executor of the shards, should have at least parallelism - 1 threads
+     * @param parallelism
+     *            Maximum number of threads, including the calling thread which computes one shard
+     */
+    public void computeExpirationTimes(final long[] pwdLastSet, final byte[] policyIndexes, final long[] expirations,
+            final ExecutorService executor, final int parallelism) {
+
+        if (policyIndexes == null) {
+            throw new IllegalArgumentException("policyIndexes : null value not allowed");
+        }
+        check(pwdLastSet, policyIndexes.length, expirations);
+        run(pwdLastSet, policyIndexes, null, expirations, executor, parallelism);
+    }
+
+    /**
+     * Computes the expiration times of all accounts on several threads, for very large arrays
+     * 
+     * @param pwdLastSet
+     *            pwdLastSet of each account in I8 format
+     * @param policyIndexes
+     *            policy of each account
+     * @param expirations
+     *            receives the expiration time of each account in ms since epoch
+     * @param executor
+     *            Executor of the shards, should have at least parallelism - 1 threads
+     * @param parallelism
+     *            Maximum number of threads, including the calling thread which computes one shard
+     */
+    public void computeExpirationTimes(final long[] pwdLastSet, final int[] policyIndexes, final long[] expirations,
+            final ExecutorService executor, final int parallelism) {
+
+        if (policyIndexes == null) {
+            throw new IllegalArgumentException("policyIndexes : null value not allowed");
+        }
+        check(pwdLastSet, policyIndexes.length, expirations);
+        run(pwdLastSet, null, policyIndexes, expirations, executor, parallelism);
+    }
+
+    private static void check(final long[] pwdLastSet, final int indexes, final long[] expirations) {
+
+        if ((pwdLastSet == null) || (expirations == null)) {
+            throw new IllegalArgumentException("pwdLastSet, expirations : null value not allowed");
+        }
+        if ((indexes != pwdLastSet.length) || (expirations.length < pwdLastSet.length)) {
+            throw new IllegalArgumentException("policyIndexes, expirations : must be as long as pwdLastSet");
+        }
+    }
+
+    /**
+     * Computes accounts from start included to end excluded, one of byteIndexes and intIndexes being null
+     */
+    private void compute(final long[] pwdLastSet, final byte[] byteIndexes, final int[] intIndexes, final long[] expirations,
+            final int start, final int end) {
+
+        final long[] ages = maximumAges;
+        if (byteIndexes != null) {
+            for (int i = start; i < end; i++) {
+                expirations[i] = PasswordMetaData.computeExpirationTime(pwdLastSet[i], ages[byteIndexes[i] & 0xFF]);
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                expirations[i] = PasswordMetaData.computeExpirationTime(pwdLastSet[i], ages[intIndexes[i]]);
+            }
+        }
+    }
+
+    /**
+     * Splits accounts in contiguous shards and waits for all of them
+     */
+    private void run(final long[] pwdLastSet, final byte[] byteIndexes, final int[] intIndexes, final long[] expirations,
+            final ExecutorService executor, final int parallelism) {
+
+        if (executor == null) {
+            throw new IllegalArgumentException("executor : null value not allowed");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism : must be positive");
+        }
+
+        final int count = pwdLastSet.length;
+        final int shards = Math.max(1, Math.min(parallelism, count / MIN_SHARD_SIZE));
+        final int shardSize = (count + shards - 1) / shards;
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>(shards - 1);
+        boolean done = false;
+        try {
+            for (int first = shardSize; first < count; first += shardSize) {
+                final int start = first;
+                final int end = Math.min(count, first + shardSize);
+                futures.add(executor.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        compute(pwdLastSet, byteIndexes, intIndexes, expirations, start, end);
+                    }
+                }));
+            }
+            compute(pwdLastSet, byteIndexes, intIndexes, expirations, 0, Math.min(shardSize, count));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing expiration times", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (!done) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+}
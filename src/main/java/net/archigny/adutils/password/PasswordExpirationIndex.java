@@ -0,0 +1,424 @@
+package net.archigny.adutils.password;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of password expiration times, answering "which accounts expire between t1 and t2" without reading the directory.
+ * <p>
+ * Accounts are given compact int ids ; expiration times and ids are kept in two parallel arrays sorted by expiration time, so a
+ * range query is two binary searches followed by a sequential read. Updating one account moves its entry within the arrays.
+ * <p>
+ * An index is built by feeding a {@link Builder} (eg. through a {@link PasswordExpirationScanner}), then kept up to date with
+ * {@link #update(String, long)} when an account password is changed.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class PasswordExpirationIndex {
+
+    /**
+     * Arrays shorter than this are sorted by insertion
+     */
+    private static final int               INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * Expiration times in ms since epoch, sorted, <code>size</code> first entries are used
+     */
+    private long[]                         expirations;
+
+    /**
+     * Account ids, in the same order as expirations
+     */
+    private int[]                          ids;
+
+    /**
+     * Number of indexed accounts
+     */
+    private int                            size;
+
+    /**
+     * Expiration time of each account, by id
+     */
+    private long[]                         expirationById;
+
+    /**
+     * DN of each account by id, null if the account has been removed
+     */
+    private final ArrayList<String>        dns;
+
+    /**
+     * Ids of the accounts, key is DN in lower case
+     */
+    private final HashMap<String, Integer> idByDn;
+
+    /**
+     * Readers run concurrently, updates are exclusive
+     */
+    private final ReadWriteLock            lock                     = new ReentrantReadWriteLock();
+
+    private PasswordExpirationIndex(final Builder builder) {
+
+        this.size = builder.size;
+        this.expirations = builder.expirations;
+        this.ids = new int[expirations.length];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        this.expirationById = Arrays.copyOf(expirations, expirations.length);
+        this.dns = builder.dns;
+        this.idByDn = builder.idByDn;
+        sort(expirations, ids, 0, size - 1);
+    }
+
+    /**
+     * @return number of indexed accounts
+     */
+    public int size() {
+
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param from
+     *            lower bound in ms since epoch, included
+     * @param to
+     *            upper bound in ms since epoch, excluded
+     * @return number of accounts whose password expires in [from, to[
+     */
+    public int countExpiringBetween(final long from, final long to) {
+
+        lock.readLock().lock();
+        try {
+            return Math.max(0, lowerBound(to) - lowerBound(from));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Calls handler for each account whose password expires in [from, to[, by ascending expiration time. The index cannot be updated
+     * while handler runs.
+     * 
+     * @param from
+     *            lower bound in ms since epoch, included
+     * @param to
+     *            upper bound in ms since epoch, excluded
+     * @return number of accounts handled
+     */
+    public int forEachExpiringBetween(final long from, final long to, final IPasswordExpirationHandler handler) {
+
+        if (handler == null) {
+            throw new IllegalArgumentException("handler : null value not allowed");
+        }
+        lock.readLock().lock();
+        try {
+            final int end = lowerBound(to);
+            int count = 0;
+            for (int i = lowerBound(from); i < end; i++) {
+                handler.handleExpiration(dns.get(ids[i]), expirations[i]);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param from
+     *            lower bound in ms since epoch, included
+     * @param to
+     *            upper bound in ms since epoch, excluded
+     * @return DN's of the accounts whose password expires in [from, to[, by ascending expiration time
+     */
+    public List<String> getExpiringBetween(final long from, final long to) {
+
+        lock.readLock().lock();
+        try {
+            final int start = lowerBound(from);
+            final int end = lowerBound(to);
+            final ArrayList<String> result = new ArrayList<String>(Math.max(0, end - start));
+            for (int i = start; i < end; i++) {
+                result.add(dns.get(ids[i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param dn
+     *            DN of the account
+     * @return expiration time of the account password, or null if the account is not indexed
+     */
+    public Long getExpirationTime(final String dn) {
+
+        if (dn == null) {
+            throw new IllegalArgumentException("dn : null value not allowed");
+        }
+        lock.readLock().lock();
+        try {
+            final Integer id = idByDn.get(dn.toLowerCase());
+            return (id == null) ? null : Long.valueOf(expirationById[id]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the index after the password of one account has been changed
+     * 
+     * @param dn
+     *            DN of the account
+     * @param pwdLastSet
+     *            new pwdLastSet value of the account in I8 format
+     * @param pso
+     *            Password settings applying to the account
+     */
+    public void update(final String dn, final long pwdLastSet, final PasswordSettings pso) {
+
+        update(dn, PasswordMetaData.computeExpirationTime(pwdLastSet, pso));
+    }
+
+    /**
+     * Adds an account or changes its expiration time
+     * 
+     * @param dn
+     *            DN of the account
+     * @param expirationTime
+     *            expiration time in ms since epoch
+     */
+    public void update(final String dn, final long expirationTime) {
+
+        if (dn == null) {
+            throw new IllegalArgumentException("dn : null value not allowed");
+        }
+        final String key = dn.toLowerCase();
+        lock.writeLock().lock();
+        try {
+            final Integer known = idByDn.get(key);
+            final int id;
+            if (known == null) {
+                id = dns.size();
+                dns.add(dn);
+                idByDn.put(key, id);
+                if (id >= expirationById.length) {
+                    expirationById = Arrays.copyOf(expirationById, Math.max(16, id * 2));
+                }
+            } else {
+                id = known;
+                if (expirationById[id] == expirationTime) {
+                    return;
+                }
+                removeEntry(id);
+            }
+            expirationById[id] = expirationTime;
+            insertEntry(id, expirationTime);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an account from the index
+     * 
+     * @param dn
+     *            DN of the account
+     * @return true if the account was indexed
+     */
+    public boolean remove(final String dn) {
+
+        if (dn == null) {
+            throw new IllegalArgumentException("dn : null value not allowed");
+        }
+        lock.writeLock().lock();
+        try {
+            final Integer id = idByDn.remove(dn.toLowerCase());
+            if (id == null) {
+                return false;
+            }
+            removeEntry(id);
+            dns.set(id, null);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return first position whose expiration is greater or equal to time
+     */
+    private int lowerBound(final long time) {
+
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (expirations[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void removeEntry(final int id) {
+
+        int position = lowerBound(expirationById[id]);
+        while (ids[position] != id) {
+            position++;
+        }
+        System.arraycopy(expirations, position + 1, expirations, position, size - position - 1);
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+    }
+
+    private void insertEntry(final int id, final long expirationTime) {
+
+        if (size == expirations.length) {
+            final int capacity = Math.max(16, size * 2);
+            expirations = Arrays.copyOf(expirations, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        final int position = lowerBound(expirationTime);
+        System.arraycopy(expirations, position, expirations, position + 1, size - position);
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        expirations[position] = expirationTime;
+        ids[position] = id;
+        size++;
+    }
+
+    /**
+     * Sorts both arrays on keys, between low and high included (quicksort, median of three pivot)
+     */
+    private static void sort(final long[] keys, final int[] values, final int low, final int high) {
+
+        int lo = low;
+        int hi = high;
+        while (hi - lo >= INSERTION_SORT_THRESHOLD) {
+            final int mid = (lo + hi) >>> 1;
+            if (keys[mid] < keys[lo]) {
+                swap(keys, values, mid, lo);
+            }
+            if (keys[hi] < keys[lo]) {
+                swap(keys, values, hi, lo);
+            }
+            if (keys[hi] < keys[mid]) {
+                swap(keys, values, hi, mid);
+            }
+            final long pivot = keys[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            // Recurse on the smaller part to bound stack depth
+            if (j - lo < hi - i) {
+                sort(keys, values, lo, j);
+                lo = i;
+            } else {
+                sort(keys, values, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            final long key = keys[i];
+            final int value = values[i];
+            int j = i - 1;
+            while ((j >= lo) && (keys[j] > key)) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(final long[] keys, final int[] values, final int i, final int j) {
+
+        final long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        final int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * Collects the expiration times before the index is sorted once. Not thread safe.
+     */
+    public static final class Builder implements IPasswordExpirationHandler {
+
+        private long[]                         expirations = new long[1024];
+
+        private int                            size;
+
+        private final ArrayList<String>        dns         = new ArrayList<String>();
+
+        private final HashMap<String, Integer> idByDn      = new HashMap<String, Integer>();
+
+        private boolean                        built;
+
+        @Override
+        public void handleExpiration(final String dn, final long expirationTime) {
+
+            add(dn, expirationTime);
+        }
+
+        /**
+         * Adds an account, the last expiration time wins if the account is added twice
+         */
+        public Builder add(final String dn, final long expirationTime) {
+
+            if (dn == null) {
+                throw new IllegalArgumentException("dn : null value not allowed");
+            }
+            if (built) {
+                throw new IllegalStateException("Index has already been built");
+            }
+            final String key = dn.toLowerCase();
+            final Integer known = idByDn.get(key);
+            if (known != null) {
+                expirations[known] = expirationTime;
+                return this;
+            }
+            if (size == expirations.length) {
+                expirations = Arrays.copyOf(expirations, size * 2);
+            }
+            idByDn.put(key, size);
+            dns.add(dn);
+            expirations[size++] = expirationTime;
+            return this;
+        }
+
+        public PasswordExpirationIndex build() {
+
+            if (built) {
+                throw new IllegalStateException("Index has already been built");
+            }
+            built = true;
+            return new PasswordExpirationIndex(this);
+        }
+    }
+
+}
@@ -0,0 +1,297 @@
+package net.archigny.adutils.password;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.ldap.BadLdapGrammarException;
+import org.springframework.ldap.control.PagedResultsCookie;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.DistinguishedName;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.ldap.support.LdapUtils;
+
+/**
+ * Computes the password expiration time of all accounts matching a filter, through a paged search. Results are streamed to a
+ * {@link IPasswordExpirationHandler} as they are read, so memory use only depends on the page size.
+ * <p>
+ * Each page is resolved against one snapshot of the policies taken from the {@link PasswordSettingsProvider}.
+ * 
+ * @author Philippe MARASSE
+ */
+public class PasswordExpirationScanner implements InitializingBean {
+
+    /**
+     * User attribute : password last set time in I8 format
+     */
+    public static final String       AD_PWD_LAST_SET = "pwdLastSet";
+
+    /**
+     * Default filter : all user accounts
+     */
+    public static final String       USER_FILTER     = "(&(objectCategory=person)(objectClass=user))";
+
+    /**
+     * Attributes read from user entries
+     */
+    private static final String[]    USER_ATTRS      = { AD_PWD_LAST_SET, EffectivePasswordSettingsResolver.AD_RESULTANT_PSO,
+            EffectivePasswordSettingsResolver.AD_USER_ACCOUNT_CONTROL };
+
+    /**
+     * Logger instance
+     */
+    private final Logger             log             = LoggerFactory.getLogger(PasswordExpirationScanner.class);
+
+    /**
+     * Source of the connection used by the scan
+     */
+    private ContextSource            contextSource;
+
+    /**
+     * Provider of default policy and PSO's
+     */
+    private PasswordSettingsProvider passwordSettingsProvider;
+
+    /**
+     * Base of the search, relative to the base of the ContextSource
+     */
+    private String                   searchBase      = "";
+
+    /**
+     * Filter selecting the accounts
+     */
+    private String                   filter          = USER_FILTER;
+
+    /**
+     * Number of entries per page
+     */
+    private int                      pageSize        = 1000;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+
+        if (contextSource == null) {
+            throw new BeanInitializationException("contextSource has not been set");
+        }
+        if (passwordSettingsProvider == null) {
+            throw new BeanInitializationException("passwordSettingsProvider has not been set");
+        }
+        if (pageSize <= 0) {
+            throw new BeanInitializationException("pageSize must be positive");
+        }
+    }
+
+    /**
+     * Computes the password expiration time of all accounts. All pages are read from the same connection as required by AD.
+     * 
+     * @param handler
+     *            receives the results
+     * @return number of accounts handled
+     */
+    public long scan(final IPasswordExpirationHandler handler) {
+
+        if (handler == null) {
+            throw new IllegalArgumentException("handler : null value not allowed");
+        }
+
+        final SearchControls sc = new SearchControls();
+        sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        sc.setReturningObjFlag(false);
+        sc.setReturningAttributes(USER_ATTRS);
+
+        final DirContext ctx = contextSource.getReadOnlyContext();
+        final SingleContextSource single = new SingleContextSource(ctx);
+        long count = 0;
+        int pages = 0;
+        try {
+            final LdapTemplate template = new LdapTemplate(single);
+            PagedResultsCookie cookie = null;
+            do {
+                final PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(pageSize, cookie);
+                final PageHandler page = new PageHandler(log, handler, passwordSettingsProvider.getAllPasswordSettings());
+                template.search(searchBase, filter, sc, page, processor);
+                count += page.count;
+                pages++;
+                cookie = processor.getCookie();
+            } while ((cookie != null) && (cookie.getCookie() != null) && (cookie.getCookie().length > 0));
+        } finally {
+            single.destroy();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Password expiration computed for {} accounts in {} pages", count, pages);
+        }
+        return count;
+    }
+
+    /**
+     * Handles the entries of one page, with one policy snapshot
+     */
+    private static final class PageHandler implements NameClassPairCallbackHandler {
+
+        private final Logger                        log;
+
+        private final IPasswordExpirationHandler    handler;
+
+        private final Map<String, PasswordSettings> policies;
+
+        private final PasswordSettings              defaultPolicy;
+
+        /**
+         * Resolved PSO's of this page, key is PSO DN as returned by AD
+         */
+        private final Map<String, PasswordSettings> resolved = new HashMap<String, PasswordSettings>();
+
+        long                                        count;
+
+        PageHandler(final Logger log, final IPasswordExpirationHandler handler, final Map<String, PasswordSettings> policies) {
+
+            this.log = log;
+            this.handler = handler;
+            this.policies = policies;
+            this.defaultPolicy = policies.get(PasswordSettingsProvider.DEFAULT_POLICY);
+            if (defaultPolicy == null) {
+                throw new IllegalStateException("Default domain policy has not been read yet");
+            }
+        }
+
+        @Override
+        public void handleNameClassPair(final NameClassPair nameClassPair) {
+
+            final SearchResult result = (SearchResult) nameClassPair;
+            final Attributes attrs = result.getAttributes();
+
+            final long uac = parseLong(attrs.get(EffectivePasswordSettingsResolver.AD_USER_ACCOUNT_CONTROL));
+            final long expirationTime;
+            if ((uac & EffectivePasswordSettingsResolver.UF_DONT_EXPIRE_PASSWD) != 0) {
+                expirationTime = PasswordMetaData.NEVER_EXPIRES;
+            } else {
+                expirationTime = PasswordMetaData.computeExpirationTime(parseLong(attrs.get(AD_PWD_LAST_SET)),
+                        resolve(attrs.get(EffectivePasswordSettingsResolver.AD_RESULTANT_PSO)));
+            }
+
+            handler.handleExpiration(result.getNameInNamespace(), expirationTime);
+            count++;
+        }
+
+        private PasswordSettings resolve(final Attribute resultantPso) {
+
+            final String dn = (String) value(resultantPso);
+            if (dn == null) {
+                return defaultPolicy;
+            }
+            PasswordSettings ps = resolved.get(dn);
+            if (ps == null) {
+                ps = parse(dn);
+                if (ps == null) {
+                    ps = defaultPolicy;
+                }
+                resolved.put(dn, ps);
+            }
+            return ps;
+        }
+
+        /**
+         * @return the PSO named by dn, null if it is unknown or dn is malformed
+         */
+        private PasswordSettings parse(final String dn) {
+
+            try {
+                final DistinguishedName name = new DistinguishedName(dn);
+                return name.isEmpty() ? null : policies.get(name.get(name.size() - 1).toLowerCase());
+            } catch (BadLdapGrammarException e) {
+                log.warn("Unable to parse resultant PSO DN : [{}]. Using default policy", dn);
+                return null;
+            }
+        }
+
+        private static long parseLong(final Attribute attribute) {
+
+            final Object value = value(attribute);
+            return (value == null) ? 0 : Long.parseLong((String) value);
+        }
+
+        private static Object value(final Attribute attribute) {
+
+            if (attribute == null) {
+                return null;
+            }
+            try {
+                return attribute.get();
+            } catch (NamingException e) {
+                throw LdapUtils.convertLdapException(e);
+            }
+        }
+    }
+
+    // Setters & Getters
+
+    public ContextSource getContextSource() {
+
+        return contextSource;
+    }
+
+    public void setContextSource(final ContextSource contextSource) {
+
+        this.contextSource = contextSource;
+    }
+
+    public PasswordSettingsProvider getPasswordSettingsProvider() {
+
+        return passwordSettingsProvider;
+    }
+
+    public void setPasswordSettingsProvider(final PasswordSettingsProvider passwordSettingsProvider) {
+
+        this.passwordSettingsProvider = passwordSettingsProvider;
+    }
+
+    public String getSearchBase() {
+
+        return searchBase;
+    }
+
+    public void setSearchBase(final String searchBase) {
+
+        if (searchBase != null) {
+            this.searchBase = searchBase;
+        }
+    }
+
+    public String getFilter() {
+
+        return filter;
+    }
+
+    public void setFilter(final String filter) {
+
+        if (filter != null) {
+            this.filter = filter;
+        }
+    }
+
+    public int getPageSize() {
+
+        return pageSize;
+    }
+
+    public void setPageSize(final int pageSize) {
+
+        this.pageSize = pageSize;
+    }
+
+}
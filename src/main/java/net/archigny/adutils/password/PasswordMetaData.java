@@ -7,10 +7,15 @@ package net.archigny.adutils.password;
  */
 public class PasswordMetaData {
 
+    /**
+     * Expiration time of passwords which never expire
+     */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
     /**
      * Password last set in AD format (100 nanoseconds since 01/01/1601)
      */
-    private long lastSet;
+    private long             lastSet;
 
     /**
      * @param lastSet Password Last Set time in I8 format
@@ -42,7 +47,52 @@ public class PasswordMetaData {
      * @return calculated timestamp
      */
     public long getExpirationTime(final PasswordSettings pso) {
-        return I8.convertToEpoch(lastSet - pso.getMaximumPasswordAge());
+        return computeExpirationTime(lastSet, pso);
     }
-    
+
+    /**
+     * Calculate password expiration Date in ms since epoch, without building a PasswordMetaData
+     * 
+     * @param lastSet Password Last Set time in I8 format, 0 if password has to be changed at next logon
+     * @param pso Password Settings to apply
+     * @return calculated timestamp, 0 if password has to be changed at next logon, NEVER_EXPIRES if maximum password age is not
+     *         set
+     */
+    public static long computeExpirationTime(final long lastSet, final PasswordSettings pso) {
+
+        return computeExpirationTime(lastSet, pso.getMaximumPasswordAge());
+    }
+
+    /**
+     * Calculate password expiration Date in ms since epoch from the maximum password age alone. Out of range values saturate instead
+     * of overflowing : NEVER_EXPIRES when the expiration is beyond the range of I8 values.
+     * 
+     * @param lastSet Password Last Set time in I8 format, 0 if password has to be changed at next logon
+     * @param maximumAge Maximum password age in I8 format
+     * @return calculated timestamp, 0 if password has to be changed at next logon, NEVER_EXPIRES if maximum password age is not
+     *         set
+     */
+    public static long computeExpirationTime(final long lastSet, final long maximumAge) {
+
+        if (lastSet == 0) {
+            return 0;
+        }
+        if ((maximumAge == 0) || (maximumAge == I8.NEVER)) {
+            return NEVER_EXPIRES;
+        }
+        long expiration = lastSet - maximumAge;
+        if (((lastSet ^ maximumAge) & (lastSet ^ expiration)) < 0) {
+            // Overflow
+            if (lastSet > 0) {
+                return NEVER_EXPIRES;
+            }
+            expiration = Long.MIN_VALUE;
+        }
+        if (expiration < 0) {
+            // Same result as I8.convertToEpoch, which would overflow : both divisions round toward zero
+            return expiration / I8.AD_TO_TIME_SCALE - I8.AD_TO_EPOCH / I8.AD_TO_TIME_SCALE;
+        }
+        return I8.convertToEpoch(expiration);
+    }
+
 }
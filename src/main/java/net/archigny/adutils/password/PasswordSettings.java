@@ -1,89 +1,95 @@
 package net.archigny.adutils.password;
 
+import java.util.concurrent.TimeUnit;
+
 /**
- * POJO representing a Password Settings Object (PSO) for fine grained passwords of Active Directory (since AD2008)
+ * Immutable value representing a Password Settings Object (PSO) for fine grained passwords of Active Directory (since AD2008)
  * 
  * voir : http://technet.microsoft.com/en-us/library/cc770842%28v=ws.10%29
  * 
+ * <p>
+ * Instances are validated once when built, and the intervals are converted once from I8 format to milliseconds, so instances can
+ * be shared by all callers and read without locking. Use the constructor with all parameters or a {@link Builder}.
+ * 
  * @author Philippe Marasse <philippe.marasse@laposte.net>
  * 
  */
 public final class PasswordSettings {
 
+    /**
+     * Interval in ms of an I8 interval which never ends (0 or I8.NEVER)
+     */
+    public static final long MILLIS_NEVER = Long.MAX_VALUE;
+
     /**
      * True if password will be stored with a reversible encryption mechanism
      */
-    private boolean reversibleEncryption;
+    private final boolean    reversibleEncryption;
 
     /**
      * 0 : no password history 1-1024 : length of password history to be kept by AD
      */
-    private int     historyLength;
+    private final int        historyLength;
 
     /**
      * True if password complexity is enabled
      */
-    private boolean passwordComplexity;
+    private final boolean    passwordComplexity;
 
     /**
      * Minimum password lenght in characters
      */
-    private int     minimumPasswordLength;
+    private final int        minimumPasswordLength;
 
     /**
      * Minimum password age in I8 format
      */
-    private long    minimumPasswordAge;
+    private final long       minimumPasswordAge;
 
     /**
      * Maximum password age in I8 format
      */
-    private long    maximumPasswordAge;
+    private final long       maximumPasswordAge;
 
     /**
      * Maximum password tries before locking an account in I8 format
      */
-    private int     lockoutThreshold;
+    private final int        lockoutThreshold;
 
     /**
      * Lockout duration for locked out user accounts in I8 format
      */
-    private long    lockoutDuration;
+    private final long       lockoutDuration;
 
     /**
      * Observation Window for lockout of user accounts in I8 format
      */
-    private long    lockoutObservationWindow;
+    private final long       lockoutObservationWindow;
 
     /**
-     * Are attributes satisfying referential integrity
+     * Minimum password age in ms
      */
-    private boolean valid = false;
+    private final long       minimumPasswordAgeMillis;
 
     /**
-     * Validate attributes referential integrity voir : http://technet.microsoft.com/en-us/library/cc753858%28v=ws.10%29.aspx
+     * Maximum password age in ms, MILLIS_NEVER if passwords never expire
      */
-    private synchronized boolean validate() {
+    private final long       maximumPasswordAgeMillis;
 
-        boolean valid = true;
-        // Beware : long values are stored in I8 format !!
+    /**
+     * Lockout duration in ms, MILLIS_NEVER if accounts stay locked until an administrator unlocks them
+     */
+    private final long       lockoutDurationMillis;
 
-        // maximum password age cannot be zero
-        if (maximumPasswordAge == 0) {
-            valid = false;
-        } else
-        // password ages : minimum <= maximum.
-        if (minimumPasswordAge < maximumPasswordAge) {
-            valid = false;
-        } else
-        // lochoutObservationWindow <= lockoutDuration
-        if (lockoutDuration > lockoutObservationWindow) {
-            valid = false;
-        }
+    /**
+     * Observation Window for lockout in ms
+     */
+    private final long       lockoutObservationWindowMillis;
 
-        this.valid = valid;
-        return valid;
-    }
+    /**
+     * Are attributes satisfying referential integrity
+     */
+    private final boolean    valid;
 
     /**
      * Creates an instance with all parameters.
@@ -101,49 +107,261 @@ public final class PasswordSettings {
         this.lockoutThreshold = lockoutThreshold;
         this.lockoutDuration = lockoutDuration;
         this.lockoutObservationWindow = lockoutObservationWindow;
-        validate();
+        this.minimumPasswordAgeMillis = toMillis(minimumPasswordAge, 0);
+        this.maximumPasswordAgeMillis = toMillis(maximumPasswordAge, MILLIS_NEVER);
+        this.lockoutDurationMillis = toMillis(lockoutDuration, MILLIS_NEVER);
+        this.lockoutObservationWindowMillis = toMillis(lockoutObservationWindow, 0);
+        this.valid = validate();
     }
 
-    // Setters & Getters
+    /**
+     * @return a builder whose fields are all 0 or false
+     */
+    public static Builder builder() {
 
-    public boolean isReversibleEncryption() {
+        return new Builder();
+    }
 
-        return reversibleEncryption;
+    /**
+     * Validate attributes referential integrity voir : http://technet.microsoft.com/en-us/library/cc753858%28v=ws.10%29.aspx
+     */
+    private boolean validate() {
+
+        // Beware : long values are stored in I8 format !!
+
+        // maximum password age cannot be zero
+        if (maximumPasswordAge == 0) {
+            return false;
+        }
+        // password ages : minimum <= maximum.
+        if (minimumPasswordAge < maximumPasswordAge) {
+            return false;
+        }
+        // lochoutObservationWindow <= lockoutDuration
+        if (lockoutDuration > lockoutObservationWindow) {
+            return false;
+        }
+        return true;
     }
 
-    public void setReversibleEncryption(final boolean reversibleEncryption) {
+    /**
+     * Converts a negative I8 interval to ms
+     * 
+     * @param interval
+     *            interval in I8 format
+     * @param zero
+     *            value of a zero interval, which means "never" for some attributes
+     */
+    private static long toMillis(final long interval, final long zero) {
 
-        this.reversibleEncryption = reversibleEncryption;
+        if (interval == 0) {
+            return zero;
+        }
+        if (interval == I8.NEVER) {
+            return MILLIS_NEVER;
+        }
+        return -(interval / I8.AD_TO_TIME_SCALE);
     }
 
-    public int getHistoryLength() {
+    /**
+     * Converts an interval in ms, MILLIS_NEVER staying Long.MAX_VALUE in any unit
+     */
+    private static long convert(final long millis, final TimeUnit unit) {
 
-        return historyLength;
+        if (unit == null) {
+            throw new IllegalArgumentException("unit : null value not allowed");
+        }
+        return (millis == MILLIS_NEVER) ? Long.MAX_VALUE : unit.convert(millis, TimeUnit.MILLISECONDS);
     }
 
-    public void setHistoryLength(final int historyLength) {
+    @Override
+    public boolean equals(final Object obj) {
 
-        this.historyLength = historyLength;
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PasswordSettings)) {
+            return false;
+        }
+        final PasswordSettings other = (PasswordSettings) obj;
+        return (reversibleEncryption == other.reversibleEncryption) && (historyLength == other.historyLength)
+                && (passwordComplexity == other.passwordComplexity) && (minimumPasswordLength == other.minimumPasswordLength)
+                && (minimumPasswordAge == other.minimumPasswordAge) && (maximumPasswordAge == other.maximumPasswordAge)
+                && (lockoutThreshold == other.lockoutThreshold) && (lockoutDuration == other.lockoutDuration)
+                && (lockoutObservationWindow == other.lockoutObservationWindow);
     }
 
-    public boolean isPasswordComplexity() {
+    @Override
+    public int hashCode() {
+
+        int hash = (reversibleEncryption ? 1 : 0) | (passwordComplexity ? 2 : 0);
+        hash = 31 * hash + historyLength;
+        hash = 31 * hash + minimumPasswordLength;
+        hash = 31 * hash + lockoutThreshold;
+        hash = 31 * hash + (int) (minimumPasswordAge ^ (minimumPasswordAge >>> 32));
+        hash = 31 * hash + (int) (maximumPasswordAge ^ (maximumPasswordAge >>> 32));
+        hash = 31 * hash + (int) (lockoutDuration ^ (lockoutDuration >>> 32));
+        hash = 31 * hash + (int) (lockoutObservationWindow ^ (lockoutObservationWindow >>> 32));
+        return hash;
+    }
 
-        return passwordComplexity;
+    @Override
+    public String toString() {
+
+        return "PasswordSettings [reversibleEncryption=" + reversibleEncryption + ", historyLength=" + historyLength
+                + ", passwordComplexity=" + passwordComplexity + ", minimumPasswordLength=" + minimumPasswordLength
+                + ", minimumPasswordAge=" + minimumPasswordAge + ", maximumPasswordAge=" + maximumPasswordAge
+                + ", lockoutThreshold=" + lockoutThreshold + ", lockoutDuration=" + lockoutDuration
+                + ", lockoutObservationWindow=" + lockoutObservationWindow + "]";
     }
 
-    public void setPasswordComplexity(final boolean passwordComplexity) {
+    /**
+     * Collects the fields of a PasswordSettings, then builds it. Not thread safe.
+     */
+    public static final class Builder {
 
-        this.passwordComplexity = passwordComplexity;
+        private boolean reversibleEncryption;
+
+        private int     historyLength;
+
+        private boolean passwordComplexity;
+
+        private int     minimumPasswordLength;
+
+        private long    minimumPasswordAge;
+
+        private long    maximumPasswordAge;
+
+        private int     lockoutThreshold;
+
+        private long    lockoutDuration;
+
+        private long    lockoutObservationWindow;
+
+        private Builder() {
+
+        }
+
+        /**
+         * Copies all the fields of settings
+         */
+        public Builder from(final PasswordSettings settings) {
+
+            if (settings == null) {
+                throw new IllegalArgumentException("settings : null value not allowed");
+            }
+            reversibleEncryption = settings.reversibleEncryption;
+            historyLength = settings.historyLength;
+            passwordComplexity = settings.passwordComplexity;
+            minimumPasswordLength = settings.minimumPasswordLength;
+            minimumPasswordAge = settings.minimumPasswordAge;
+            maximumPasswordAge = settings.maximumPasswordAge;
+            lockoutThreshold = settings.lockoutThreshold;
+            lockoutDuration = settings.lockoutDuration;
+            lockoutObservationWindow = settings.lockoutObservationWindow;
+            return this;
+        }
+
+        public Builder reversibleEncryption(final boolean reversibleEncryption) {
+
+            this.reversibleEncryption = reversibleEncryption;
+            return this;
+        }
+
+        public Builder historyLength(final int historyLength) {
+
+            this.historyLength = historyLength;
+            return this;
+        }
+
+        public Builder passwordComplexity(final boolean passwordComplexity) {
+
+            this.passwordComplexity = passwordComplexity;
+            return this;
+        }
+
+        public Builder minimumPasswordLength(final int minimumPasswordLength) {
+
+            this.minimumPasswordLength = minimumPasswordLength;
+            return this;
+        }
+
+        /**
+         * @param minimumPasswordAge
+         *            in I8 format
+         */
+        public Builder minimumPasswordAge(final long minimumPasswordAge) {
+
+            this.minimumPasswordAge = minimumPasswordAge;
+            return this;
+        }
+
+        /**
+         * @param maximumPasswordAge
+         *            in I8 format
+         */
+        public Builder maximumPasswordAge(final long maximumPasswordAge) {
+
+            this.maximumPasswordAge = maximumPasswordAge;
+            return this;
+        }
+
+        public Builder lockoutThreshold(final int lockoutThreshold) {
+
+            this.lockoutThreshold = lockoutThreshold;
+            return this;
+        }
+
+        /**
+         * @param lockoutDuration
+         *            in I8 format
+         */
+        public Builder lockoutDuration(final long lockoutDuration) {
+
+            this.lockoutDuration = lockoutDuration;
+            return this;
+        }
+
+        /**
+         * @param lockoutObservationWindow
+         *            in I8 format
+         */
+        public Builder lockoutObservationWindow(final long lockoutObservationWindow) {
+
+            this.lockoutObservationWindow = lockoutObservationWindow;
+            return this;
+        }
+
+        /**
+         * @return new settings, validated once
+         */
+        public PasswordSettings build() {
+
+            return new PasswordSettings(reversibleEncryption, historyLength, passwordComplexity, minimumPasswordLength,
+                    minimumPasswordAge, maximumPasswordAge, lockoutThreshold, lockoutDuration, lockoutObservationWindow);
+        }
     }
 
-    public int getMinimumPasswordLength() {
+    // Getters
 
-        return minimumPasswordLength;
+    public boolean isReversibleEncryption() {
+
+        return reversibleEncryption;
     }
 
-    public void setMinimumPasswordLength(final int minimumPasswordLength) {
+    public int getHistoryLength() {
 
-        this.minimumPasswordLength = minimumPasswordLength;
+        return historyLength;
+    }
+
+    public boolean isPasswordComplexity() {
+
+        return passwordComplexity;
+    }
+
+    public int getMinimumPasswordLength() {
+
+        return minimumPasswordLength;
     }
 
     public long getMinimumPasswordAge() {
@@ -151,10 +369,20 @@ public final class PasswordSettings {
         return minimumPasswordAge;
     }
 
-    public void setMinimumPasswordAge(final long minimumPasswordAge) {
+    /**
+     * @return minimum password age in ms
+     */
+    public long getMinimumPasswordAgeMillis() {
 
-        this.minimumPasswordAge = minimumPasswordAge;
-        validate();
+        return minimumPasswordAgeMillis;
+    }
+
+    /**
+     * @return minimum password age in unit, rounded down
+     */
+    public long getMinimumPasswordAge(final TimeUnit unit) {
+
+        return convert(minimumPasswordAgeMillis, unit);
     }
 
     public long getMaximumPasswordAge() {
@@ -162,20 +390,25 @@ public final class PasswordSettings {
         return maximumPasswordAge;
     }
 
-    public void setMaximumPasswordAge(final long maximumPasswordAge) {
+    /**
+     * @return maximum password age in ms, MILLIS_NEVER if passwords never expire
+     */
+    public long getMaximumPasswordAgeMillis() {
 
-        this.maximumPasswordAge = maximumPasswordAge;
-        validate();
+        return maximumPasswordAgeMillis;
     }
 
-    public int getLockoutThreshold() {
+    /**
+     * @return maximum password age in unit, Long.MAX_VALUE if passwords never expire
+     */
+    public long getMaximumPasswordAge(final TimeUnit unit) {
 
-        return lockoutThreshold;
+        return convert(maximumPasswordAgeMillis, unit);
     }
 
-    public void setLockoutThreshold(final int lockoutThreshold) {
+    public int getLockoutThreshold() {
 
-        this.lockoutThreshold = lockoutThreshold;
+        return lockoutThreshold;
     }
 
     public long getLockoutDuration() {
@@ -183,10 +416,20 @@ public final class PasswordSettings {
         return lockoutDuration;
     }
 
-    public void setLockoutDuration(final long lockoutDuration) {
+    /**
+     * @return lockout duration in ms, MILLIS_NEVER if accounts stay locked until unlocked by an administrator
+     */
+    public long getLockoutDurationMillis() {
 
-        this.lockoutDuration = lockoutDuration;
-        validate();
+        return lockoutDurationMillis;
+    }
+
+    /**
+     * @return lockout duration in unit, Long.MAX_VALUE if accounts stay locked until unlocked by an administrator
+     */
+    public long getLockoutDuration(final TimeUnit unit) {
+
+        return convert(lockoutDurationMillis, unit);
     }
 
     public long getLockoutObservationWindow() {
@@ -194,10 +437,20 @@ public final class PasswordSettings {
         return lockoutObservationWindow;
     }
 
-    public void setLockoutObservationWindow(final long lockoutObservationWindow) {
+    /**
+     * @return observation window for lockout in ms
+     */
+    public long getLockoutObservationWindowMillis() {
 
-        this.lockoutObservationWindow = lockoutObservationWindow;
-        validate();
+        return lockoutObservationWindowMillis;
+    }
+
+    /**
+     * @return observation window for lockout in unit, rounded down
+     */
+    public long getLockoutObservationWindow(final TimeUnit unit) {
+
+        return convert(lockoutObservationWindowMillis, unit);
     }
 
     public boolean isValid() {
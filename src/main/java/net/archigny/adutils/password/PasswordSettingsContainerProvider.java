@@ -1,22 +1,33 @@
 package net.archigny.adutils.password;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
 
+import net.archigny.adutils.password.util.DecoderPlan;
+import net.archigny.adutils.password.util.PasswordSettingsInterner;
 import net.archigny.adutils.password.util.PasswordSettingsMapper;
+import net.archigny.adutils.password.util.RdnIndex;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.BeanInitializationException;
-import org.springframework.beans.factory.InitializingBean;
 import org.springframework.ldap.BadLdapGrammarException;
-import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.NameNotFoundException;
+import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.DistinguishedName;
-import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+import org.springframework.ldap.support.LdapUtils;
 
 /**
  * Password Settings provider that reads content of the AD Container (since AD2008), usual DN is : <br />
@@ -25,121 +36,199 @@ import org.springframework.ldap.core.LdapTemplate;
  * @author Philippe MARASSE
  * 
  */
-public final class PasswordSettingsContainerProvider implements InitializingBean, IPasswordSettingsProvider {
+public final class PasswordSettingsContainerProvider extends AbstractLdapPasswordSettingsProvider implements IPasswordSettingsProvider {
 
     /**
-     * Logger instance
+     * Default RDN of password container object
      */
-    private final Logger              log                      = LoggerFactory.getLogger(PasswordSettingsContainerProvider.class);
+    public static final String                    AD_DEFAULT_CONTAINER_RDN = "CN=Password Settings Container,CN=System";
 
     /**
-     * Default RDN of password container object
+     * Default object class for PSO
      */
-    public static final String        AD_DEFAULT_CONTAINER_RDN = "CN=Password Settings Container,CN=System";
+    public static final String                    PSO_FILTER               = "(objectClass=msDS-PasswordSettings)";
 
     /**
-     * Default object class for PSO
+     * Attribute set to TRUE on deleted objects
      */
-    public static final String        PSO_FILTER               = "(objectClass=msDS-PasswordSettings)";
+    public static final String                    AD_IS_DELETED            = "isDeleted";
 
     /**
-     * Template used to query policy
+     * Maximum number of DN strings needing a full parser whose lookup is cached
      */
-    private LdapTemplate              ldapTemplate;
+    private static final int                      LOOKUP_CACHE_SIZE        = 256;
 
     /**
-     * Timestamp of last query
+     * Cached result of lookups of unknown or malformed DN's
      */
-    private long                      lastTimeFetched          = 0;
+    private static final Object                   NOT_FOUND                = new Object();
 
     /**
-     * Time between two reloads of the policy
+     * Attributes read by the incremental sweep
      */
-    private long                      refreshInterval          = 86400000L;
+    private static final String[]                 PSO_USN_ATTRS            = { PasswordSettingsMapper.AD_USN_CHANGED };
 
     /**
      * Ldap domain DN to read (eg: dc=example, dc=com), can be a relative DN if ContextSource is the domaine base DN
      */
-    private String                    containerDN              = AD_DEFAULT_CONTAINER_RDN;
+    private String                                containerDN              = AD_DEFAULT_CONTAINER_RDN;
 
     /**
      * LDAP Filter, default should be OK
      */
-    private String                    filter                   = PSO_FILTER;
+    private String                                filter                   = PSO_FILTER;
+
+    /**
+     * Incremental mode : only PSO's whose uSNChanged differs from the cached one are read in full
+     */
+    private boolean                               incremental              = false;
+
+    /**
+     * In incremental mode, time between two full reloads (ms)
+     */
+    private long                                  fullSyncInterval         = 86400000L;
 
     /**
-     * The PSO's, key is suffix of PSO's DN (cn=xxx)
+     * Timestamp of last full reload
      */
-    HashMap<String, PasswordSettings> policies                 = new HashMap<String, PasswordSettings>();
+    private long                                  lastFullSync             = 0;
+
+    /**
+     * Decoding of the PSO entries, can extend PasswordSettingsMapper.PSO_PLAN to read other attributes
+     */
+    private DecoderPlan<PasswordSettings.Builder> psoPlan                  = PasswordSettingsMapper.PSO_PLAN;
+
+    /**
+     * Attributes read when PSO's are fully fetched : attributes of psoPlan and change number
+     */
+    private String[]                              syncAttributes           = attributesOf(psoPlan,
+                                                                                   PasswordSettingsMapper.AD_USN_CHANGED);
+
+    /**
+     * Attributes returned by change notifications
+     */
+    private String[]                              notificationAttributes   = attributesOf(psoPlan,
+                                                                                   PasswordSettingsMapper.AD_USN_CHANGED,
+                                                                                   AD_IS_DELETED);
+
+    /**
+     * Immutable snapshot of the PSO's currently served, replaced as a whole after each successful fetch
+     */
+    private final AtomicReference<Snapshot>       snapshot                 = new AtomicReference<Snapshot>(Snapshot.EMPTY);
 
     @Override
     public Map<String, PasswordSettings> getAllPasswordSettings() {
 
-        updatePasswordSettings(false);
-        return policies;
+        refreshIfExpired();
+        return snapshot.get().policies;
     }
 
+    /**
+     * Lookup a PSO from its DN, typically the value of msDS-ResultantPSO. Common DN's are resolved without being parsed nor
+     * locked ; the result of DN's needing a full parser (even null) is cached until new PSO's are published.
+     */
     @Override
     public PasswordSettings getPasswordSettings(final String DN) {
 
+        if ((DN == null) || (DN.length() == 0)) {
+            return null;
+        }
+        refreshIfExpired();
+        final Snapshot current = snapshot.get();
+
+        final long rdn = RdnIndex.locate(DN);
+        if (rdn >= 0) {
+            return current.index.get(DN, rdn);
+        }
+
+        final Object cached = current.lookups.get(DN);
+        if (cached != null) {
+            return (cached == NOT_FOUND) ? null : (PasswordSettings) cached;
+        }
+        final PasswordSettings result;
+        if (rdn == RdnIndex.MALFORMED) {
+            log.warn("Unable to parse LDAP DN : [{}]. Returning null", DN);
+            result = null;
+        } else {
+            result = parse(current, DN);
+        }
+        // Entries are never evicted : once full, further lookups are just not cached
+        if (current.lookups.size() < LOOKUP_CACHE_SIZE) {
+            current.lookups.putIfAbsent(DN, (result == null) ? NOT_FOUND : result);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a DN the RDN index cannot locate (escaped characters...) through the DN parser
+     */
+    private PasswordSettings parse(final Snapshot current, final String DN) {
+
         try {
-            return getPasswordSettings(new DistinguishedName(DN));
+            final DistinguishedName name = new DistinguishedName(DN);
+            return name.isEmpty() ? null : current.policies.get(name.get(name.size() - 1).toLowerCase());
         } catch (BadLdapGrammarException e) {
             log.warn("Unable to parse LDAP DN : [{}]. Returning null", DN);
             return null;
         }
-
     }
 
     @Override
     public PasswordSettings getPasswordSettings(final Name name) {
 
         if (!name.isEmpty()) {
-            updatePasswordSettings(false);
+            refreshIfExpired();
             final String suffix = name.get(name.size() - 1).toLowerCase();
-            return policies.get(suffix);
+            return snapshot.get().policies.get(suffix);
         }
         return null;
     }
 
     @Override
-    public void afterPropertiesSet() throws Exception {
+    protected boolean hasPasswordSettings() {
 
-        if (ldapTemplate == null) {
-            throw new BeanInitializationException("contextSource cannot be null");
-        }
-        if (!updatePasswordSettings(true) && log.isInfoEnabled()) {
-            log.info("PasswordPolicies has not been fetched although forceUpdate = true. Another reload attempt will be done at first query");
-        }
+        return !snapshot.get().policies.isEmpty();
+    }
+
+    @Override
+    protected Map<String, PasswordSettings> getSnapshotPasswordSettings() {
 
+        return snapshot.get().policies;
     }
 
-    /**
-     * Domain Policy fetching, should be thread-safe
-     * 
-     * @return true if fetch has really been done
-     */
-    private synchronized boolean updatePasswordSettings(final boolean forceUpdate) {
+    @Override
+    protected boolean restorePasswordSettings(final Map<String, PasswordSettings> policies) {
 
-        if ((System.currentTimeMillis() <= lastTimeFetched + refreshInterval) && !forceUpdate && (!policies.isEmpty())) {
+        if (policies.isEmpty()) {
             return false;
         }
+        // uSNChanged are not saved : next fetch is a full one
+        snapshot.set(new Snapshot(new HashMap<String, PasswordSettings>(policies), new HashMap<String, String>()));
+        return true;
+    }
+
+    @Override
+    protected boolean fetchPasswordSettings() {
+
+        if (incremental && hasPasswordSettings() && (System.currentTimeMillis() <= lastFullSync + fullSyncInterval)) {
+            return fetchChangedPasswordSettings();
+        }
 
         if (log.isDebugEnabled()) {
-            log.debug("Password policy will be read : " + ((policies.isEmpty()) ? " it has never been fetched." : "")
-                    + ((forceUpdate) ? " Update has been forced." : ""));
+            log.debug("Password policy will be read : " + ((hasPasswordSettings()) ? "" : " it has never been fetched."));
             log.debug("LDAP filter used : {}", filter);
-            log.debug("Attributes fetched {}", Arrays.toString(PasswordSettingsMapper.DEFAULT_DOMAIN_POLICY_ATTRS));
+            log.debug("Attributes fetched {}", Arrays.toString(syncAttributes));
         }
 
         final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>();
+        final HashMap<String, String> usns = new HashMap<String, String>();
 
         final SearchControls sc = new SearchControls();
         sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
-        sc.setReturningObjFlag(true);
-        sc.setReturningAttributes(PasswordSettingsMapper.PSO_ATTRS);
+        sc.setReturningObjFlag(false);
+        sc.setReturningAttributes(syncAttributes);
 
-        ldapTemplate.search(containerDN, filter, sc, new PasswordSettingsMapper(policies, PasswordSettingsMapper.PSO_ATTRS));
+        getLdapTemplate().search(containerDN, filter, sc, UsnTrackingHandler.forSettings(policies, usns, psoPlan, getInterner()));
 
         if (policies.isEmpty()) {
             log.warn("No Policy has been read from LDAP !! Are you sure that ACLs allows reading of the container");
@@ -147,29 +236,293 @@ public final class PasswordSettingsContainerProvider implements InitializingBean
         }
 
         // Only override if a result has been read
-        this.policies = policies;
-        this.lastTimeFetched = System.currentTimeMillis();
+        snapshot.set(new Snapshot(policies, usns));
+        lastFullSync = System.currentTimeMillis();
 
         return true;
     }
 
-    // Setters & Getters
+    @Override
+    protected String getNotificationBase() {
+
+        return containerDN;
+    }
+
+    @Override
+    protected int getNotificationScope() {
+
+        return SearchControls.ONELEVEL_SCOPE;
+    }
+
+    @Override
+    protected String[] getNotificationAttributes() {
+
+        return notificationAttributes;
+    }
+
+    @Override
+    protected boolean isShowDeletedNotified() {
+
+        return true;
+    }
+
+    /**
+     * Patches the snapshot with an added or modified PSO. Deletions are left to a refresh, as deleted objects are renamed.
+     */
+    @Override
+    protected boolean applyNotification(final String dn, final Attributes attributes) {
+
+        try {
+            final Attribute deleted = attributes.get(AD_IS_DELETED);
+            if ((deleted != null) && PasswordSettingsMapper.LDAP_TRUE_VALUE.equalsIgnoreCase(String.valueOf(deleted.get()))) {
+                return false;
+            }
+        } catch (NamingException e) {
+            return false;
+        }
+
+        final DistinguishedName name;
+        try {
+            name = new DistinguishedName(dn);
+        } catch (BadLdapGrammarException e) {
+            return false;
+        }
+        if (name.isEmpty()) {
+            return false;
+        }
 
-    public void setContextSource(final ContextSource cs) {
+        final Snapshot current = snapshot.get();
+        final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>(current.policies);
+        final HashMap<String, String> usns = new HashMap<String, String>(current.usns);
+        UsnTrackingHandler.forSettings(policies, usns, psoPlan, getInterner()).map(name, attributes);
 
-        this.ldapTemplate = new LdapTemplate(cs);
+        if (!policies.containsKey(name.get(name.size() - 1).toLowerCase())) {
+            return false;
+        }
+        snapshot.set(new Snapshot(policies, usns));
+        return true;
     }
 
-    public void setRefreshInterval(final long refreshInterval) {
+    /**
+     * Incremental fetching : reads the uSNChanged of all PSO's, then fully reads only the added or modified ones and drops the
+     * deleted ones. As uSNChanged is local to each DC, switching to another DC leads to a full read of the PSO's.
+     * 
+     * @return true if PSO's have been checked, even if nothing changed
+     */
+    private boolean fetchChangedPasswordSettings() {
+
+        final Snapshot current = snapshot.get();
+
+        final HashMap<String, String> usns = new HashMap<String, String>();
+        final HashMap<String, Name> names = new HashMap<String, Name>();
+
+        final SearchControls sc = new SearchControls();
+        sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+        sc.setReturningObjFlag(false);
+        sc.setReturningAttributes(PSO_USN_ATTRS);
+
+        getLdapTemplate().search(containerDN, filter, sc, UsnTrackingHandler.forNames(names, containerDN, usns));
+
+        if (usns.isEmpty()) {
+            log.warn("No Policy has been read from LDAP !! Keeping previous ones");
+            return false;
+        }
+
+        final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>(current.policies);
+        final HashMap<String, String> newUsns = new HashMap<String, String>(current.usns);
+        boolean changed = policies.keySet().retainAll(usns.keySet());
+        newUsns.keySet().retainAll(usns.keySet());
+
+        final UsnTrackingHandler handler = UsnTrackingHandler.forSettings(policies, newUsns, psoPlan, getInterner());
+        for (Entry<String, String> entry : usns.entrySet()) {
+            if (!entry.getValue().equals(current.usns.get(entry.getKey()))) {
+                log.debug("PSO {} has been added or modified, reading it", entry.getKey());
+                try {
+                    final Name name = names.get(entry.getKey());
+                    getLdapTemplate().lookup(name, syncAttributes, handler.forEntry(name));
+                    changed = true;
+                } catch (NameNotFoundException e) {
+                    // Deleted between the two queries
+                    changed |= (policies.remove(entry.getKey()) != null);
+                    newUsns.remove(entry.getKey());
+                }
+            }
+        }
+
+        if (changed) {
+            if (policies.isEmpty()) {
+                log.warn("All policies have been removed from LDAP !! Keeping previous ones");
+                return false;
+            }
+            snapshot.set(new Snapshot(policies, newUsns));
+        }
+
+        return true;
+    }
+
+    /**
+     * Immutable set of PSO's
+     */
+    private static final class Snapshot {
+
+        /**
+         * Snapshot used before first successful fetch
+         */
+        static final Snapshot               EMPTY = new Snapshot(new HashMap<String, PasswordSettings>(),
+                                                          new HashMap<String, String>());
+
+        /**
+         * The PSO's, key is suffix of PSO's DN (cn=xxx)
+         */
+        final Map<String, PasswordSettings> policies;
+
+        /**
+         * uSNChanged of the PSO's, same keys
+         */
+        final Map<String, String>           usns;
+
+        /**
+         * The PSO's, looked up from the first RDN of a DN string
+         */
+        final RdnIndex<PasswordSettings>    index;
+
+        /**
+         * Lookups of DN strings needing a full parser, either a PasswordSettings or NOT_FOUND. Bounded by LOOKUP_CACHE_SIZE.
+         */
+        final ConcurrentMap<String, Object> lookups;
+
+        Snapshot(final Map<String, PasswordSettings> policies, final Map<String, String> usns) {
+
+            this.policies = Collections.unmodifiableMap(policies);
+            this.usns = usns;
+            this.index = new RdnIndex<PasswordSettings>(policies);
+            this.lookups = new ConcurrentHashMap<String, Object>();
+        }
+    }
+
+    /**
+     * Handler collecting the uSNChanged of PSO's, along with either their settings or their name. Entries are read from searches
+     * made without returning objects, or through {@link #forEntry(Name)} from lookups.
+     */
+    private static final class UsnTrackingHandler implements NameClassPairCallbackHandler {
+
+        /**
+         * Collected settings, null if only names are collected
+         */
+        private final Map<String, PasswordSettings> policies;
+
+        /**
+         * PSO mapper, null if only names are collected
+         */
+        private final PasswordSettingsMapper        mapper;
+
+        /**
+         * Collected names, null if settings are collected
+         */
+        private final Map<String, Name>             names;
+
+        /**
+         * Base of the search, names of the results are relative to it
+         */
+        private final String                        base;
+
+        /**
+         * Collected uSNChanged
+         */
+        private final Map<String, String>           usns;
+
+        private UsnTrackingHandler(final Map<String, PasswordSettings> policies,
+                final DecoderPlan<PasswordSettings.Builder> plan, final PasswordSettingsInterner interner,
+                final Map<String, Name> names, final String base, final Map<String, String> usns) {
+
+            this.policies = policies;
+            this.mapper = (policies == null) ? null : new PasswordSettingsMapper(policies, plan, interner);
+            this.names = names;
+            this.base = base;
+            this.usns = usns;
+        }
+
+        static UsnTrackingHandler forSettings(final Map<String, PasswordSettings> policies, final Map<String, String> usns,
+                final DecoderPlan<PasswordSettings.Builder> plan, final PasswordSettingsInterner interner) {
+
+            return new UsnTrackingHandler(policies, plan, interner, null, null, usns);
+        }
+
+        static UsnTrackingHandler forNames(final Map<String, Name> names, final String base, final Map<String, String> usns) {
+
+            return new UsnTrackingHandler(null, null, null, names, base, usns);
+        }
+
+        @Override
+        public void handleNameClassPair(final NameClassPair nameClassPair) {
+
+            final SearchResult result = (SearchResult) nameClassPair;
+            final DistinguishedName dn = new DistinguishedName(result.getName());
+            if ((names != null) && result.isRelative()) {
+                // Names are used for lookups, relative to the base of the context source
+                dn.prepend(new DistinguishedName(base));
+            }
+            map(dn, result.getAttributes());
+        }
+
+        /**
+         * @return mapper of the lookup of one entry
+         */
+        AttributesMapper forEntry(final Name dn) {
+
+            return new AttributesMapper() {
+
+                @Override
+                public Object mapFromAttributes(final Attributes attributes) {
+
+                    map(dn, attributes);
+                    return null;
+                }
+            };
+        }
 
-        this.refreshInterval = refreshInterval;
+        void map(final Name dn, final Attributes attributes) {
+
+            final String rdn = dn.get(dn.size() - 1);
+            final String key = rdn.toLowerCase();
+            final String usn;
+            try {
+                final Attribute attribute = attributes.get(PasswordSettingsMapper.AD_USN_CHANGED);
+                usn = (attribute == null) ? null : (String) attribute.get();
+            } catch (NamingException e) {
+                throw LdapUtils.convertLdapException(e);
+            }
+
+            if (mapper != null) {
+                policies.remove(key);
+                mapper.mapFromAttributes(rdn, attributes);
+                if (!policies.containsKey(key)) {
+                    // Not parsed : will be read again at next refresh
+                    usns.remove(key);
+                    return;
+                }
+            } else {
+                names.put(key, dn);
+            }
+            if (usn != null) {
+                usns.put(key, usn);
+            }
+        }
     }
 
-    public long getRefreshInterval() {
+    /**
+     * @return attributes of plan followed by extra ones
+     */
+    private static String[] attributesOf(final DecoderPlan<PasswordSettings.Builder> plan, final String... extra) {
 
-        return refreshInterval;
+        final String[] bound = plan.getAttributeNames();
+        final String[] attributes = Arrays.copyOf(bound, bound.length + extra.length);
+        System.arraycopy(extra, 0, attributes, bound.length, extra.length);
+        return attributes;
     }
 
+    // Setters & Getters
+
     public void setContainerDN(final String containerDN) {
 
         this.containerDN = containerDN;
@@ -180,9 +533,44 @@ public final class PasswordSettingsContainerProvider implements InitializingBean
         return containerDN;
     }
 
-    public long getLastTimeFetched() {
+    public boolean isIncremental() {
+
+        return incremental;
+    }
+
+    public void setIncremental(final boolean incremental) {
+
+        this.incremental = incremental;
+    }
+
+    public long getFullSyncInterval() {
+
+        return fullSyncInterval;
+    }
+
+    public void setFullSyncInterval(final long fullSyncInterval) {
 
-        return lastTimeFetched;
+        this.fullSyncInterval = fullSyncInterval;
+    }
+
+    public DecoderPlan<PasswordSettings.Builder> getPsoPlan() {
+
+        return psoPlan;
+    }
+
+    /**
+     * @param psoPlan
+     *            decoding of the PSO entries, its attributes are requested along with uSNChanged. Has to be set before
+     *            afterPropertiesSet().
+     */
+    public void setPsoPlan(final DecoderPlan<PasswordSettings.Builder> psoPlan) {
+
+        if (psoPlan == null) {
+            throw new IllegalArgumentException("psoPlan : null value not allowed");
+        }
+        this.psoPlan = psoPlan;
+        this.syncAttributes = attributesOf(psoPlan, PasswordSettingsMapper.AD_USN_CHANGED);
+        this.notificationAttributes = attributesOf(psoPlan, PasswordSettingsMapper.AD_USN_CHANGED, AD_IS_DELETED);
     }
 
 }
@@ -1,5 +1,6 @@
 package net.archigny.adutils.password;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +24,11 @@ public class PasswordSettingsProvider implements IPasswordSettingsProvider, Init
      */
     private IDefaultPasswordSettingsProvider defaultPolicyProvider;
 
+    /**
+     * Merged view of the default policy and the PSO's, null until first read
+     */
+    private volatile MergedView              view;
+
     @Override
     public void afterPropertiesSet() throws Exception {
 
@@ -32,16 +38,40 @@ public class PasswordSettingsProvider implements IPasswordSettingsProvider, Init
 
     }
 
+    /**
+     * Returns an unmodifiable view of the default policy and all PSO's. The view is shared between callers and only rebuilt when one
+     * of the providers has published new settings, which is detected by identity : providers are expected to return the same
+     * instances until they read new settings.
+     */
     @Override
     public Map<String, PasswordSettings> getAllPasswordSettings() {
 
-        // As I don't know if policies have to be refreshed, Creating a new hashmap each time
-        final HashMap<String, PasswordSettings> result = new HashMap<String, PasswordSettings>();
-        result.put(DEFAULT_POLICY, defaultPolicyProvider.getPasswordSettings());
-        if (psoContainerProvider != null) {
-            result.putAll(psoContainerProvider.getAllPasswordSettings());
+        final PasswordSettings defaultPolicy = defaultPolicyProvider.getPasswordSettings();
+        final Map<String, PasswordSettings> psos = (psoContainerProvider == null) ? null : psoContainerProvider
+                .getAllPasswordSettings();
+
+        final MergedView current = view;
+        if ((current != null) && (current.defaultPolicy == defaultPolicy) && (current.psos == psos)) {
+            return current.merged;
         }
-        return result;
+        return rebuild(defaultPolicy, psos).merged;
+    }
+
+    private synchronized MergedView rebuild(final PasswordSettings defaultPolicy, final Map<String, PasswordSettings> psos) {
+
+        final MergedView current = view;
+        if ((current != null) && (current.defaultPolicy == defaultPolicy) && (current.psos == psos)) {
+            return current;
+        }
+
+        final HashMap<String, PasswordSettings> merged = new HashMap<String, PasswordSettings>();
+        merged.put(DEFAULT_POLICY, defaultPolicy);
+        if (psos != null) {
+            merged.putAll(psos);
+        }
+        final MergedView rebuilt = new MergedView(defaultPolicy, psos, merged, (current == null) ? 1 : current.version + 1);
+        view = rebuilt;
+        return rebuilt;
     }
 
     @Override
@@ -70,6 +100,38 @@ public class PasswordSettingsProvider implements IPasswordSettingsProvider, Init
         return result;
     }
 
+    /**
+     * @return Version of the merged view, incremented each time it is rebuilt, 0 if it has never been built
+     */
+    public long getVersion() {
+
+        final MergedView current = view;
+        return (current == null) ? 0 : current.version;
+    }
+
+    /**
+     * Immutable merged view, along with the provider results it has been built from
+     */
+    private static final class MergedView {
+
+        final PasswordSettings              defaultPolicy;
+
+        final Map<String, PasswordSettings> psos;
+
+        final Map<String, PasswordSettings> merged;
+
+        final long                          version;
+
+        MergedView(final PasswordSettings defaultPolicy, final Map<String, PasswordSettings> psos,
+                final Map<String, PasswordSettings> merged, final long version) {
+
+            this.defaultPolicy = defaultPolicy;
+            this.psos = psos;
+            this.merged = Collections.unmodifiableMap(merged);
+            this.version = version;
+        }
+    }
+
     // Getters and setters
     
     public IPasswordSettingsProvider getPsoContainerProvider() {
@@ -0,0 +1,469 @@
+package net.archigny.adutils.password;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Refresh scheduler shared by several providers (eg: one per domain). Directory fetches are done by a small dedicated thread pool,
+ * never on the request path :
+ * <ul>
+ * <li>each provider is refreshed at its own interval, randomly shifted by up to <code>jitter</code> percent ;</li>
+ * <li>two refreshes never start less than <code>minimumSpacing</code> ms apart, so providers do not hit the DCs in the same second ;</li>
+ * <li>a refresh lasting more than its provider's deadline is interrupted and retried after <code>retryInterval</code>.</li>
+ * </ul>
+ * A provider is never refreshed twice at the same time : an interrupted refresh keeps its worker until the provider returns, and
+ * its retry is only planned then. As blocking JNDI reads ignore interrupts, the context sources of the providers should set a read
+ * timeout (<code>com.sun.jndi.ldap.read.timeout</code> environment property) shorter than the deadline, otherwise a refresh
+ * stuck on an unresponsive DC keeps one of the <code>poolSize</code> workers until the connection is dropped.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class PasswordSettingsRefreshScheduler implements DisposableBean {
+
+    /**
+     * Logger instance
+     */
+    private final Logger                          log             = LoggerFactory.getLogger(PasswordSettingsRefreshScheduler.class);
+
+    /**
+     * Number of threads fetching from the directory
+     */
+    private int                                   poolSize        = 2;
+
+    /**
+     * Maximum random shift applied to each interval, as a ratio of this interval
+     */
+    private double                                jitter          = 0.1;
+
+    /**
+     * Minimum time between the start of two refreshes (ms)
+     */
+    private long                                  minimumSpacing  = 1000L;
+
+    /**
+     * Default deadline of a refresh (ms)
+     */
+    private long                                  defaultDeadline = 30000L;
+
+    /**
+     * Delay before a failed refresh is retried (ms)
+     */
+    private long                                  retryInterval   = 60000L;
+
+    /**
+     * Registered providers
+     */
+    private final Map<IRefreshable, Registration> registrations   = new ConcurrentHashMap<IRefreshable, Registration>();
+
+    /**
+     * Random source for jitter
+     */
+    private final Random                          random          = new Random();
+
+    /**
+     * Single thread handling timers and deadlines
+     */
+    private volatile ScheduledExecutorService     timer;
+
+    /**
+     * Threads doing the directory fetches
+     */
+    private volatile ExecutorService              workers;
+
+    /**
+     * First time at which next refresh may start, only used by the timer thread
+     */
+    private long                                  nextStart       = 0;
+
+    /**
+     * Registers a provider with the default deadline. Its first refresh is scheduled after one (jittered) refresh interval, the
+     * provider being supposed to have read its settings at startup. Otherwise, {@link #requestRetry(IRefreshable)} should follow.
+     * 
+     * @param target
+     *            provider to refresh
+     */
+    public void register(final IRefreshable target) {
+
+        register(target, defaultDeadline);
+    }
+
+    /**
+     * Registers a provider
+     * 
+     * @param target
+     *            provider to refresh
+     * @param deadline
+     *            maximum duration of one refresh of this provider (ms), should exceed the LDAP read timeout of the provider
+     */
+    public void register(final IRefreshable target, final long deadline) {
+
+        if (target == null) {
+            throw new IllegalArgumentException("target : null value not allowed");
+        }
+        start();
+        final Registration registration = new Registration(target, deadline);
+        final Registration previous = registrations.put(target, registration);
+        if (previous != null) {
+            previous.cancel();
+        }
+        registration.scheduleAfter(jittered(target.getRefreshInterval()));
+    }
+
+    /**
+     * Unregisters a provider. A running refresh is not interrupted but no other one will be scheduled.
+     * 
+     * @param target
+     *            provider to forget
+     */
+    public void unregister(final IRefreshable target) {
+
+        final Registration registration = registrations.remove(target);
+        if (registration != null) {
+            registration.cancel();
+        }
+    }
+
+    /**
+     * Asks for a refresh of a registered provider as soon as possible, without waiting for the end of its interval
+     * 
+     * @param target
+     *            provider to refresh
+     * @return false if the provider is not registered
+     */
+    public boolean requestRefresh(final IRefreshable target) {
+
+        final Registration registration = registrations.get(target);
+        if (registration == null) {
+            return false;
+        }
+        registration.scheduleAfter(0);
+        return true;
+    }
+
+    /**
+     * Asks for a refresh of a registered provider after <code>retryInterval</code>, eg. when its settings could not be read at
+     * startup
+     * 
+     * @param target
+     *            provider to refresh
+     * @return false if the provider is not registered
+     */
+    public boolean requestRetry(final IRefreshable target) {
+
+        final Registration registration = registrations.get(target);
+        if (registration == null) {
+            return false;
+        }
+        registration.scheduleAfter(jittered(Math.min(retryInterval, target.getRefreshInterval())));
+        return true;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+
+        for (Registration registration : registrations.values()) {
+            registration.cancel();
+        }
+        registrations.clear();
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                workers.shutdownNow();
+                timer = null;
+                workers = null;
+            }
+        }
+    }
+
+    /**
+     * Lazily creates the threads
+     */
+    private synchronized void start() {
+
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("PasswordSettingsRefreshScheduler-timer"));
+            workers = Executors.newFixedThreadPool(poolSize, new DaemonThreadFactory("PasswordSettingsRefreshScheduler-worker"));
+        }
+    }
+
+    /**
+     * @param interval
+     *            base interval
+     * @return interval randomly shifted by up to +/- jitter
+     */
+    private long jittered(final long interval) {
+
+        final long shift = (long) ((random.nextDouble() * 2 - 1) * jitter * interval);
+        return Math.max(0, interval + shift);
+    }
+
+    /**
+     * Scheduling state of one provider
+     */
+    private final class Registration implements Runnable {
+
+        /**
+         * Provider to refresh
+         */
+        final IRefreshable               target;
+
+        /**
+         * Deadline of one refresh (ms)
+         */
+        final long                       deadline;
+
+        /**
+         * Next planned refresh, if any
+         */
+        private ScheduledFuture<?>       next;
+
+        /**
+         * True while a refresh is submitted and not yet completed
+         */
+        private final AtomicBoolean      running = new AtomicBoolean(false);
+
+        /**
+         * True if a refresh has been asked while another one was running
+         */
+        private volatile boolean         rerun;
+
+        /**
+         * True once unregistered
+         */
+        private volatile boolean         cancelled;
+
+        Registration(final IRefreshable target, final long deadline) {
+
+            this.target = target;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Plans next refresh, replacing a refresh already planned
+         * 
+         * @param delay
+         *            wanted delay
+         */
+        synchronized void scheduleAfter(final long delay) {
+
+            final ScheduledExecutorService currentTimer = timer;
+            if (cancelled || currentTimer == null) {
+                return;
+            }
+            if (next != null) {
+                next.cancel(false);
+            }
+            try {
+                next = currentTimer.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("Scheduler is shutting down, refresh of {} not planned", target);
+            }
+        }
+
+        synchronized void cancel() {
+
+            cancelled = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+
+        /**
+         * Timer side : submits the refresh to the workers and arms its deadline
+         */
+        @Override
+        public void run() {
+
+            final ScheduledExecutorService currentTimer = timer;
+            final ExecutorService currentWorkers = workers;
+            if (cancelled || currentTimer == null) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            if (now < nextStart) {
+                // Another refresh started less than minimumSpacing ms ago
+                scheduleAfter(nextStart - now);
+                return;
+            }
+            if (!running.compareAndSet(false, true)) {
+                // A refresh is still running, it will plan the next one
+                rerun = true;
+                return;
+            }
+
+            // Set by the side ending the refresh : the worker once refresh() returned, or done() if cancelled before starting
+            final AtomicBoolean claimed = new AtomicBoolean(false);
+            final FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+
+                    if (!claimed.compareAndSet(false, true)) {
+                        return Boolean.FALSE;
+                    }
+                    boolean success = false;
+                    try {
+                        success = target.refresh();
+                    } catch (RuntimeException e) {
+                        log.warn("Refresh of " + target + " failed", e);
+                    } finally {
+                        // Only now : an interrupted read may have kept this worker long after the deadline
+                        running.set(false);
+                        completed(success);
+                    }
+                    return Boolean.valueOf(success);
+                }
+            }) {
+
+                @Override
+                protected void done() {
+
+                    if (isCancelled() && claimed.compareAndSet(false, true)) {
+                        running.set(false);
+                        completed(false);
+                    }
+                }
+            };
+
+            nextStart = now + minimumSpacing;
+            try {
+                currentWorkers.execute(task);
+                currentTimer.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        if (!task.isDone() && task.cancel(true)) {
+                            log.warn("Refresh of {} exceeded its deadline of {} ms and has been interrupted", target, deadline);
+                        }
+                    }
+                }, deadline, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                log.debug("Scheduler is shutting down, refresh of {} dropped", target);
+            }
+        }
+
+        /**
+         * Worker side : plans the next refresh according to the outcome of this one
+         * 
+         * @param success
+         *            true if the refresh succeeded
+         */
+        private void completed(final boolean success) {
+
+            final long interval = target.getRefreshInterval();
+            if (rerun) {
+                rerun = false;
+                scheduleAfter(0);
+            } else {
+                scheduleAfter(success ? jittered(interval) : jittered(Math.min(retryInterval, interval)));
+            }
+        }
+
+    }
+
+    /**
+     * Creates named daemon threads
+     */
+    static final class DaemonThreadFactory implements ThreadFactory {
+
+        /**
+         * Prefix of thread names
+         */
+        private final String        name;
+
+        /**
+         * Threads created so far
+         */
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        DaemonThreadFactory(final String name) {
+
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+
+            final Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    // Setters & Getters
+
+    public int getPoolSize() {
+
+        return poolSize;
+    }
+
+    public void setPoolSize(final int poolSize) {
+
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        this.poolSize = poolSize;
+    }
+
+    public double getJitter() {
+
+        return jitter;
+    }
+
+    public void setJitter(final double jitter) {
+
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("jitter must be in [0, 1[");
+        }
+        this.jitter = jitter;
+    }
+
+    public long getMinimumSpacing() {
+
+        return minimumSpacing;
+    }
+
+    public void setMinimumSpacing(final long minimumSpacing) {
+
+        this.minimumSpacing = minimumSpacing;
+    }
+
+    public long getDefaultDeadline() {
+
+        return defaultDeadline;
+    }
+
+    public void setDefaultDeadline(final long defaultDeadline) {
+
+        this.defaultDeadline = defaultDeadline;
+    }
+
+    public long getRetryInterval() {
+
+        return retryInterval;
+    }
+
+    public void setRetryInterval(final long retryInterval) {
+
+        this.retryInterval = retryInterval;
+    }
+
+}
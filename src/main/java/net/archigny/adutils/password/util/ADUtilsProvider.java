@@ -0,0 +1,67 @@
+package net.archigny.adutils.password.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * JCA provider of the MD4 message digest implemented by {@link MD4}, so that other components reach it through
+ * <code>MessageDigest.getInstance("MD4")</code>. Instances are cloned from a prototype instead of being built by reflection.
+ * <p>
+ * {@link #install()} registers the provider once for the whole JVM, after the already installed providers.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class ADUtilsProvider extends Provider {
+
+    /**
+     * Serial ID
+     */
+    private static final long  serialVersionUID = 1L;
+
+    /**
+     * Name of the provider
+     */
+    public static final String NAME             = "ADUtils";
+
+    public ADUtilsProvider() {
+
+        super(NAME, 1.0, "ADUtils provider (MD4 message digest)");
+        putService(new PrototypeService(this, "MessageDigest", "MD4", new MD4()));
+    }
+
+    /**
+     * Registers the provider if it is not already
+     * 
+     * @return true if the provider has been registered by this call
+     */
+    public static synchronized boolean install() {
+
+        if (Security.getProvider(NAME) != null) {
+            return false;
+        }
+        return Security.addProvider(new ADUtilsProvider()) != -1;
+    }
+
+    /**
+     * Service whose instances are clones of a prototype in its initial state
+     */
+    private static final class PrototypeService extends Service {
+
+        private final MD4 prototype;
+
+        PrototypeService(final Provider provider, final String type, final String algorithm, final MD4 prototype) {
+
+            super(provider, type, algorithm, prototype.getClass().getName(), null, null);
+            this.prototype = prototype;
+        }
+
+        @Override
+        public Object newInstance(final Object constructorParameter) throws NoSuchAlgorithmException {
+
+            // The prototype is never updated, cloning it concurrently is safe
+            return prototype.clone();
+        }
+    }
+
+}
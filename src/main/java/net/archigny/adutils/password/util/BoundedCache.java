@@ -0,0 +1,199 @@
+package net.archigny.adutils.password.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe cache bounded in size and in time : entries expire <code>timeToLive</code> ms after being put, and a least recently
+ * used entry is evicted when the cache is full.
+ * <p>
+ * Reads take no lock, as the cache sits on the login path : entries are kept in a ConcurrentHashMap and stamped with their last
+ * access time. Eviction is approximate : the least recently used entry of a sample of <code>SAMPLE_SIZE</code> entries is evicted,
+ * expired entries met in the sample being dropped first.
+ * 
+ * @author Philippe MARASSE
+ * 
+ * @param <K>
+ *            Type of the keys
+ * @param <V>
+ *            Type of the values
+ */
+public final class BoundedCache<K, V> {
+
+    /**
+     * Number of entries examined to choose the one to evict
+     */
+    public static final int                           SAMPLE_SIZE = 16;
+
+    /**
+     * The entries
+     */
+    private final ConcurrentHashMap<K, CacheEntry<V>> entries;
+
+    /**
+     * Number of entries, maintained apart as ConcurrentHashMap.size() is not constant time
+     */
+    private final AtomicInteger                       count       = new AtomicInteger(0);
+
+    /**
+     * Maximum number of entries
+     */
+    private final int                                 maxSize;
+
+    /**
+     * Time to live of entries in ms, 0 or less : never expire
+     */
+    private final long                                timeToLive;
+
+    /**
+     * @param maxSize
+     *            Maximum number of entries
+     * @param timeToLive
+     *            Time to live of entries in ms, 0 or less if entries never expire
+     */
+    public BoundedCache(final int maxSize, final long timeToLive) {
+
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize : must be positive");
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new ConcurrentHashMap<K, CacheEntry<V>>(Math.min(maxSize, 1024) * 2);
+    }
+
+    /**
+     * @param key
+     *            key to look for
+     * @return cached value, or null if absent or expired
+     */
+    public V get(final K key) {
+
+        final CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            removeEntry(key, entry);
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces an entry, evicting a least recently used one if the cache is full
+     */
+    public void put(final K key, final V value) {
+
+        if ((key == null) || (value == null)) {
+            throw new IllegalArgumentException("key, value : null value not allowed");
+        }
+        final CacheEntry<V> entry = new CacheEntry<V>(value, (timeToLive > 0) ? System.currentTimeMillis() + timeToLive
+                : Long.MAX_VALUE);
+        if ((entries.put(key, entry) == null) && (count.incrementAndGet() > maxSize)) {
+            evict();
+        }
+    }
+
+    public void remove(final K key) {
+
+        if (entries.remove(key) != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    public void clear() {
+
+        for (K key : entries.keySet()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * @return number of entries, including expired ones not yet evicted
+     */
+    public int size() {
+
+        return count.get();
+    }
+
+    /**
+     * Removes sampled entries until the cache is back to its maximum size
+     */
+    private void evict() {
+
+        while (count.get() > maxSize) {
+            final long now = System.currentTimeMillis();
+            K oldestKey = null;
+            CacheEntry<V> oldest = null;
+            final Iterator<Map.Entry<K, CacheEntry<V>>> it = entries.entrySet().iterator();
+            for (int i = 0; (i < SAMPLE_SIZE) && it.hasNext(); i++) {
+                final Map.Entry<K, CacheEntry<V>> candidate = it.next();
+                final CacheEntry<V> entry = candidate.getValue();
+                if (entry.isExpired(now)) {
+                    removeEntry(candidate.getKey(), entry);
+                } else if ((oldest == null) || (entry.lastAccess - oldest.lastAccess < 0)) {
+                    oldestKey = candidate.getKey();
+                    oldest = entry;
+                }
+            }
+            if (count.get() <= maxSize) {
+                return;
+            }
+            if (oldest == null) {
+                // Emptied by other threads meanwhile
+                return;
+            }
+            removeEntry(oldestKey, oldest);
+        }
+    }
+
+    /**
+     * Removes an entry if it has not been replaced meanwhile
+     */
+    private void removeEntry(final K key, final CacheEntry<V> entry) {
+
+        if (entries.remove(key, entry)) {
+            count.decrementAndGet();
+        }
+    }
+
+    public int getMaxSize() {
+
+        return maxSize;
+    }
+
+    public long getTimeToLive() {
+
+        return timeToLive;
+    }
+
+    /**
+     * Cached value with its expiration timestamp and its last access time
+     */
+    private static final class CacheEntry<V> {
+
+        final V       value;
+
+        final long    expiration;
+
+        /**
+         * Last access, System.nanoTime() value : only compared to other ones
+         */
+        volatile long lastAccess = System.nanoTime();
+
+        CacheEntry(final V value, final long expiration) {
+
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        boolean isExpired(final long now) {
+
+            return now > expiration;
+        }
+    }
+
+}
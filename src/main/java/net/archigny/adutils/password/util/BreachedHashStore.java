@@ -0,0 +1,314 @@
+package net.archigny.adutils.password.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Membership test of NT hashes against a breach corpus (eg. the offline HIBP NTLM list), stored locally as a binary file of
+ * 16-byte hashes sorted in ascending unsigned order, without any header.
+ * <p>
+ * The file is memory mapped, by segments of at most 1 GB, and queried by binary search within the range of its 16-bit prefix,
+ * located by a 65537 entries index built when the store is opened. The heap used does not depend on the corpus size, unless the
+ * optional Bloom filter is enabled : it is then filled by a full read of the file and answers most negative queries without
+ * touching the mapped file.
+ * <p>
+ * Queries are thread safe.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class BreachedHashStore implements Closeable {
+
+    /**
+     * Length of a hash in the file
+     */
+    public static final int          ENTRY_LENGTH          = 16;
+
+    /**
+     * Number of entries per mapped segment by default (1 GB)
+     */
+    private static final int         DEFAULT_SEGMENT_SHIFT = 26;
+
+    private static final int         PREFIX_BITS           = 16;
+
+    /**
+     * Mapped segments of the file, read only through absolute gets
+     */
+    private final ByteBuffer[]       segments;
+
+    /**
+     * log2 of the number of entries per segment
+     */
+    private final int                segmentShift;
+
+    /**
+     * Number of hashes in the file
+     */
+    private final long               size;
+
+    /**
+     * Index of the first entry of each 16-bit prefix, entry 65536 is size
+     */
+    private final long[]             prefixIndex           = new long[(1 << PREFIX_BITS) + 1];
+
+    /**
+     * Optional Bloom filter bits, null if disabled
+     */
+    private final long[]             bloom;
+
+    /**
+     * Number of bits of the Bloom filter
+     */
+    private final long               bloomBits;
+
+    /**
+     * Number of probes per hash in the Bloom filter
+     */
+    private final int                bloomProbes;
+
+    /**
+     * Opens a store without Bloom filter
+     * 
+     * @param file
+     *            sorted file of 16-byte hashes
+     * @throws IOException
+     *             if the file cannot be mapped or its length is not a multiple of 16
+     */
+    public BreachedHashStore(final File file) throws IOException {
+
+        this(file, 0, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Opens a store with a Bloom filter of <code>bloomBitsPerEntry</code> bits per hash (10 bits give about 1% false positives)
+     * 
+     * @param file
+     *            sorted file of 16-byte hashes
+     * @param bloomBitsPerEntry
+     *            size of the Bloom filter, 0 for no Bloom filter
+     * @throws IOException
+     *             if the file cannot be read, its length is not a multiple of 16 or it is not sorted
+     */
+    public BreachedHashStore(final File file, final int bloomBitsPerEntry) throws IOException {
+
+        this(file, bloomBitsPerEntry, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    BreachedHashStore(final File file, final int bloomBitsPerEntry, final int segmentShift) throws IOException {
+
+        if (file == null) {
+            throw new IllegalArgumentException("file : null value not allowed");
+        }
+        if (bloomBitsPerEntry < 0) {
+            throw new IllegalArgumentException("bloomBitsPerEntry : must not be negative");
+        }
+        this.segmentShift = segmentShift;
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            if (length % ENTRY_LENGTH != 0) {
+                throw new IOException("Length of " + file + " is not a multiple of " + ENTRY_LENGTH);
+            }
+            size = length / ENTRY_LENGTH;
+            final long segmentLength = (long) ENTRY_LENGTH << segmentShift;
+            segments = new ByteBuffer[(int) ((length + segmentLength - 1) / segmentLength)];
+            for (int i = 0; i < segments.length; i++) {
+                final long position = i * segmentLength;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentLength, length - position));
+            }
+        } finally {
+            // Mappings stay valid once the channel is closed
+            raf.close();
+        }
+
+        for (int prefix = 0; prefix < (1 << PREFIX_BITS); prefix++) {
+            prefixIndex[prefix] = firstWithPrefix(prefix);
+        }
+        prefixIndex[1 << PREFIX_BITS] = size;
+
+        if ((bloomBitsPerEntry == 0) || (size == 0)) {
+            bloom = null;
+            bloomBits = 0;
+            bloomProbes = 0;
+        } else {
+            // Rounded to whole longs, k = bits per entry * ln 2
+            final long words = (size * bloomBitsPerEntry + 63) >>> 6;
+            if (words > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("bloomBitsPerEntry : Bloom filter too large for " + size + " hashes");
+            }
+            bloom = new long[(int) words];
+            bloomBits = words << 6;
+            bloomProbes = Math.max(1, (int) Math.round(bloomBitsPerEntry * Math.log(2)));
+            fillBloom();
+        }
+    }
+
+    /**
+     * @param ntHash
+     *            NT hash, as returned by {@link PasswordHashes#computeNTPassword(String)}
+     * @return true if the hash is in the corpus
+     */
+    public boolean contains(final byte[] ntHash) {
+
+        return contains(ntHash, 0);
+    }
+
+    /**
+     * @param ntHash
+     *            array containing the NT hash
+     * @param offset
+     *            position of the hash in the array
+     * @return true if the hash is in the corpus
+     */
+    public boolean contains(final byte[] ntHash, final int offset) {
+
+        if (ntHash == null) {
+            throw new IllegalArgumentException("ntHash : null value not allowed");
+        }
+        if ((offset < 0) || (offset > ntHash.length - ENTRY_LENGTH)) {
+            throw new IllegalArgumentException("ntHash : " + ENTRY_LENGTH + " bytes expected at offset " + offset);
+        }
+        final long high = getLong(ntHash, offset);
+        final long low = getLong(ntHash, offset + 8);
+        if ((bloom != null) && !mightContain(high, low)) {
+            return false;
+        }
+
+        final int prefix = (int) (high >>> (64 - PREFIX_BITS));
+        long first = prefixIndex[prefix];
+        long last = prefixIndex[prefix + 1] - 1;
+        while (first <= last) {
+            final long middle = (first + last) >>> 1;
+            final int comparison = compare(middle, high, low);
+            if (comparison < 0) {
+                first = middle + 1;
+            } else if (comparison > 0) {
+                last = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of hashes in the corpus
+     */
+    public long size() {
+
+        return size;
+    }
+
+    /**
+     * @return true if a Bloom filter is used
+     */
+    public boolean hasBloomFilter() {
+
+        return bloom != null;
+    }
+
+    /**
+     * Releases the mappings, which are unmapped once garbage collected. Calls to {@link #contains(byte[])} fail afterwards.
+     */
+    @Override
+    public void close() {
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = null;
+        }
+    }
+
+    /**
+     * @return first entry whose 16-bit prefix is greater or equal to prefix
+     */
+    private long firstWithPrefix(final int prefix) {
+
+        final long high = (long) prefix << (64 - PREFIX_BITS);
+        long first = 0;
+        long last = size;
+        while (first < last) {
+            final long middle = (first + last) >>> 1;
+            if (compare(middle, high, 0) < 0) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Compares entry with (high, low) as unsigned 128-bit integers
+     */
+    private int compare(final long entry, final long high, final long low) {
+
+        final ByteBuffer segment = segments[(int) (entry >>> segmentShift)];
+        final int position = (int) (entry & ((1L << segmentShift) - 1)) * ENTRY_LENGTH;
+        final int comparison = compareUnsigned(segment.getLong(position), high);
+        return (comparison != 0) ? comparison : compareUnsigned(segment.getLong(position + 8), low);
+    }
+
+    private void fillBloom() throws IOException {
+
+        long previousHigh = 0;
+        long previousLow = 0;
+        for (long entry = 0; entry < size; entry++) {
+            final ByteBuffer segment = segments[(int) (entry >>> segmentShift)];
+            final int position = (int) (entry & ((1L << segmentShift) - 1)) * ENTRY_LENGTH;
+            final long high = segment.getLong(position);
+            final long low = segment.getLong(position + 8);
+            if ((entry > 0)
+                    && (compareUnsigned(high, previousHigh) < 0 || (high == previousHigh && compareUnsigned(low, previousLow) < 0))) {
+                throw new IOException("Hash file is not sorted at entry " + entry);
+            }
+            previousHigh = high;
+            previousLow = low;
+
+            long probe = high;
+            for (int i = 0; i < bloomProbes; i++, probe += low) {
+                final long bit = (probe & Long.MAX_VALUE) % bloomBits;
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Hashes are uniformly distributed : their two halves are used as the two hash functions of the Bloom filter
+     */
+    private boolean mightContain(final long high, final long low) {
+
+        long probe = high;
+        for (int i = 0; i < bloomProbes; i++, probe += low) {
+            final long bit = (probe & Long.MAX_VALUE) % bloomBits;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compareUnsigned(final long a, final long b) {
+
+        final long x = a + Long.MIN_VALUE;
+        final long y = b + Long.MIN_VALUE;
+        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+    }
+
+    /**
+     * @return 8 bytes big endian
+     */
+    private static long getLong(final byte[] bytes, final int offset) {
+
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,352 @@
+package net.archigny.adutils.password.util;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the NT or LM hashes of many passwords (eg. password audit dictionaries) on several threads.
+ * <p>
+ * Candidates are split in contiguous shards, one per thread, and every thread writes its hashes directly in one shared output
+ * array, 16 bytes per candidate. Each thread reuses its own NT or LM engine : NT engines hash {@link MD4Lanes#LANES} short
+ * candidates per MD4 compression, LM engines memoise the hashes of password halves. The calling thread computes one shard itself.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class BulkPasswordHasher {
+
+    /**
+     * Supported hashes
+     */
+    public enum Algorithm {
+        NT, LM
+    }
+
+    /**
+     * Candidates hashed by the iterator flavour between two calls to the handler, by default
+     */
+    public static final int             DEFAULT_CHUNK_SIZE   = 8192;
+
+    /**
+     * Number of LM halves memoised by each thread, by default
+     */
+    public static final int             DEFAULT_LM_MEMO_SIZE = 16384;
+
+    /**
+     * Fewer candidates than this are not worth a thread
+     */
+    private static final int            MIN_SHARD_SIZE       = 256;
+
+    private final Algorithm             algorithm;
+
+    /**
+     * Runs all shards but the first one
+     */
+    private final ExecutorService       executor;
+
+    /**
+     * Maximum number of shards, including the one computed by the calling thread
+     */
+    private final int                   parallelism;
+
+    /**
+     * NT engines of the threads working for this hasher
+     */
+    private final ThreadLocal<MD4Lanes> ntEngines            = new ThreadLocal<MD4Lanes>() {
+
+        @Override
+        protected MD4Lanes initialValue() {
+
+            return new MD4Lanes();
+        }
+    };
+
+    /**
+     * LM engines of the threads working for this hasher, with their memo
+     */
+    private final ThreadLocal<LMHash>   lmEngines;
+
+    /**
+     * @param algorithm
+     *            Hash to compute
+     * @param executor
+     *            Executor of the shards, should have at least parallelism - 1 threads
+     * @param parallelism
+     *            Maximum number of threads working on one bulk, typically the number of cores
+     */
+    public BulkPasswordHasher(final Algorithm algorithm, final ExecutorService executor, final int parallelism) {
+
+        this(algorithm, executor, parallelism, DEFAULT_LM_MEMO_SIZE);
+    }
+
+    /**
+     * @param algorithm
+     *            Hash to compute
+     * @param executor
+     *            Executor of the shards, should have at least parallelism - 1 threads
+     * @param parallelism
+     *            Maximum number of threads working on one bulk, typically the number of cores
+     * @param lmMemoSize
+     *            Number of 7-byte LM halves whose result is memoised by each thread, 0 for no memo. Memoised halves stay in memory.
+     */
+    public BulkPasswordHasher(final Algorithm algorithm, final ExecutorService executor, final int parallelism,
+            final int lmMemoSize) {
+
+        if ((algorithm == null) || (executor == null)) {
+            throw new IllegalArgumentException("algorithm, executor : null value not allowed");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism : must be positive");
+        }
+        if (lmMemoSize < 0) {
+            throw new IllegalArgumentException("lmMemoSize : must not be negative");
+        }
+        this.algorithm = algorithm;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.lmEngines = new ThreadLocal<LMHash>() {
+
+            @Override
+            protected LMHash initialValue() {
+
+                return new LMHash(lmMemoSize);
+            }
+        };
+    }
+
+    /**
+     * @param passwords
+     *            candidates
+     * @return hashes of the candidates, 16 bytes each, in the same order
+     */
+    public byte[] hash(final CharSequence[] passwords) {
+
+        if (passwords == null) {
+            throw new IllegalArgumentException("passwords : null value not allowed");
+        }
+        final byte[] out = new byte[passwords.length * PasswordHashes.HASH_LENGTH];
+        hash(passwords, 0, passwords.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Hashes a range of candidates into a caller supplied array
+     * 
+     * @param passwords
+     *            candidates
+     * @param start
+     *            first candidate to hash
+     * @param count
+     *            number of candidates to hash
+     * @param out
+     *            receives the hash of <code>passwords[start + i]</code> at <code>offset + 16 * i</code>
+     * @param offset
+     *            position of the first hash in out
+     */
+    public void hash(final CharSequence[] passwords, final int start, final int count, final byte[] out, final int offset) {
+
+        if ((passwords == null) || (out == null)) {
+            throw new IllegalArgumentException("passwords, out : null value not allowed");
+        }
+        if ((start < 0) || (count < 0) || (start > passwords.length - count)) {
+            throw new IllegalArgumentException("start, count : out of passwords bounds");
+        }
+        if ((offset < 0) || ((long) offset + (long) count * PasswordHashes.HASH_LENGTH > out.length)) {
+            throw new IllegalArgumentException("out : no room for " + count + " hashes at offset " + offset);
+        }
+
+        run(passwords, null, null, start, count, out, offset);
+    }
+
+    /**
+     * Hashes candidates packed in one char array, without any object per candidate
+     * 
+     * @param chars
+     *            characters of the candidates, one after the other
+     * @param bounds
+     *            candidate i is made of characters bounds[i] (included) to bounds[i + 1] (excluded)
+     * @param count
+     *            number of candidates, bounds has at least count + 1 entries
+     * @param out
+     *            receives the hash of candidate i at <code>offset + 16 * i</code>
+     * @param offset
+     *            position of the first hash in out
+     */
+    public void hash(final char[] chars, final int[] bounds, final int count, final byte[] out, final int offset) {
+
+        if ((chars == null) || (bounds == null) || (out == null)) {
+            throw new IllegalArgumentException("chars, bounds, out : null value not allowed");
+        }
+        if ((count < 0) || (count >= bounds.length)) {
+            throw new IllegalArgumentException("count : out of bounds bounds");
+        }
+        if ((offset < 0) || ((long) offset + (long) count * PasswordHashes.HASH_LENGTH > out.length)) {
+            throw new IllegalArgumentException("out : no room for " + count + " hashes at offset " + offset);
+        }
+
+        run(null, chars, bounds, 0, count, out, offset);
+    }
+
+    /**
+     * Splits candidates in shards and waits for all of them
+     */
+    private void run(final CharSequence[] passwords, final char[] chars, final int[] bounds, final int start, final int count,
+            final byte[] out, final int offset) {
+
+        final int shards = Math.max(1, Math.min(parallelism, count / MIN_SHARD_SIZE));
+        final int shardSize = (count + shards - 1) / shards;
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>(shards - 1);
+        boolean done = false;
+        try {
+            for (int first = shardSize; first < count; first += shardSize) {
+                futures.add(executor.submit(new Shard(passwords, chars, bounds, start + first, Math.min(shardSize, count - first), out, offset
+                        + first * PasswordHashes.HASH_LENGTH)));
+            }
+            new Shard(passwords, chars, bounds, start, Math.min(shardSize, count), out, offset).run();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HashComputingException("Interrupted while waiting for hashes", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new HashComputingException(cause);
+        } finally {
+            if (!done) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes a stream of candidates by chunks, so memory use only depends on the chunk size
+     * 
+     * @param candidates
+     *            candidates, null entries are not allowed
+     * @param chunkSize
+     *            number of candidates per chunk
+     * @param handler
+     *            receives the hashes of each chunk
+     * @return number of candidates hashed
+     */
+    public long hash(final Iterator<? extends CharSequence> candidates, final int chunkSize, final IBulkHashHandler handler) {
+
+        if ((candidates == null) || (handler == null)) {
+            throw new IllegalArgumentException("candidates, handler : null value not allowed");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize : must be positive");
+        }
+
+        final CharSequence[] chunk = new CharSequence[chunkSize];
+        final byte[] hashes = new byte[chunkSize * PasswordHashes.HASH_LENGTH];
+        long total = 0;
+        while (candidates.hasNext()) {
+            int count = 0;
+            while ((count < chunkSize) && candidates.hasNext()) {
+                chunk[count++] = candidates.next();
+            }
+            hash(chunk, 0, count, hashes, 0);
+            handler.handleHashes(chunk, count, hashes);
+            total += count;
+        }
+        // Do not keep the last candidates reachable
+        Arrays.fill(chunk, null);
+        return total;
+    }
+
+    public Algorithm getAlgorithm() {
+
+        return algorithm;
+    }
+
+    public int getParallelism() {
+
+        return parallelism;
+    }
+
+    /**
+     * Hashes a contiguous range of candidates, either objects or packed characters
+     */
+    private final class Shard implements Runnable {
+
+        private final CharSequence[] passwords;
+
+        private final char[]         chars;
+
+        private final int[]          bounds;
+
+        private final int            start;
+
+        private final int            count;
+
+        private final byte[]         out;
+
+        private final int            offset;
+
+        Shard(final CharSequence[] passwords, final char[] chars, final int[] bounds, final int start, final int count,
+                final byte[] out, final int offset) {
+
+            this.passwords = passwords;
+            this.chars = chars;
+            this.bounds = bounds;
+            this.start = start;
+            this.count = count;
+            this.out = out;
+            this.offset = offset;
+        }
+
+        @Override
+        public void run() {
+
+            if (passwords == null) {
+                runPacked();
+                return;
+            }
+            if (algorithm == Algorithm.NT) {
+                ntEngines.get().hashNT(passwords, start, count, out, offset);
+            } else {
+                final int end = start + count;
+                int position = offset;
+                final LMHash engine = lmEngines.get();
+                for (int i = start; i < end; i++, position += PasswordHashes.HASH_LENGTH) {
+                    engine.hash(passwords[i], out, position);
+                }
+            }
+        }
+
+        private void runPacked() {
+
+            if (algorithm == Algorithm.NT) {
+                ntEngines.get().hashNT(chars, bounds, start, count, out, offset);
+            } else {
+                final int end = start + count;
+                int position = offset;
+                final LMHash engine = lmEngines.get();
+                // A CharSequence view moved from candidate to candidate
+                final CharBuffer view = CharBuffer.wrap(chars);
+                for (int i = start; i < end; i++, position += PasswordHashes.HASH_LENGTH) {
+                    view.limit(bounds[i + 1]).position(bounds[i]);
+                    engine.hash(view, out, position);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package net.archigny.adutils.password.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+/**
+ * Mapping of the attributes of one object class (eg. msDS-PasswordSettings) to the fields of a target object, as a table of
+ * attribute names each bound to an {@link IAttributeDecoder}.
+ * <p>
+ * A plan is compiled once by its {@link Builder} into an open addressing table keyed by attribute name ignoring case, then reused
+ * for every search result : decoding an entry walks its attributes once, with no reflection and no allocation besides the JNDI
+ * enumeration. Attributes of the entry which are not bound are ignored. Plans are immutable and thread safe.
+ * 
+ * @author Philippe MARASSE
+ * 
+ * @param <T>
+ *            Type of the target objects
+ */
+public final class DecoderPlan<T> {
+
+    /**
+     * Bound attribute names, in binding order
+     */
+    private final String[]               names;
+
+    /**
+     * Open addressing table of the names, length is a power of 2
+     */
+    private final String[]               keys;
+
+    /**
+     * Decoders, same positions as keys
+     */
+    private final IAttributeDecoder<T>[] decoders;
+
+    /**
+     * keys.length - 1
+     */
+    private final int                    mask;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private DecoderPlan(final List<String> names, final List<IAttributeDecoder<T>> decoders) {
+
+        this.names = names.toArray(new String[names.size()]);
+        int capacity = 8;
+        while (capacity < this.names.length * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new String[capacity];
+        this.decoders = new IAttributeDecoder[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < this.names.length; i++) {
+            final String name = this.names[i];
+            int slot = hashIgnoreCase(name) & mask;
+            while (keys[slot] != null) {
+                if (keys[slot].equalsIgnoreCase(name)) {
+                    throw new IllegalArgumentException("attribute " + name + " : bound twice");
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = name;
+            this.decoders[slot] = decoders.get(i);
+        }
+    }
+
+    /**
+     * @return a builder of plans for targets of type T
+     */
+    public static <T> Builder<T> builder() {
+
+        return new Builder<T>();
+    }
+
+    /**
+     * @return names of the bound attributes, to be requested by searches
+     */
+    public String[] getAttributeNames() {
+
+        return names.clone();
+    }
+
+    /**
+     * @param attribute
+     *            attribute name, in any case
+     * @return true if the attribute is bound
+     */
+    public boolean isBound(final String attribute) {
+
+        return find(attribute) >= 0;
+    }
+
+    /**
+     * Decodes the bound attributes of one entry into target
+     * 
+     * @param attributes
+     *            attributes of the entry
+     * @param target
+     *            object receiving the values
+     * @return number of attributes decoded
+     * @throws NamingException
+     *             if a value cannot be read
+     * @throws NumberFormatException
+     *             if a value does not match the syntax of its decoder
+     */
+    public int decode(final Attributes attributes, final T target) throws NamingException {
+
+        if ((attributes == null) || (target == null)) {
+            throw new IllegalArgumentException("attributes, target : null value not allowed");
+        }
+        int decoded = 0;
+        final NamingEnumeration<? extends Attribute> all = attributes.getAll();
+        try {
+            while (all.hasMore()) {
+                final Attribute attribute = all.next();
+                final int slot = find(attribute.getID());
+                if ((slot >= 0) && (attribute.size() > 0)) {
+                    decoders[slot].decode(attribute, target);
+                    decoded++;
+                }
+            }
+        } finally {
+            all.close();
+        }
+        return decoded;
+    }
+
+    /**
+     * @return slot of the attribute, -1 if not bound
+     */
+    private int find(final String attribute) {
+
+        int slot = hashIgnoreCase(attribute) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if ((key.length() == attribute.length()) && key.regionMatches(true, 0, attribute, 0, key.length())) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Hash consistent with String.regionMatches(true, ...) : characters are folded the same way
+     */
+    private static int hashIgnoreCase(final String s) {
+
+        int hash = 0;
+        for (int i = 0; i < s.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        // Spread high bits as the table is indexed by low bits
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Binds attributes to decoders, then compiles the plan. Not thread safe.
+     */
+    public static final class Builder<T> {
+
+        private final List<String>               names    = new ArrayList<String>();
+
+        private final List<IAttributeDecoder<T>> decoders = new ArrayList<IAttributeDecoder<T>>();
+
+        private Builder() {
+
+        }
+
+        /**
+         * Starts from the bindings of an existing plan, eg. to add attributes to a standard one
+         */
+        public Builder<T> bindAll(final DecoderPlan<T> plan) {
+
+            if (plan == null) {
+                throw new IllegalArgumentException("plan : null value not allowed");
+            }
+            for (String name : plan.names) {
+                bind(name, plan.decoders[plan.find(name)]);
+            }
+            return this;
+        }
+
+        /**
+         * @param attribute
+         *            LDAP attribute name
+         * @param decoder
+         *            decoder of its values
+         */
+        public Builder<T> bind(final String attribute, final IAttributeDecoder<T> decoder) {
+
+            if ((attribute == null) || (decoder == null)) {
+                throw new IllegalArgumentException("attribute, decoder : null value not allowed");
+            }
+            names.add(attribute);
+            decoders.add(decoder);
+            return this;
+        }
+
+        /**
+         * @return the compiled plan
+         * @throws IllegalArgumentException
+         *             if an attribute is bound twice
+         */
+        public DecoderPlan<T> build() {
+
+            return new DecoderPlan<T>(names, decoders);
+        }
+    }
+
+}
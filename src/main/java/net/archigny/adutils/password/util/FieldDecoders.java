@@ -0,0 +1,277 @@
+package net.archigny.adutils.password.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+
+/**
+ * Typed decoders of the AD attribute syntaxes, for {@link DecoderPlan} : each one parses the value then hands it to a setter
+ * implemented by the caller, so no reflection is involved. Values are accepted as String or, when the attribute is returned as
+ * binary, as ASCII bytes parsed in place.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class FieldDecoders {
+
+    /**
+     * String representation of boolean true returned by AD
+     */
+    public static final String LDAP_TRUE_VALUE = "TRUE";
+
+    private FieldDecoders() {
+
+    }
+
+    /**
+     * Integer (I8 intervals and timestamps, uSNChanged...)
+     */
+    public abstract static class LongField<T> implements IAttributeDecoder<T> {
+
+        @Override
+        public final void decode(final Attribute attribute, final T target) throws NamingException {
+
+            set(target, parseLong(attribute.get()));
+        }
+
+        protected abstract void set(final T target, final long value);
+    }
+
+    /**
+     * Integer within int range (lengths, thresholds, precedence...)
+     */
+    public abstract static class IntField<T> implements IAttributeDecoder<T> {
+
+        @Override
+        public final void decode(final Attribute attribute, final T target) throws NamingException {
+
+            final long value = parseLong(attribute.get());
+            if ((int) value != value) {
+                throw new NumberFormatException("Value of " + attribute.getID() + " out of int range : " + value);
+            }
+            set(target, (int) value);
+        }
+
+        protected abstract void set(final T target, final int value);
+    }
+
+    /**
+     * Boolean, true only for a TRUE value in any case
+     */
+    public abstract static class BooleanField<T> implements IAttributeDecoder<T> {
+
+        @Override
+        public final void decode(final Attribute attribute, final T target) throws NamingException {
+
+            set(target, parseBoolean(attribute.get()));
+        }
+
+        protected abstract void set(final T target, final boolean value);
+    }
+
+    /**
+     * First value as a String
+     */
+    public abstract static class StringField<T> implements IAttributeDecoder<T> {
+
+        @Override
+        public final void decode(final Attribute attribute, final T target) throws NamingException {
+
+            set(target, toString(attribute.get()));
+        }
+
+        protected abstract void set(final T target, final String value);
+
+        static String toString(final Object value) {
+
+            if (value instanceof byte[]) {
+                final byte[] bytes = (byte[]) value;
+                final char[] chars = new char[bytes.length];
+                for (int i = 0; i < bytes.length; i++) {
+                    chars[i] = (char) (bytes[i] & 0xFF);
+                }
+                return new String(chars);
+            }
+            return (String) value;
+        }
+    }
+
+    /**
+     * All values as Strings (DN lists such as msDS-PSOAppliesTo)
+     */
+    public abstract static class StringsField<T> implements IAttributeDecoder<T> {
+
+        @Override
+        public final void decode(final Attribute attribute, final T target) throws NamingException {
+
+            final int size = attribute.size();
+            final List<String> values = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(StringField.toString(attribute.get(i)));
+            }
+            set(target, values);
+        }
+
+        protected abstract void set(final T target, final List<String> values);
+    }
+
+    /**
+     * Generalized time (whenChanged, whenCreated...), converted to ms since epoch
+     */
+    public abstract static class TimeField<T> implements IAttributeDecoder<T> {
+
+        @Override
+        public final void decode(final Attribute attribute, final T target) throws NamingException {
+
+            final Object value = attribute.get();
+            set(target, (value instanceof byte[]) ? parseGeneralizedTime(StringField.toString(value))
+                    : parseGeneralizedTime((String) value));
+        }
+
+        protected abstract void set(final T target, final long timestamp);
+    }
+
+    /**
+     * Parses a decimal integer, with the same rules as Long.parseLong
+     */
+    static long parseLong(final Object value) {
+
+        if (value instanceof byte[]) {
+            return parseLong((byte[]) value);
+        }
+        return Long.parseLong((String) value);
+    }
+
+    /**
+     * Parses an ASCII decimal integer, with the same rules as Long.parseLong but without building a String
+     */
+    static long parseLong(final byte[] digits) {
+
+        final int length = digits.length;
+        if (length == 0) {
+            throw new NumberFormatException("Empty value");
+        }
+        final boolean negative = (digits[0] == '-');
+        int i = ((digits[0] == '-') || (digits[0] == '+')) ? 1 : 0;
+        if (i == length) {
+            throw new NumberFormatException("No digit");
+        }
+        // Accumulated negatively : Long.MIN_VALUE has no positive counterpart
+        long result = 0;
+        for (; i < length; i++) {
+            final int digit = digits[i] - '0';
+            if ((digit < 0) || (digit > 9) || (result < Long.MIN_VALUE / 10)) {
+                throw new NumberFormatException("Not a long value");
+            }
+            result *= 10;
+            if (result < Long.MIN_VALUE + digit) {
+                throw new NumberFormatException("Not a long value");
+            }
+            result -= digit;
+        }
+        if (negative) {
+            return result;
+        }
+        if (result == Long.MIN_VALUE) {
+            throw new NumberFormatException("Not a long value");
+        }
+        return -result;
+    }
+
+    static boolean parseBoolean(final Object value) {
+
+        if (value instanceof byte[]) {
+            final byte[] bytes = (byte[]) value;
+            if (bytes.length != LDAP_TRUE_VALUE.length()) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (Character.toUpperCase((char) bytes[i]) != LDAP_TRUE_VALUE.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return LDAP_TRUE_VALUE.equalsIgnoreCase((String) value);
+    }
+
+    /**
+     * Parses a generalized time as returned by AD : YYYYMMDDHHMMSS, optional fraction of second, then Z or an offset (+HHMM)
+     * 
+     * @return ms since epoch
+     */
+    static long parseGeneralizedTime(final String value) {
+
+        if ((value == null) || (value.length() < 15)) {
+            throw new NumberFormatException("Not a generalized time : " + value);
+        }
+        final int year = digits(value, 0, 4);
+        final int month = digits(value, 4, 2);
+        final int day = digits(value, 6, 2);
+        final int hour = digits(value, 8, 2);
+        final int minute = digits(value, 10, 2);
+        final int second = digits(value, 12, 2);
+        if ((month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour > 23) || (minute > 59) || (second > 60)) {
+            throw new NumberFormatException("Not a generalized time : " + value);
+        }
+
+        int i = 14;
+        long millis = 0;
+        if ((value.charAt(i) == '.') || (value.charAt(i) == ',')) {
+            i++;
+            long scale = 100;
+            final int start = i;
+            while ((i < value.length()) && (value.charAt(i) >= '0') && (value.charAt(i) <= '9')) {
+                millis += (value.charAt(i) - '0') * scale;
+                scale /= 10;
+                i++;
+            }
+            if (i == start) {
+                throw new NumberFormatException("Not a generalized time : " + value);
+            }
+        }
+
+        long offset = 0;
+        if ((i == value.length() - 1) && (value.charAt(i) == 'Z')) {
+            offset = 0;
+        } else if ((i == value.length() - 5) && ((value.charAt(i) == '+') || (value.charAt(i) == '-'))) {
+            offset = (digits(value, i + 1, 2) * 60L + digits(value, i + 3, 2)) * 60000L;
+            if (value.charAt(i) == '+') {
+                offset = -offset;
+            }
+        } else {
+            throw new NumberFormatException("Not a generalized time : " + value);
+        }
+
+        return ((daysFromEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis + offset;
+    }
+
+    private static int digits(final String value, final int start, final int count) {
+
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            final int digit = value.charAt(i) - '0';
+            if ((digit < 0) || (digit > 9)) {
+                throw new NumberFormatException("Not a generalized time : " + value);
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /**
+     * Days between 1970-01-01 and a date of the proleptic gregorian calendar
+     */
+    private static long daysFromEpoch(final int year, final int month, final int day) {
+
+        // Years starting in March, so the leap day is the last one
+        final long y = (month <= 2) ? year - 1 : year;
+        final long era = y / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+}
@@ -0,0 +1,207 @@
+package net.archigny.adutils.password.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+
+/**
+ * Table driven hexadecimal encoding and decoding of raw hashes, writing into caller supplied targets.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class HexCodec {
+
+    private static final char[] LOWER_CASE = "0123456789abcdef".toCharArray();
+
+    private static final char[] UPPER_CASE = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Value of each ASCII character, -1 if not an hexadecimal digit
+     */
+    private static final byte[] VALUES     = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < 16; i++) {
+            VALUES[LOWER_CASE[i]] = (byte) i;
+            VALUES[UPPER_CASE[i]] = (byte) i;
+        }
+    }
+
+    private HexCodec() {
+
+    }
+
+    /**
+     * @param bytes
+     *            bytes to encode
+     * @param upperCase
+     *            true for A-F digits, false for a-f
+     * @return hexadecimal string of bytes
+     */
+    public static String encode(final byte[] bytes, final boolean upperCase) {
+
+        if (bytes == null) {
+            throw new IllegalArgumentException("bytes : null value not allowed");
+        }
+        final char[] chars = new char[bytes.length * 2];
+        encode(bytes, 0, bytes.length, upperCase, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Encodes bytes into a char array, 2 characters per byte
+     * 
+     * @return position in out after the last character written
+     */
+    public static int encode(final byte[] bytes, final int offset, final int length, final boolean upperCase, final char[] out,
+            final int outOffset) {
+
+        checkBounds(bytes, offset, length);
+        if (out == null) {
+            throw new IllegalArgumentException("out : null value not allowed");
+        }
+        if ((outOffset < 0) || ((long) outOffset + 2L * length > out.length)) {
+            throw new IllegalArgumentException("out : no room for " + 2 * length + " characters at offset " + outOffset);
+        }
+        final char[] digits = upperCase ? UPPER_CASE : LOWER_CASE;
+        int position = outOffset;
+        for (int i = offset; i < offset + length; i++) {
+            out[position++] = digits[(bytes[i] >>> 4) & 0x0F];
+            out[position++] = digits[bytes[i] & 0x0F];
+        }
+        return position;
+    }
+
+    /**
+     * Appends the hexadecimal encoding of bytes to a StringBuilder
+     */
+    public static StringBuilder encode(final byte[] bytes, final int offset, final int length, final boolean upperCase,
+            final StringBuilder out) {
+
+        checkBounds(bytes, offset, length);
+        if (out == null) {
+            throw new IllegalArgumentException("out : null value not allowed");
+        }
+        final char[] digits = upperCase ? UPPER_CASE : LOWER_CASE;
+        out.ensureCapacity(out.length() + 2 * length);
+        for (int i = offset; i < offset + length; i++) {
+            out.append(digits[(bytes[i] >>> 4) & 0x0F]).append(digits[bytes[i] & 0x0F]);
+        }
+        return out;
+    }
+
+    /**
+     * Puts the hexadecimal encoding of bytes at the position of a CharBuffer, which is advanced
+     * 
+     * @exception java.nio.BufferOverflowException
+     *                if the encoding does not fit in the remaining space
+     */
+    public static void encode(final byte[] bytes, final int offset, final int length, final boolean upperCase, final CharBuffer out) {
+
+        checkBounds(bytes, offset, length);
+        if (out == null) {
+            throw new IllegalArgumentException("out : null value not allowed");
+        }
+        if (out.remaining() < 2 * length) {
+            throw new BufferOverflowException();
+        }
+        final char[] digits = upperCase ? UPPER_CASE : LOWER_CASE;
+        for (int i = offset; i < offset + length; i++) {
+            out.put(digits[(bytes[i] >>> 4) & 0x0F]).put(digits[bytes[i] & 0x0F]);
+        }
+    }
+
+    /**
+     * Decodes an hexadecimal string, in upper or lower case
+     * 
+     * @param hex
+     *            string to decode, of even length
+     * @param out
+     *            receives the decoded bytes
+     * @param offset
+     *            position of the first decoded byte in out
+     * @return number of bytes decoded
+     */
+    public static int decode(final CharSequence hex, final byte[] out, final int offset) {
+
+        if ((hex == null) || (out == null)) {
+            throw new IllegalArgumentException("hex, out : null value not allowed");
+        }
+        final int length = hex.length();
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("hex : odd number of digits");
+        }
+        final int count = length >>> 1;
+        if ((offset < 0) || (offset > out.length - count)) {
+            throw new IllegalArgumentException("out : no room for " + count + " bytes at offset " + offset);
+        }
+        for (int i = 0; i < count; i++) {
+            final int high = value(hex.charAt(2 * i));
+            final int low = value(hex.charAt(2 * i + 1));
+            if ((high | low) < 0) {
+                throw new IllegalArgumentException("hex : not an hexadecimal string at position " + 2 * i);
+            }
+            out[offset + i] = (byte) ((high << 4) | low);
+        }
+        return count;
+    }
+
+    /**
+     * @param hex
+     *            string to decode, of even length
+     * @return decoded bytes
+     */
+    public static byte[] decode(final CharSequence hex) {
+
+        if (hex == null) {
+            throw new IllegalArgumentException("hex : null value not allowed");
+        }
+        final byte[] bytes = new byte[hex.length() >>> 1];
+        decode(hex, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Compares raw bytes with an hexadecimal string, ignoring case, without decoding the string
+     * 
+     * @return true if hex is the encoding of the length bytes of hash starting at offset
+     */
+    public static boolean matches(final byte[] hash, final int offset, final int length, final CharSequence hex) {
+
+        checkBounds(hash, offset, length);
+        if (hex == null) {
+            throw new IllegalArgumentException("hex : null value not allowed");
+        }
+        if (hex.length() != 2 * length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final int b = hash[offset + i] & 0xFF;
+            if ((value(hex.charAt(2 * i)) != (b >>> 4)) || (value(hex.charAt(2 * i + 1)) != (b & 0x0F))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return value of an hexadecimal digit, -1 if c is not one
+     */
+    private static int value(final char c) {
+
+        return (c < 128) ? VALUES[c] : -1;
+    }
+
+    private static void checkBounds(final byte[] bytes, final int offset, final int length) {
+
+        if (bytes == null) {
+            throw new IllegalArgumentException("bytes : null value not allowed");
+        }
+        if ((offset < 0) || (length < 0) || (offset > bytes.length - length)) {
+            throw new IllegalArgumentException("offset, length : out of bytes bounds");
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package net.archigny.adutils.password.util;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+
+/**
+ * Decodes the values of one LDAP attribute into a field of a target object, bound to an attribute name in a {@link DecoderPlan}.
+ * Ready-made decoders of the usual AD syntaxes are in {@link FieldDecoders}.
+ * 
+ * @author Philippe MARASSE
+ * 
+ * @param <T>
+ *            Type of the target objects
+ */
+public interface IAttributeDecoder<T> {
+
+    /**
+     * Called once per entry holding the attribute, never for an absent attribute
+     * 
+     * @param attribute
+     *            attribute as returned by JNDI, with at least one value
+     * @param target
+     *            object receiving the decoded value
+     * @throws NamingException
+     *             if a value cannot be read
+     * @throws NumberFormatException
+     *             if a value does not match the syntax of the decoder
+     */
+    public void decode(final Attribute attribute, final T target) throws NamingException;
+
+}
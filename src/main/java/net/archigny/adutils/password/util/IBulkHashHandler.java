@@ -0,0 +1,23 @@
+package net.archigny.adutils.password.util;
+
+/**
+ * Receives the hashes computed by {@link BulkPasswordHasher#hash(java.util.Iterator, int, IBulkHashHandler)}, one chunk at a time
+ * 
+ * @author Philippe MARASSE
+ */
+public interface IBulkHashHandler {
+
+    /**
+     * Called once per chunk, from the thread running the bulk hash. Both arrays are reused for the next chunk once this method
+     * returns.
+     * 
+     * @param passwords
+     *            candidates of the chunk, the <code>count</code> first entries are used
+     * @param count
+     *            number of candidates in the chunk
+     * @param hashes
+     *            hash of <code>passwords[i]</code> at offset <code>16 * i</code>
+     */
+    public void handleHashes(final CharSequence[] passwords, final int count, final byte[] hashes);
+
+}
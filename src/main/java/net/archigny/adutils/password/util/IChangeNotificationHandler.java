@@ -0,0 +1,34 @@
+package net.archigny.adutils.password.util;
+
+import javax.naming.directory.Attributes;
+
+/**
+ * Callbacks of a {@link LdapChangeNotificationListener}, called from the listener thread except subscriptionStarted which may come
+ * from its confirmation thread. Callbacks are never called concurrently.
+ * 
+ * @author Philippe MARASSE
+ */
+public interface IChangeNotificationHandler {
+
+    /**
+     * The notification search has been accepted by the server, or has been running for the confirmation delay without failing.
+     * Changes that happened before may have been missed.
+     */
+    public void subscriptionStarted();
+
+    /**
+     * An entry has been added, modified or deleted
+     * 
+     * @param dn
+     *            Full Distinguished Name of the entry
+     * @param attributes
+     *            Current values of the requested attributes
+     */
+    public void entryChanged(final String dn, final Attributes attributes);
+
+    /**
+     * The notification search has been closed or has failed. Next changes will be missed until subscription is started again.
+     */
+    public void subscriptionLost();
+
+}
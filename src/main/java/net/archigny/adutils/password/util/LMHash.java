@@ -0,0 +1,363 @@
+package net.archigny.adutils.password.util;
+
+/**
+ * Self-contained Lan Manager hash : DES (FIPS 46-3) specialised for encrypting the constant {@link PasswordHashes#MAGIC} block.
+ * <p>
+ * Each half of the password is used as its 56-bit DES key directly, so no key object is built and no JCA provider is involved. The
+ * initial permutation of the constant block is computed once, subkeys are derived on the fly round after round, and the S-boxes are
+ * merged with the P permutation. Nothing is allocated per hash.
+ * <p>
+ * An engine may memoise the result of each 7-byte half, which pays off on audit dictionaries where halves repeat (every password of
+ * 7 characters or less has the same second half). The memo is a fixed size, direct mapped table : it keeps password halves in
+ * memory, so it should not be enabled when passwords have to be wiped.
+ * <p>
+ * Instances are not thread safe.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class LMHash {
+
+    /**
+     * Length of the hash in bytes
+     */
+    public static final int      HASH_LENGTH = 16;
+
+    /**
+     * Number of password bytes used by the hash
+     */
+    public static final int      MAX_LENGTH  = 14;
+
+    private static final int[]   PC1         = { 57, 49, 41, 33, 25, 17, 9, 1, 58, 50, 42, 34, 26, 18, 10, 2, 59, 51, 43, 35, 27,
+            19, 11, 3, 60, 52, 44, 36, 63, 55, 47, 39, 31, 23, 15, 7, 62, 54, 46, 38, 30, 22, 14, 6, 61, 53, 45, 37, 29, 21, 13, 5, 28,
+            20, 12, 4                       };
+
+    private static final int[]   PC2         = { 14, 17, 11, 24, 1, 5, 3, 28, 15, 6, 21, 10, 23, 19, 12, 4, 26, 8, 16, 7, 27, 20, 13,
+            2, 41, 52, 31, 37, 47, 55, 30, 40, 51, 45, 33, 48, 44, 49, 39, 56, 34, 53, 46, 42, 50, 36, 29, 32 };
+
+    private static final int[]   IP          = { 58, 50, 42, 34, 26, 18, 10, 2, 60, 52, 44, 36, 28, 20, 12, 4, 62, 54, 46, 38, 30,
+            22, 14, 6, 64, 56, 48, 40, 32, 24, 16, 8, 57, 49, 41, 33, 25, 17, 9, 1, 59, 51, 43, 35, 27, 19, 11, 3, 61, 53, 45, 37, 29,
+            21, 13, 5, 63, 55, 47, 39, 31, 23, 15, 7 };
+
+    private static final int[]   FP          = { 40, 8, 48, 16, 56, 24, 64, 32, 39, 7, 47, 15, 55, 23, 63, 31, 38, 6, 46, 14, 54, 22,
+            62, 30, 37, 5, 45, 13, 53, 21, 61, 29, 36, 4, 44, 12, 52, 20, 60, 28, 35, 3, 43, 11, 51, 19, 59, 27, 34, 2, 42, 10, 50, 18,
+            58, 26, 33, 1, 41, 9, 49, 17, 57, 25 };
+
+    private static final int[]   P           = { 16, 7, 20, 21, 29, 12, 28, 17, 1, 15, 23, 26, 5, 18, 31, 10, 2, 8, 24, 14, 32, 27,
+            3, 9, 19, 13, 30, 6, 22, 11, 4, 25 };
+
+    private static final int[][] S           = {
+            { 14, 4, 13, 1, 2, 15, 11, 8, 3, 10, 6, 12, 5, 9, 0, 7, 0, 15, 7, 4, 14, 2, 13, 1, 10, 6, 12, 11, 9, 5, 3, 8, 4, 1, 14, 8,
+            13, 6, 2, 11, 15, 12, 9, 7, 3, 10, 5, 0, 15, 12, 8, 2, 4, 9, 1, 7, 5, 11, 3, 14, 10, 0, 6, 13 },
+            { 15, 1, 8, 14, 6, 11, 3, 4, 9, 7, 2, 13, 12, 0, 5, 10, 3, 13, 4, 7, 15, 2, 8, 14, 12, 0, 1, 10, 6, 9, 11, 5, 0, 14, 7, 11,
+            10, 4, 13, 1, 5, 8, 12, 6, 9, 3, 2, 15, 13, 8, 10, 1, 3, 15, 4, 2, 11, 6, 7, 12, 0, 5, 14, 9 },
+            { 10, 0, 9, 14, 6, 3, 15, 5, 1, 13, 12, 7, 11, 4, 2, 8, 13, 7, 0, 9, 3, 4, 6, 10, 2, 8, 5, 14, 12, 11, 15, 1, 13, 6, 4, 9,
+            8, 15, 3, 0, 11, 1, 2, 12, 5, 10, 14, 7, 1, 10, 13, 0, 6, 9, 8, 7, 4, 15, 14, 3, 11, 5, 2, 12 },
+            { 7, 13, 14, 3, 0, 6, 9, 10, 1, 2, 8, 5, 11, 12, 4, 15, 13, 8, 11, 5, 6, 15, 0, 3, 4, 7, 2, 12, 1, 10, 14, 9, 10, 6, 9, 0,
+            12, 11, 7, 13, 15, 1, 3, 14, 5, 2, 8, 4, 3, 15, 0, 6, 10, 1, 13, 8, 9, 4, 5, 11, 12, 7, 2, 14 },
+            { 2, 12, 4, 1, 7, 10, 11, 6, 8, 5, 3, 15, 13, 0, 14, 9, 14, 11, 2, 12, 4, 7, 13, 1, 5, 0, 15, 10, 3, 9, 8, 6, 4, 2, 1, 11,
+            10, 13, 7, 8, 15, 9, 12, 5, 6, 3, 0, 14, 11, 8, 12, 7, 1, 14, 2, 13, 6, 15, 0, 9, 10, 4, 5, 3 },
+            { 12, 1, 10, 15, 9, 2, 6, 8, 0, 13, 3, 4, 14, 7, 5, 11, 10, 15, 4, 2, 7, 12, 9, 5, 6, 1, 13, 14, 0, 11, 3, 8, 9, 14, 15, 5,
+            2, 8, 12, 3, 7, 0, 4, 10, 1, 13, 11, 6, 4, 3, 2, 12, 9, 5, 15, 10, 11, 14, 1, 7, 6, 0, 8, 13 },
+            { 4, 11, 2, 14, 15, 0, 8, 13, 3, 12, 9, 7, 5, 10, 6, 1, 13, 0, 11, 7, 4, 9, 1, 10, 14, 3, 5, 12, 2, 15, 8, 6, 1, 4, 11, 13,
+            12, 3, 7, 14, 10, 15, 6, 8, 0, 5, 9, 2, 6, 11, 13, 8, 1, 4, 10, 7, 9, 5, 0, 15, 14, 2, 3, 12 },
+            { 13, 2, 8, 4, 6, 15, 11, 1, 10, 9, 3, 14, 5, 0, 12, 7, 1, 15, 13, 8, 10, 3, 7, 4, 12, 5, 6, 11, 0, 14, 9, 2, 7, 11, 4, 1,
+            9, 12, 14, 2, 0, 6, 10, 13, 15, 3, 5, 8, 2, 1, 14, 7, 4, 10, 8, 13, 15, 12, 9, 0, 3, 5, 6, 11 } };
+
+    /**
+     * Left rotations of the C and D halves of the key before each round
+     */
+    private static final int[]   ROTATIONS   = { 1, 1, 2, 2, 2, 2, 2, 2, 1, 2, 2, 2, 2, 2, 2, 1 };
+
+    /**
+     * PC1 from the 56-bit LM key half (parity bits are not present), one table per key byte
+     */
+    private static final long[]  PC1_TABLES  = new long[7 * 256];
+
+    /**
+     * PC2 from the 56-bit C and D registers, one table per byte
+     */
+    private static final long[]  PC2_TABLES  = new long[7 * 256];
+
+    /**
+     * FP of the 64-bit output, one table per byte
+     */
+    private static final long[]  FP_TABLES   = new long[8 * 256];
+
+    /**
+     * S-box i output permuted by P, for each 6-bit input, at index i * 64 + input
+     */
+    private static final int[]   SP          = new int[8 * 64];
+
+    /**
+     * Left half of IP(MAGIC)
+     */
+    private static final int     MAGIC_L;
+
+    /**
+     * Right half of IP(MAGIC)
+     */
+    private static final int     MAGIC_R;
+
+    private static final long    MASK_28     = 0xFFFFFFFL;
+
+    static {
+        // The LM key half is the 8-byte DES key without its parity bits (8, 16, ... 64)
+        final int[] pc1 = new int[56];
+        for (int i = 0; i < 56; i++) {
+            final int bit = PC1[i] - 1;
+            pc1[i] = 7 * (bit / 8) + (bit % 8) + 1;
+        }
+        fillTables(PC1_TABLES, pc1, 56);
+        fillTables(PC2_TABLES, PC2, 56);
+        fillTables(FP_TABLES, FP, 64);
+
+        for (int box = 0; box < 8; box++) {
+            for (int input = 0; input < 64; input++) {
+                final int row = ((input >>> 4) & 2) | (input & 1);
+                final int column = (input >>> 1) & 15;
+                final long output = (long) S[box][row * 16 + column] << (28 - 4 * box);
+                SP[box * 64 + input] = (int) permute(output, P, 32);
+            }
+        }
+
+        long magic = 0;
+        for (int i = 0; i < 8; i++) {
+            magic = (magic << 8) | (PasswordHashes.MAGIC[i] & 0xFF);
+        }
+        final long ip = permute(magic, IP, 64);
+        MAGIC_L = (int) (ip >>> 32);
+        MAGIC_R = (int) ip;
+    }
+
+    /**
+     * Memoised keys (56 bits) with bit 63 set, 0 for empty slots
+     */
+    private final long[]         memoKeys;
+
+    /**
+     * Memoised results, same index as memoKeys
+     */
+    private final long[]         memoValues;
+
+    /**
+     * Number of bits of the memo index
+     */
+    private final int            memoBits;
+
+    /**
+     * Upper cased password of the current hash
+     */
+    private final byte[]         encoded     = new byte[MAX_LENGTH];
+
+    /**
+     * Builds an engine without memo
+     */
+    public LMHash() {
+
+        this(0);
+    }
+
+    /**
+     * @param memoSize
+     *            number of 7-byte halves whose result is memoised, rounded up to a power of 2, 0 for no memo
+     */
+    public LMHash(final int memoSize) {
+
+        if ((memoSize < 0) || (memoSize > (1 << 30))) {
+            throw new IllegalArgumentException("memoSize : must be between 0 and 2^30");
+        }
+        if (memoSize == 0) {
+            memoBits = 0;
+            memoKeys = null;
+            memoValues = null;
+        } else {
+            memoBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(memoSize - 1));
+            memoKeys = new long[1 << memoBits];
+            memoValues = new long[1 << memoBits];
+        }
+    }
+
+    /**
+     * Computes the LM hash of a password : its first 14 characters, upper cased
+     * 
+     * @param password
+     *            the user password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public void hash(final CharSequence password, final byte[] out, final int offset) {
+
+        if ((password == null) || (out == null)) {
+            throw new IllegalArgumentException("password, out : null value not allowed");
+        }
+        if ((offset < 0) || (offset > out.length - HASH_LENGTH)) {
+            throw new IllegalArgumentException("out : no room for " + HASH_LENGTH + " bytes at offset " + offset);
+        }
+
+        final byte[] lm_pw = encoded;
+        try {
+            final int len = Math.min(password.length(), MAX_LENGTH);
+            int i;
+            for (i = 0; i < len; i++) {
+                final char ch = password.charAt(i);
+                if (ch >= 0x80) {
+                    break;
+                }
+                lm_pw[i] = (byte) (((ch >= 'a') && (ch <= 'z')) ? ch - ('a' - 'A') : ch);
+            }
+            if (i < len) {
+                // Not ASCII : relies on the platform charset
+                final byte[] bytes = password.toString().toUpperCase().getBytes();
+                final int count = Math.min(len, bytes.length);
+                for (i = 0; i < count; i++) {
+                    lm_pw[i] = bytes[i];
+                }
+            }
+            for (; i < MAX_LENGTH; i++) {
+                lm_pw[i] = 0;
+            }
+            hash(lm_pw, out, offset);
+        } finally {
+            for (int i = 0; i < MAX_LENGTH; i++) {
+                lm_pw[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Computes the LM hash of an already upper cased and encoded password
+     * 
+     * @param password
+     *            14 bytes, padded with zeros
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public void hash(final byte[] password, final byte[] out, final int offset) {
+
+        if ((password == null) || (out == null)) {
+            throw new IllegalArgumentException("password, out : null value not allowed");
+        }
+        if (password.length < MAX_LENGTH) {
+            throw new IllegalArgumentException("password : " + MAX_LENGTH + " bytes expected");
+        }
+        if ((offset < 0) || (offset > out.length - HASH_LENGTH)) {
+            throw new IllegalArgumentException("out : no room for " + HASH_LENGTH + " bytes at offset " + offset);
+        }
+        putLong(encryptMagic(getKey(password, 0)), out, offset);
+        putLong(encryptMagic(getKey(password, 7)), out, offset + 8);
+    }
+
+    /**
+     * DES encryption of MAGIC with a 56-bit key, through the memo if any
+     */
+    private long encryptMagic(final long key) {
+
+        if (memoKeys == null) {
+            return encrypt(key);
+        }
+        final int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - memoBits));
+        final long tagged = key | Long.MIN_VALUE;
+        if (memoKeys[slot] == tagged) {
+            return memoValues[slot];
+        }
+        final long result = encrypt(key);
+        memoKeys[slot] = tagged;
+        memoValues[slot] = result;
+        return result;
+    }
+
+    /**
+     * DES encryption of MAGIC, subkeys being derived round after round
+     */
+    private static long encrypt(final long key) {
+
+        final long cd = lookup(PC1_TABLES, key, 7);
+        long c = cd >>> 28;
+        long d = cd & MASK_28;
+
+        int l = MAGIC_L;
+        int r = MAGIC_R;
+        for (int round = 0; round < 16; round++) {
+            final int rotation = ROTATIONS[round];
+            c = ((c << rotation) | (c >>> (28 - rotation))) & MASK_28;
+            d = ((d << rotation) | (d >>> (28 - rotation))) & MASK_28;
+            final long k = lookup(PC2_TABLES, (c << 28) | d, 7);
+
+            // Expansion : the 6-bit group i is made of bits 4i to 4i + 5 of r (1-based, cyclic)
+            final int f = SP[(int) ((Integer.rotateLeft(r, -1) >>> 26) ^ (k >>> 42) & 63)]
+                    | SP[64 + (int) ((Integer.rotateLeft(r, 3) >>> 26) ^ (k >>> 36) & 63)]
+                    | SP[128 + (int) ((Integer.rotateLeft(r, 7) >>> 26) ^ (k >>> 30) & 63)]
+                    | SP[192 + (int) ((Integer.rotateLeft(r, 11) >>> 26) ^ (k >>> 24) & 63)]
+                    | SP[256 + (int) ((Integer.rotateLeft(r, 15) >>> 26) ^ (k >>> 18) & 63)]
+                    | SP[320 + (int) ((Integer.rotateLeft(r, 19) >>> 26) ^ (k >>> 12) & 63)]
+                    | SP[384 + (int) ((Integer.rotateLeft(r, 23) >>> 26) ^ (k >>> 6) & 63)]
+                    | SP[448 + (int) ((Integer.rotateLeft(r, 27) >>> 26) ^ k & 63)];
+            final int t = l ^ f;
+            l = r;
+            r = t;
+        }
+        // Last round is not swapped
+        return lookup(FP_TABLES, ((long) r << 32) | (l & 0xFFFFFFFFL), 8);
+    }
+
+    /**
+     * @return 56-bit key half starting at offset, big endian
+     */
+    private static long getKey(final byte[] password, final int offset) {
+
+        long key = 0;
+        for (int i = 0; i < 7; i++) {
+            key = (key << 8) | (password[offset + i] & 0xFF);
+        }
+        return key;
+    }
+
+    private static void putLong(final long value, final byte[] out, final int offset) {
+
+        for (int i = 0; i < 8; i++) {
+            out[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Applies a permutation through its byte tables
+     */
+    private static long lookup(final long[] tables, final long value, final int bytes) {
+
+        long result = 0;
+        for (int i = 0; i < bytes; i++) {
+            result |= tables[(i << 8) | (int) ((value >>> (8 * (bytes - 1 - i))) & 0xFF)];
+        }
+        return result;
+    }
+
+    /**
+     * Builds the byte tables of a permutation of a width-bit value
+     */
+    private static void fillTables(final long[] tables, final int[] permutation, final int width) {
+
+        final int bytes = width / 8;
+        for (int i = 0; i < bytes; i++) {
+            for (int value = 0; value < 256; value++) {
+                tables[(i << 8) | value] = permute((long) value << (8 * (bytes - 1 - i)), permutation, width);
+            }
+        }
+    }
+
+    /**
+     * Bit i (1-based, from the most significant bit) of the result is bit permutation[i - 1] of the width-bit input
+     */
+    private static long permute(final long input, final int[] permutation, final int width) {
+
+        long result = 0;
+        for (int i = 0; i < permutation.length; i++) {
+            result = (result << 1) | ((input >>> (width - permutation[i])) & 1);
+        }
+        return result;
+    }
+
+}
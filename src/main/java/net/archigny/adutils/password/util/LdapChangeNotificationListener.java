@@ -0,0 +1,389 @@
+package net.archigny.adutils.password.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ldap.core.ContextSource;
+
+/**
+ * Holds an Active Directory change notification search (LDAP_SERVER_NOTIFICATION_OID) on one entry or on the children of one entry,
+ * and forwards the changes to a handler. If the search fails or is closed by the server, it is started again after
+ * <code>retryDelay</code> ms.
+ * <p>
+ * The search keeps its connection busy as long as it runs : the ContextSource should neither be pooled nor have a read timeout
+ * (com.sun.jndi.ldap.read.timeout). AD only accepts base or one level scopes and at most 5 notification searches per connection.
+ * <p>
+ * The JNDI LDAP provider only returns from a search once its first result has arrived, that is once a first change happened. AD
+ * rejects an invalid notification search at once, so a search which has neither failed nor returned after
+ * <code>confirmationDelay</code> ms is considered as accepted.
+ * 
+ * @author Philippe MARASSE
+ */
+public class LdapChangeNotificationListener implements Runnable {
+
+    /**
+     * AD control asking to be notified of changes
+     */
+    public static final String               LDAP_SERVER_NOTIFICATION_OID = "1.2.840.113556.1.4.528";
+
+    /**
+     * AD control asking to return deleted objects too
+     */
+    public static final String               LDAP_SERVER_SHOW_DELETED_OID = "1.2.840.113556.1.4.417";
+
+    /**
+     * Filter required by AD for notification searches
+     */
+    public static final String               NOTIFICATION_FILTER          = "(objectClass=*)";
+
+    /**
+     * Logger instance
+     */
+    private final Logger                     log                          = LoggerFactory.getLogger(LdapChangeNotificationListener.class);
+
+    /**
+     * Source of the (dedicated) connection
+     */
+    private final ContextSource              contextSource;
+
+    /**
+     * Base of the search
+     */
+    private final String                     base;
+
+    /**
+     * SearchControls.OBJECT_SCOPE or SearchControls.ONELEVEL_SCOPE
+     */
+    private final int                        scope;
+
+    /**
+     * Attributes returned with each change
+     */
+    private final String[]                   attributes;
+
+    /**
+     * Receiver of changes
+     */
+    private final IChangeNotificationHandler handler;
+
+    /**
+     * Also receive deletions
+     */
+    private boolean                          showDeleted                  = false;
+
+    /**
+     * Delay before subscribing again after a failure (ms)
+     */
+    private long                             retryDelay                   = 30000L;
+
+    /**
+     * Delay after which a notification search which has not failed is considered as accepted by the server (ms)
+     */
+    private long                             confirmationDelay            = 2000L;
+
+    /**
+     * True while the notification search is running and has been accepted
+     */
+    private volatile boolean                 subscribed                   = false;
+
+    /**
+     * Number of the current search attempt, a confirmation only applies to its own attempt. Guarded by subscriptionLock.
+     */
+    private int                              attempt                      = 0;
+
+    /**
+     * Serializes the subscription state changes and their callbacks
+     */
+    private final Object                     subscriptionLock             = new Object();
+
+    /**
+     * Thread confirming the searches still waiting for their first result
+     */
+    private ScheduledExecutorService         confirmer;
+
+    /**
+     * True once stopped
+     */
+    private volatile boolean                 stopped                      = true;
+
+    /**
+     * Listening thread
+     */
+    private Thread                           thread;
+
+    /**
+     * Connection currently used
+     */
+    private volatile DirContext              currentContext;
+
+    /**
+     * @param contextSource
+     *            Source of the connection, should not be pooled
+     * @param base
+     *            Entry to watch
+     * @param scope
+     *            SearchControls.OBJECT_SCOPE to watch the entry, SearchControls.ONELEVEL_SCOPE to watch its children
+     * @param attributes
+     *            Attributes returned with each change
+     * @param handler
+     *            Receiver of changes
+     */
+    public LdapChangeNotificationListener(final ContextSource contextSource, final String base, final int scope,
+            final String[] attributes, final IChangeNotificationHandler handler) {
+
+        if (contextSource == null || base == null || handler == null) {
+            throw new IllegalArgumentException("contextSource, base and handler : null value not allowed");
+        }
+        if (scope != SearchControls.OBJECT_SCOPE && scope != SearchControls.ONELEVEL_SCOPE) {
+            throw new IllegalArgumentException("scope must be one of OBJECT_SCOPE or ONELEVEL_SCOPE");
+        }
+        this.contextSource = contextSource;
+        this.base = base;
+        this.scope = scope;
+        this.attributes = attributes;
+        this.handler = handler;
+    }
+
+    /**
+     * Starts the listening thread
+     */
+    public synchronized void start() {
+
+        if (thread != null) {
+            return;
+        }
+        stopped = false;
+        confirmer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+
+                final Thread t = new Thread(r, "LdapChangeNotificationListener-confirm-" + base);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        thread = new Thread(this, "LdapChangeNotificationListener-" + base);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the listening thread, closing the notification search
+     */
+    public synchronized void stop() {
+
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+            closeContext();
+            thread = null;
+            confirmer.shutdownNow();
+            confirmer = null;
+        }
+    }
+
+    @Override
+    public void run() {
+
+        while (!stopped) {
+            NamingEnumeration<SearchResult> results = null;
+            final int current;
+            synchronized (subscriptionLock) {
+                current = ++attempt;
+            }
+            try {
+                currentContext = contextSource.getReadOnlyContext();
+                scheduleConfirmation(current);
+                results = search(currentContext);
+                // First change arrived : accepted without waiting for the confirmation delay
+                confirm(current);
+
+                while (!stopped && results.hasMore()) {
+                    final SearchResult result = results.next();
+                    log.debug("Change notified on {}", result.getNameInNamespace());
+                    try {
+                        handler.entryChanged(result.getNameInNamespace(), result.getAttributes());
+                    } catch (RuntimeException e) {
+                        log.warn("Change notification on " + result.getNameInNamespace() + " could not be handled", e);
+                    }
+                }
+                if (!stopped) {
+                    log.warn("Notification search on {} closed by the server", base);
+                }
+            } catch (NamingException e) {
+                if (!stopped) {
+                    log.warn("Notification search on " + base + " failed : " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                if (!stopped) {
+                    log.warn("Notification search on " + base + " failed", e);
+                }
+            } finally {
+                if (results != null) {
+                    try {
+                        results.close();
+                    } catch (NamingException e) {
+                        // Ignored
+                    }
+                }
+                closeContext();
+                synchronized (subscriptionLock) {
+                    // Pending confirmation of this attempt is void
+                    attempt++;
+                    if (subscribed) {
+                        subscribed = false;
+                        handler.subscriptionLost();
+                    }
+                }
+            }
+
+            if (!stopped) {
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException e) {
+                    // Stopped
+                }
+            }
+        }
+    }
+
+    /**
+     * Plans the confirmation of a search attempt after confirmationDelay
+     */
+    private synchronized void scheduleConfirmation(final int current) {
+
+        if (confirmer == null) {
+            return;
+        }
+        try {
+            confirmer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    confirm(current);
+                }
+            }, confirmationDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Marks a search attempt as accepted by the server, unless it has already ended
+     */
+    private void confirm(final int current) {
+
+        synchronized (subscriptionLock) {
+            if (stopped || subscribed || (current != attempt)) {
+                return;
+            }
+            subscribed = true;
+            log.info("Listening to changes of {}", base);
+            handler.subscriptionStarted();
+        }
+    }
+
+    /**
+     * Starts the notification search on a connection
+     * 
+     * @param ctx
+     *            Connection, must be an LdapContext
+     * @return Enumeration of changes, blocking until next change
+     * @throws NamingException
+     */
+    private NamingEnumeration<SearchResult> search(final DirContext ctx) throws NamingException {
+
+        if (!(ctx instanceof LdapContext)) {
+            throw new IllegalStateException("ContextSource must provide LdapContext instances to use request controls");
+        }
+
+        final Control[] controls;
+        if (showDeleted) {
+            controls = new Control[] { new BasicControl(LDAP_SERVER_NOTIFICATION_OID, true, null),
+                    new BasicControl(LDAP_SERVER_SHOW_DELETED_OID, true, null) };
+        } else {
+            controls = new Control[] { new BasicControl(LDAP_SERVER_NOTIFICATION_OID, true, null) };
+        }
+        ((LdapContext) ctx).setRequestControls(controls);
+
+        final SearchControls sc = new SearchControls();
+        sc.setSearchScope(scope);
+        sc.setReturningAttributes(attributes);
+        // No time limit, results come with changes
+        sc.setTimeLimit(0);
+
+        return ctx.search(base, NOTIFICATION_FILTER, sc);
+    }
+
+    private void closeContext() {
+
+        final DirContext ctx = currentContext;
+        currentContext = null;
+        if (ctx != null) {
+            try {
+                ctx.close();
+            } catch (NamingException e) {
+                // Ignored
+            }
+        }
+    }
+
+    // Setters & Getters
+
+    public boolean isSubscribed() {
+
+        return subscribed;
+    }
+
+    public boolean isShowDeleted() {
+
+        return showDeleted;
+    }
+
+    public void setShowDeleted(final boolean showDeleted) {
+
+        this.showDeleted = showDeleted;
+    }
+
+    public long getRetryDelay() {
+
+        return retryDelay;
+    }
+
+    public void setRetryDelay(final long retryDelay) {
+
+        this.retryDelay = retryDelay;
+    }
+
+    public long getConfirmationDelay() {
+
+        return confirmationDelay;
+    }
+
+    public void setConfirmationDelay(final long confirmationDelay) {
+
+        this.confirmationDelay = confirmationDelay;
+    }
+
+    public String getBase() {
+
+        return base;
+    }
+
+}
@@ -1,5 +1,6 @@
 package net.archigny.adutils.password.util;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 
 /**
@@ -28,12 +29,17 @@ public class MD4 extends MessageDigest implements Cloneable {
     /**
      * The size in bytes of the input block to the tranformation algorithm.
      */
-    private static final int BLOCK_LENGTH = 64;                    // = 512 / 8;
+    private static final int BLOCK_LENGTH  = 64;                    // = 512 / 8;
+
+    /**
+     * The size in bytes of the digest.
+     */
+    private static final int DIGEST_LENGTH = 16;
 
     /**
      * 4 32-bit words (interim result)
      */
-    private int[]            context      = new int[4];
+    private int[]            context       = new int[4];
 
     /**
      * Number of bytes processed so far mod. 2 power of 64.
@@ -43,12 +49,17 @@ public class MD4 extends MessageDigest implements Cloneable {
     /**
      * 512 bits input buffer = 16 x 32-bit words holds until reaches 512 bits.
      */
-    private byte[]           buffer       = new byte[BLOCK_LENGTH];
+    private byte[]           buffer        = new byte[BLOCK_LENGTH];
 
     /**
      * 512 bits work buffer = 16 x 32-bit words
      */
-    private int[]            X            = new int[16];
+    private int[]            X             = new int[16];
+
+    /**
+     * Padding and length appended by engineDigest, kept to avoid an allocation per digest.
+     */
+    private byte[]           tail          = new byte[BLOCK_LENGTH + 8];
 
     // Constructors
     // ...........................................................................
@@ -64,9 +75,9 @@ public class MD4 extends MessageDigest implements Cloneable {
      */
     private MD4(MD4 md) {
 
-        this();
-        context = (int[]) md.context.clone();
-        buffer = (byte[]) md.buffer.clone();
+        super("MD4");
+        System.arraycopy(md.context, 0, context, 0, context.length);
+        System.arraycopy(md.buffer, 0, buffer, 0, BLOCK_LENGTH);
         count = md.count;
     }
 
@@ -96,8 +107,19 @@ public class MD4 extends MessageDigest implements Cloneable {
         context[2] = 0x98BADCFE;
         context[3] = 0x10325476;
         count = 0L;
+        // wipe the data of the previous message
         for (int i = 0; i < BLOCK_LENGTH; i++)
             buffer[i] = 0;
+        for (int i = 0; i < 16; i++)
+            X[i] = 0;
+    }
+
+    /**
+     * Returns the digest length in bytes.
+     */
+    public int engineGetDigestLength() {
+
+        return DIGEST_LENGTH;
     }
 
     /**
@@ -157,31 +179,63 @@ public class MD4 extends MessageDigest implements Cloneable {
      */
     public byte[] engineDigest() {
 
+        byte[] result = new byte[DIGEST_LENGTH];
+        finish(result, 0);
+        return result;
+    }
+
+    /**
+     * Completes the hash computation into a caller supplied buffer, without allocating. At the return of this engineDigest, the
+     * MD engine is reset.
+     * 
+     * @param buf
+     *            output buffer
+     * @param offset
+     *            position of the digest in buf
+     * @param len
+     *            number of bytes available in buf for the digest
+     * @return the length of the digest
+     */
+    public int engineDigest(byte[] buf, int offset, int len) throws DigestException {
+
+        if (len < DIGEST_LENGTH)
+            throw new DigestException("partial digests not returned");
+        if (offset < 0 || (long) offset + DIGEST_LENGTH > buf.length)
+            throw new DigestException("insufficient space in the output buffer to store the digest");
+        finish(buf, offset);
+        return DIGEST_LENGTH;
+    }
+
+    /**
+     * Pads the message, writes the digest at offset in result and resets the engine.
+     */
+    private void finish(byte[] result, int offset) {
+
         // pad output to 56 mod 64; as RFC1320 puts it: congruent to 448 mod 512
         int bufferNdx = (int) (count % BLOCK_LENGTH);
         int padLen = (bufferNdx < 56) ? (56 - bufferNdx) : (120 - bufferNdx);
 
         // padding is alwas binary 1 followed by binary 0s
-        byte[] tail = new byte[padLen + 8];
         tail[0] = (byte) 0x80;
+        for (int i = 1; i < padLen; i++)
+            tail[i] = 0;
 
         // append length before final transform:
         // save number of bits, casting the long to an array of 8 bytes
         // save low-order byte first.
+        long bits = count * 8;
         for (int i = 0; i < 8; i++)
-            tail[padLen + i] = (byte) ((count * 8) >>> (8 * i));
+            tail[padLen + i] = (byte) (bits >>> (8 * i));
 
-        engineUpdate(tail, 0, tail.length);
+        engineUpdate(tail, 0, padLen + 8);
 
-        byte[] result = new byte[16];
         // cast this MD4's context (array of 4 ints) into an array of 16 bytes.
         for (int i = 0; i < 4; i++)
             for (int j = 0; j < 4; j++)
-                result[i * 4 + j] = (byte) (context[i] >>> (8 * j));
+                result[offset + i * 4 + j] = (byte) (context[i] >>> (8 * j));
 
         // reset the engine
         engineReset();
-        return result;
     }
 
     // own methods
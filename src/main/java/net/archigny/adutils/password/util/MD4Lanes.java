@@ -0,0 +1,361 @@
+package net.archigny.adutils.password.util;
+
+import java.util.Arrays;
+
+/**
+ * MD4 computing several independent messages at once : {@link #LANES} one-block messages are laid out side by side, word i of lane
+ * l being stored at <code>i * LANES + l</code>, and every step of the compression function runs over all lanes in the same loop.
+ * With a constant trip count these loops are unrolled and auto-vectorised by the JIT compiler (one 256-bit vector of 8 ints), and
+ * even when they are not vectorised the lanes are independent instruction streams for the processor.
+ * <p>
+ * Messages fitting in one block (NT passwords up to {@link #MAX_ONE_BLOCK_CHARS} characters, raw messages up to
+ * {@link #MAX_ONE_BLOCK_BYTES} bytes) are batched, longer ones are hashed alone by {@link NTHash} or {@link MD4}. Results are
+ * identical to {@link MD4}.
+ * <p>
+ * Instances are not thread safe but can be reused, no allocation is done per message.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class MD4Lanes {
+
+    /**
+     * Length of the digest in bytes
+     */
+    public static final int           DIGEST_LENGTH       = 16;
+
+    /**
+     * Longest NT password hashed in one block
+     */
+    public static final int           MAX_ONE_BLOCK_CHARS = 27;
+
+    /**
+     * Longest raw message hashed in one block
+     */
+    public static final int           MAX_ONE_BLOCK_BYTES = 55;
+
+    /**
+     * Number of messages per compression
+     */
+    public static final int           LANES               = 8;
+
+    /**
+     * Blocks of all lanes, word-major
+     */
+    private final int[]               x;
+
+    /**
+     * Chaining variables of all lanes
+     */
+    private final int[]      a, b, c, d;
+
+    /**
+     * Output position of the message in each lane
+     */
+    private final int[]               positions;
+
+    /**
+     * Number of lanes loaded
+     */
+    private int                       used;
+
+    /**
+     * Engine of NT passwords longer than one block
+     */
+    private final NTHash              ntHash              = new NTHash();
+
+    /**
+     * Engine of raw messages longer than one block
+     */
+    private MD4                       md4;
+
+    public MD4Lanes() {
+
+        this.x = new int[16 * LANES];
+        this.a = new int[LANES];
+        this.b = new int[LANES];
+        this.c = new int[LANES];
+        this.d = new int[LANES];
+        this.positions = new int[LANES];
+    }
+
+    /**
+     * Computes the NT hashes of consecutive passwords
+     * 
+     * @param passwords
+     *            candidates
+     * @param start
+     *            first candidate
+     * @param count
+     *            number of candidates
+     * @param out
+     *            receives 16 bytes per candidate, in the same order
+     * @param offset
+     *            position of the first hash in out
+     */
+    public void hashNT(final CharSequence[] passwords, final int start, final int count, final byte[] out, final int offset) {
+
+        if ((passwords == null) || (out == null)) {
+            throw new IllegalArgumentException("passwords, out : null value not allowed");
+        }
+        checkRanges(passwords.length, start, count, out, offset);
+
+        int position = offset;
+        for (int i = start; i < start + count; i++, position += DIGEST_LENGTH) {
+            final CharSequence password = passwords[i];
+            if (password == null) {
+                throw new IllegalArgumentException("password : null value not allowed");
+            }
+            final int length = password.length();
+            if (length > MAX_ONE_BLOCK_CHARS) {
+                ntHash.hash(password, out, position);
+                continue;
+            }
+            int w = used;
+            int j = 0;
+            for (; length - j >= 2; j += 2, w += LANES) {
+                x[w] = password.charAt(j) | (password.charAt(j + 1) << 16);
+            }
+            // Padding starts with a 0x80 byte, right after the last character
+            x[w] = (j < length) ? (password.charAt(j) | 0x800000) : 0x80;
+            load(w + LANES, length << 4, out, position);
+        }
+        flush(out);
+    }
+
+    /**
+     * Computes the NT hashes of passwords packed in one array, password i spanning <code>chars[bounds[i]]</code> to
+     * <code>chars[bounds[i + 1]]</code> excluded
+     * 
+     * @param chars
+     *            characters of the candidates
+     * @param bounds
+     *            start of each candidate, followed by the end of the last one
+     * @param start
+     *            first candidate
+     * @param count
+     *            number of candidates
+     * @param out
+     *            receives 16 bytes per candidate, in the same order
+     * @param offset
+     *            position of the first hash in out
+     */
+    public void hashNT(final char[] chars, final int[] bounds, final int start, final int count, final byte[] out,
+            final int offset) {
+
+        if ((chars == null) || (bounds == null) || (out == null)) {
+            throw new IllegalArgumentException("chars, bounds, out : null value not allowed");
+        }
+        checkRanges(bounds.length - 1, start, count, out, offset);
+
+        int position = offset;
+        for (int i = start; i < start + count; i++, position += DIGEST_LENGTH) {
+            final int from = bounds[i];
+            final int length = bounds[i + 1] - from;
+            if ((from < 0) || (length < 0) || (from > chars.length - length)) {
+                throw new IllegalArgumentException("bounds : out of chars bounds");
+            }
+            if (length > MAX_ONE_BLOCK_CHARS) {
+                ntHash.hash(chars, from, length, out, position);
+                continue;
+            }
+            final int end = from + length;
+            int w = used;
+            int j = from;
+            for (; end - j >= 2; j += 2, w += LANES) {
+                x[w] = chars[j] | (chars[j + 1] << 16);
+            }
+            x[w] = (j < end) ? (chars[j] | 0x800000) : 0x80;
+            load(w + LANES, length << 4, out, position);
+        }
+        flush(out);
+    }
+
+    /**
+     * Computes the MD4 digests of consecutive messages
+     * 
+     * @param messages
+     *            messages to digest
+     * @param start
+     *            first message
+     * @param count
+     *            number of messages
+     * @param out
+     *            receives 16 bytes per message, in the same order
+     * @param offset
+     *            position of the first digest in out
+     */
+    public void digest(final byte[][] messages, final int start, final int count, final byte[] out, final int offset) {
+
+        if ((messages == null) || (out == null)) {
+            throw new IllegalArgumentException("messages, out : null value not allowed");
+        }
+        checkRanges(messages.length, start, count, out, offset);
+
+        int position = offset;
+        for (int i = start; i < start + count; i++, position += DIGEST_LENGTH) {
+            final byte[] message = messages[i];
+            if (message == null) {
+                throw new IllegalArgumentException("message : null value not allowed");
+            }
+            final int length = message.length;
+            if (length > MAX_ONE_BLOCK_BYTES) {
+                if (md4 == null) {
+                    md4 = new MD4();
+                }
+                md4.update(message);
+                System.arraycopy(md4.digest(), 0, out, position, DIGEST_LENGTH);
+                continue;
+            }
+            int w = used;
+            int j = 0;
+            for (; length - j >= 4; j += 4, w += LANES) {
+                x[w] = (message[j] & 0xFF) | ((message[j + 1] & 0xFF) << 8) | ((message[j + 2] & 0xFF) << 16)
+                        | (message[j + 3] << 24);
+            }
+            // 0 to 3 bytes left, followed by the 0x80 padding byte
+            int last = 0x80 << ((length - j) << 3);
+            for (int k = length - 1; k >= j; k--) {
+                last |= (message[k] & 0xFF) << ((k - j) << 3);
+            }
+            x[w] = last;
+            load(w + LANES, length << 3, out, position);
+        }
+        flush(out);
+    }
+
+    private void checkRanges(final int available, final int start, final int count, final byte[] out, final int offset) {
+
+        if ((start < 0) || (count < 0) || (start > available - count)) {
+            throw new IllegalArgumentException("start, count : out of bounds");
+        }
+        if ((offset < 0) || (offset > out.length - count * DIGEST_LENGTH)) {
+            throw new IllegalArgumentException("out : no room for " + count + " digests at offset " + offset);
+        }
+    }
+
+    /**
+     * Completes the block of the current lane, whose words are set up to <code>next</code> excluded, then compresses all lanes if
+     * they are all loaded
+     */
+    private void load(final int next, final int bits, final byte[] out, final int position) {
+
+        final int l = used;
+        for (int w = next; w < 14 * LANES; w += LANES) {
+            x[w] = 0;
+        }
+        x[14 * LANES + l] = bits;
+        x[15 * LANES + l] = 0;
+        positions[l] = position;
+        if (++used == LANES) {
+            compress();
+            store(out);
+        }
+    }
+
+    /**
+     * Compresses and stores the lanes left loaded, stale blocks of the other lanes are computed for nothing
+     */
+    private void flush(final byte[] out) {
+
+        if (used > 0) {
+            compress();
+            store(out);
+        }
+        // Wipes the passwords
+        Arrays.fill(x, 0);
+    }
+
+    private void store(final byte[] out) {
+
+        for (int l = 0; l < used; l++) {
+            final int position = positions[l];
+            putInt(a[l], out, position);
+            putInt(b[l], out, position + 4);
+            putInt(c[l], out, position + 8);
+            putInt(d[l], out, position + 12);
+        }
+        used = 0;
+    }
+
+    private static void putInt(final int value, final byte[] out, final int offset) {
+
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * MD4 compression function (RFC 1320) of one block per lane, from the initial chaining variables
+     */
+    private void compress() {
+
+        Arrays.fill(a, 0x67452301);
+        Arrays.fill(b, 0xEFCDAB89);
+        Arrays.fill(c, 0x98BADCFE);
+        Arrays.fill(d, 0x10325476);
+
+        final int n = LANES;
+        for (int k = 0; k < 16; k += 4) {
+            f(a, b, c, d, k * n, 3);
+            f(d, a, b, c, (k + 1) * n, 7);
+            f(c, d, a, b, (k + 2) * n, 11);
+            f(b, c, d, a, (k + 3) * n, 19);
+        }
+        for (int k = 0; k < 4; k++) {
+            g(a, b, c, d, k * n, 3);
+            g(d, a, b, c, (k + 4) * n, 5);
+            g(c, d, a, b, (k + 8) * n, 9);
+            g(b, c, d, a, (k + 12) * n, 13);
+        }
+        for (int k = 0; k < 4; k++) {
+            final int i = (k >>> 1) | ((k & 1) << 1);
+            h(a, b, c, d, i * n, 3);
+            h(d, a, b, c, (i + 8) * n, 9);
+            h(c, d, a, b, (i + 4) * n, 11);
+            h(b, c, d, a, (i + 12) * n, 15);
+        }
+
+        for (int l = 0; l < n; l++) {
+            a[l] += 0x67452301;
+            b[l] += 0xEFCDAB89;
+            c[l] += 0x98BADCFE;
+            d[l] += 0x10325476;
+        }
+    }
+
+    /**
+     * Round 1 step over all lanes, word of each lane starting at <code>w</code>
+     */
+    private void f(final int[] p, final int[] q, final int[] r, final int[] s, final int w, final int shift) {
+
+        // Constant trip count : the loop is unrolled and vectorised
+        for (int l = 0; l < LANES; l++) {
+            final int t = p[l] + ((q[l] & r[l]) | (~q[l] & s[l])) + x[w + l];
+            p[l] = (t << shift) | (t >>> (32 - shift));
+        }
+    }
+
+    /**
+     * Round 2 step over all lanes
+     */
+    private void g(final int[] p, final int[] q, final int[] r, final int[] s, final int w, final int shift) {
+
+        for (int l = 0; l < LANES; l++) {
+            final int t = p[l] + ((q[l] & (r[l] | s[l])) | (r[l] & s[l])) + x[w + l] + 0x5A827999;
+            p[l] = (t << shift) | (t >>> (32 - shift));
+        }
+    }
+
+    /**
+     * Round 3 step over all lanes
+     */
+    private void h(final int[] p, final int[] q, final int[] r, final int[] s, final int w, final int shift) {
+
+        for (int l = 0; l < LANES; l++) {
+            final int t = p[l] + (q[l] ^ r[l] ^ s[l]) + x[w + l] + 0x6ED9EBA1;
+            p[l] = (t << shift) | (t >>> (32 - shift));
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package net.archigny.adutils.password.util;
+
+import java.util.Arrays;
+
+/**
+ * MD4 specialised for the NT hash : the password characters are packed two by two in the 32-bit words of the MD4 block, which is
+ * the UTF-16LE encoding of the password without any intermediate byte array, and the compression function is fully unrolled on
+ * local variables.
+ * <p>
+ * Passwords up to 27 characters are hashed with a single compression, up to 59 characters with two. Longer passwords are supported
+ * too. Results are identical to {@link MD4} over the UTF-16LE encoding of the full password.
+ * <p>
+ * Instances are not thread safe but can be reused for any number of hashes : no allocation is done per hash, and the password
+ * words are wiped after each hash.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class NTHash {
+
+    /**
+     * Length of the hash in bytes
+     */
+    public static final int              HASH_LENGTH = 16;
+
+    /**
+     * Number of password characters in a 64 bytes block
+     */
+    private static final int             BLOCK_CHARS = 32;
+
+    /**
+     * Current block, 16 little endian words
+     */
+    private final int[]                  block       = new int[16];
+
+    /**
+     * Chaining variables A, B, C, D
+     */
+    private int              h0, h1, h2, h3;
+
+    /**
+     * Computes the NT hash of a whole password
+     * 
+     * @param password
+     *            the user password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public void hash(final char[] password, final byte[] out, final int offset) {
+
+        if (password == null) {
+            throw new IllegalArgumentException("password : null value not allowed");
+        }
+        hash(password, 0, password.length, out, offset);
+    }
+
+    /**
+     * Computes the NT hash of a range of characters
+     * 
+     * @param password
+     *            array containing the user password
+     * @param start
+     *            position of the first character of the password
+     * @param length
+     *            number of characters of the password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public void hash(final char[] password, final int start, final int length, final byte[] out, final int offset) {
+
+        if (password == null) {
+            throw new IllegalArgumentException("password : null value not allowed");
+        }
+        if ((start < 0) || (length < 0) || (start > password.length - length)) {
+            throw new IllegalArgumentException("start, length : out of password bounds");
+        }
+        checkOutput(out, offset);
+
+        reset();
+        final int[] x = block;
+        final int end = start + length;
+        int i = start;
+        while (end - i >= BLOCK_CHARS) {
+            for (int w = 0; w < 16; w++, i += 2) {
+                x[w] = password[i] | (password[i + 1] << 16);
+            }
+            compress(x);
+        }
+        int w = 0;
+        for (; end - i >= 2; w++, i += 2) {
+            x[w] = password[i] | (password[i + 1] << 16);
+        }
+        // Padding starts with a 0x80 byte, right after the last character
+        x[w++] = (i < end) ? (password[i] | 0x800000) : 0x80;
+        finish(w, length, out, offset);
+    }
+
+    /**
+     * Computes the NT hash of a password
+     * 
+     * @param password
+     *            the user password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public void hash(final CharSequence password, final byte[] out, final int offset) {
+
+        if (password == null) {
+            throw new IllegalArgumentException("password : null value not allowed");
+        }
+        checkOutput(out, offset);
+
+        reset();
+        final int[] x = block;
+        final int length = password.length();
+        int i = 0;
+        while (length - i >= BLOCK_CHARS) {
+            for (int w = 0; w < 16; w++, i += 2) {
+                x[w] = password.charAt(i) | (password.charAt(i + 1) << 16);
+            }
+            compress(x);
+        }
+        int w = 0;
+        for (; length - i >= 2; w++, i += 2) {
+            x[w] = password.charAt(i) | (password.charAt(i + 1) << 16);
+        }
+        // Padding starts with a 0x80 byte, right after the last character
+        x[w++] = (i < length) ? (password.charAt(i) | 0x800000) : 0x80;
+        finish(w, length, out, offset);
+    }
+
+    private static void checkOutput(final byte[] out, final int offset) {
+
+        if (out == null) {
+            throw new IllegalArgumentException("out : null value not allowed");
+        }
+        if ((offset < 0) || (offset > out.length - HASH_LENGTH)) {
+            throw new IllegalArgumentException("out : no room for " + HASH_LENGTH + " bytes at offset " + offset);
+        }
+    }
+
+    private void reset() {
+
+        h0 = 0x67452301;
+        h1 = 0xEFCDAB89;
+        h2 = 0x98BADCFE;
+        h3 = 0x10325476;
+    }
+
+    /**
+     * Pads the last block whose <code>used</code> first words are set, appends the length and writes the hash
+     */
+    private void finish(int used, final int length, final byte[] out, final int offset) {
+
+        final int[] x = block;
+        if (used > 14) {
+            // No room left for the length : one more block
+            Arrays.fill(x, used, 16, 0);
+            compress(x);
+            used = 0;
+        }
+        Arrays.fill(x, used, 14, 0);
+        final long bits = (long) length << 4;
+        x[14] = (int) bits;
+        x[15] = (int) (bits >>> 32);
+        compress(x);
+
+        // Wipes the password
+        Arrays.fill(x, 0);
+
+        putInt(h0, out, offset);
+        putInt(h1, out, offset + 4);
+        putInt(h2, out, offset + 8);
+        putInt(h3, out, offset + 12);
+    }
+
+    private static void putInt(final int value, final byte[] out, final int offset) {
+
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * MD4 compression function (RFC 1320), unrolled
+     */
+    private void compress(final int[] block) {
+
+        final int x0 = block[0];
+        final int x1 = block[1];
+        final int x2 = block[2];
+        final int x3 = block[3];
+        final int x4 = block[4];
+        final int x5 = block[5];
+        final int x6 = block[6];
+        final int x7 = block[7];
+        final int x8 = block[8];
+        final int x9 = block[9];
+        final int x10 = block[10];
+        final int x11 = block[11];
+        final int x12 = block[12];
+        final int x13 = block[13];
+        final int x14 = block[14];
+        final int x15 = block[15];
+
+        int a = h0;
+        int b = h1;
+        int c = h2;
+        int d = h3;
+
+        // Round 1
+        a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x0, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x1, 7);
+        c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x2, 11);
+        b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x3, 19);
+        a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x4, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x5, 7);
+        c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x6, 11);
+        b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x7, 19);
+        a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x8, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x9, 7);
+        c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x10, 11);
+        b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x11, 19);
+        a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x12, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x13, 7);
+        c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x14, 11);
+        b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x15, 19);
+
+        // Round 2
+        a = Integer.rotateLeft(a + ((b & (c | d)) | (c & d)) + x0 + 0x5A827999, 3);
+        d = Integer.rotateLeft(d + ((a & (b | c)) | (b & c)) + x4 + 0x5A827999, 5);
+        c = Integer.rotateLeft(c + ((d & (a | b)) | (a & b)) + x8 + 0x5A827999, 9);
+        b = Integer.rotateLeft(b + ((c & (d | a)) | (d & a)) + x12 + 0x5A827999, 13);
+        a = Integer.rotateLeft(a + ((b & (c | d)) | (c & d)) + x1 + 0x5A827999, 3);
+        d = Integer.rotateLeft(d + ((a & (b | c)) | (b & c)) + x5 + 0x5A827999, 5);
+        c = Integer.rotateLeft(c + ((d & (a | b)) | (a & b)) + x9 + 0x5A827999, 9);
+        b = Integer.rotateLeft(b + ((c & (d | a)) | (d & a)) + x13 + 0x5A827999, 13);
+        a = Integer.rotateLeft(a + ((b & (c | d)) | (c & d)) + x2 + 0x5A827999, 3);
+        d = Integer.rotateLeft(d + ((a & (b | c)) | (b & c)) + x6 + 0x5A827999, 5);
+        c = Integer.rotateLeft(c + ((d & (a | b)) | (a & b)) + x10 + 0x5A827999, 9);
+        b = Integer.rotateLeft(b + ((c & (d | a)) | (d & a)) + x14 + 0x5A827999, 13);
+        a = Integer.rotateLeft(a + ((b & (c | d)) | (c & d)) + x3 + 0x5A827999, 3);
+        d = Integer.rotateLeft(d + ((a & (b | c)) | (b & c)) + x7 + 0x5A827999, 5);
+        c = Integer.rotateLeft(c + ((d & (a | b)) | (a & b)) + x11 + 0x5A827999, 9);
+        b = Integer.rotateLeft(b + ((c & (d | a)) | (d & a)) + x15 + 0x5A827999, 13);
+
+        // Round 3
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x0 + 0x6ED9EBA1, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x8 + 0x6ED9EBA1, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x4 + 0x6ED9EBA1, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x12 + 0x6ED9EBA1, 15);
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x2 + 0x6ED9EBA1, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x10 + 0x6ED9EBA1, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x6 + 0x6ED9EBA1, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x14 + 0x6ED9EBA1, 15);
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x1 + 0x6ED9EBA1, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x9 + 0x6ED9EBA1, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x5 + 0x6ED9EBA1, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x13 + 0x6ED9EBA1, 15);
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x3 + 0x6ED9EBA1, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x11 + 0x6ED9EBA1, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x7 + 0x6ED9EBA1, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x15 + 0x6ED9EBA1, 15);
+
+        h0 += a;
+        h1 += b;
+        h2 += c;
+        h3 += d;
+    }
+
+}
@@ -0,0 +1,335 @@
+package net.archigny.adutils.password.util;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * NTLMv2 computations of [MS-NLMP] 3.3.2 on top of the NT hash : NTOWFv2 (response key), NTProofStr and NT challenge response,
+ * LMv2 response and session base key.
+ * <p>
+ * An engine keeps one HMAC-MD5 Mac, one NT hash engine and its buffers, which are reused by every computation. Engines are not
+ * thread safe : {@link #forCurrentThread()} returns the engine of the calling thread.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class NTLMv2Engine {
+
+    /**
+     * Length of keys, NTProofStr and HMAC-MD5 results
+     */
+    public static final int                        KEY_LENGTH                     = 16;
+
+    /**
+     * Length of server and client challenges
+     */
+    public static final int                        CHALLENGE_LENGTH               = 8;
+
+    /**
+     * Length of the NTLMv2_CLIENT_CHALLENGE structure without its AV pairs and final padding
+     */
+    public static final int                        CLIENT_CHALLENGE_HEADER_LENGTH = 28;
+
+    private static final String                    HMAC_MD5                       = "HmacMD5";
+
+    /**
+     * Engines of the threads
+     */
+    private static final ThreadLocal<NTLMv2Engine> ENGINES                        = new ThreadLocal<NTLMv2Engine>() {
+
+        @Override
+        protected NTLMv2Engine initialValue() {
+
+            return new NTLMv2Engine();
+        }
+    };
+
+    private final Mac    mac;
+
+    private final NTHash ntHash   = new NTHash();
+
+    /**
+     * NT hash of the password, then HMAC results not returned to the caller
+     */
+    private final byte[] key      = new byte[KEY_LENGTH];
+
+    /**
+     * UTF-16LE encoding of the user and domain names, grows as needed
+     */
+    private byte[]       identity = new byte[128];
+
+    public NTLMv2Engine() {
+
+        try {
+            mac = Mac.getInstance(HMAC_MD5);
+        } catch (NoSuchAlgorithmException e) {
+            throw new HashComputingException("NoSuchAlgorithmException during Hash computation", e);
+        }
+    }
+
+    /**
+     * @return the engine of the calling thread
+     */
+    public static NTLMv2Engine forCurrentThread() {
+
+        return ENGINES.get();
+    }
+
+    /**
+     * NTOWFv2 from a cleartext password
+     * 
+     * @param password
+     *            the user password
+     * @param user
+     *            user name, upper cased by the computation
+     * @param domain
+     *            user domain, as is
+     * @param out
+     *            receives the 16 bytes of the response key
+     * @param offset
+     *            position of the key in out
+     */
+    public void computeNTOWFv2(final CharSequence password, final CharSequence user, final CharSequence domain,
+            final byte[] out, final int offset) {
+
+        ntHash.hash(password, key, 0);
+        try {
+            computeNTOWFv2(key, 0, user, domain, out, offset);
+        } finally {
+            clear(key);
+        }
+    }
+
+    /**
+     * NTOWFv2 from the NT hash of the password : HMAC_MD5(NT hash, UNICODE(Uppercase(user) + domain))
+     * 
+     * @param ntHash
+     *            array containing the NT hash of the password
+     * @param ntOffset
+     *            position of the NT hash
+     * @param user
+     *            user name, upper cased by the computation
+     * @param domain
+     *            user domain, as is
+     * @param out
+     *            receives the 16 bytes of the response key
+     * @param offset
+     *            position of the key in out
+     */
+    public void computeNTOWFv2(final byte[] ntHash, final int ntOffset, final CharSequence user, final CharSequence domain,
+            final byte[] out, final int offset) {
+
+        if ((user == null) || (domain == null)) {
+            throw new IllegalArgumentException("user, domain : null value not allowed");
+        }
+        checkRange(ntHash, ntOffset, KEY_LENGTH, "ntHash");
+        checkRange(out, offset, KEY_LENGTH, "out");
+
+        final int length = 2 * (user.length() + domain.length());
+        if (identity.length < length) {
+            identity = new byte[Math.max(length, 2 * identity.length)];
+        }
+        int position = 0;
+        for (int i = 0; i < user.length(); i++) {
+            final char ch = Character.toUpperCase(user.charAt(i));
+            identity[position++] = (byte) ch;
+            identity[position++] = (byte) (ch >>> 8);
+        }
+        for (int i = 0; i < domain.length(); i++) {
+            final char ch = domain.charAt(i);
+            identity[position++] = (byte) ch;
+            identity[position++] = (byte) (ch >>> 8);
+        }
+        hmac(ntHash, ntOffset, identity, 0, length, null, 0, 0, out, offset);
+    }
+
+    /**
+     * Writes the NTLMv2_CLIENT_CHALLENGE structure (the "temp" of [MS-NLMP] 3.3.2) that follows NTProofStr in the NT response
+     * 
+     * @param time
+     *            current time as a FILETIME (100 ns since 1601-01-01)
+     * @param clientChallenge
+     *            8 random bytes
+     * @param avPairs
+     *            AV pairs, including MsvAvEOL, usually the target info of the CHALLENGE_MESSAGE
+     * @param out
+     *            receives the structure
+     * @param offset
+     *            position of the structure in out
+     * @return length of the structure : 28 + avPairs.length + 4
+     */
+    public static int writeClientChallenge(final long time, final byte[] clientChallenge, final byte[] avPairs, final byte[] out,
+            final int offset) {
+
+        if (avPairs == null) {
+            throw new IllegalArgumentException("avPairs : null value not allowed");
+        }
+        checkRange(clientChallenge, 0, CHALLENGE_LENGTH, "clientChallenge");
+        final int length = CLIENT_CHALLENGE_HEADER_LENGTH + avPairs.length + 4;
+        checkRange(out, offset, length, "out");
+
+        // RespType, HiRespType, reserved
+        out[offset] = 1;
+        out[offset + 1] = 1;
+        for (int i = 2; i < 8; i++) {
+            out[offset + i] = 0;
+        }
+        for (int i = 0; i < 8; i++) {
+            out[offset + 8 + i] = (byte) (time >>> (8 * i));
+        }
+        System.arraycopy(clientChallenge, 0, out, offset + 16, CHALLENGE_LENGTH);
+        for (int i = 24; i < 28; i++) {
+            out[offset + i] = 0;
+        }
+        System.arraycopy(avPairs, 0, out, offset + CLIENT_CHALLENGE_HEADER_LENGTH, avPairs.length);
+        for (int i = length - 4; i < length; i++) {
+            out[offset + i] = 0;
+        }
+        return length;
+    }
+
+    /**
+     * NTProofStr = HMAC_MD5(response key, server challenge + temp)
+     * 
+     * @param responseKey
+     *            array containing the NTOWFv2 key
+     * @param keyOffset
+     *            position of the key
+     * @param serverChallenge
+     *            8 bytes challenge of the server
+     * @param temp
+     *            array containing the NTLMv2_CLIENT_CHALLENGE structure
+     * @param tempOffset
+     *            position of the structure
+     * @param tempLength
+     *            length of the structure
+     * @param out
+     *            receives the 16 bytes of NTProofStr
+     * @param offset
+     *            position of NTProofStr in out
+     */
+    public void computeNTProofStr(final byte[] responseKey, final int keyOffset, final byte[] serverChallenge, final byte[] temp,
+            final int tempOffset, final int tempLength, final byte[] out, final int offset) {
+
+        checkRange(responseKey, keyOffset, KEY_LENGTH, "responseKey");
+        checkRange(serverChallenge, 0, CHALLENGE_LENGTH, "serverChallenge");
+        checkRange(temp, tempOffset, tempLength, "temp");
+        checkRange(out, offset, KEY_LENGTH, "out");
+        hmac(responseKey, keyOffset, serverChallenge, 0, CHALLENGE_LENGTH, temp, tempOffset, tempLength, out, offset);
+    }
+
+    /**
+     * SessionBaseKey = HMAC_MD5(response key, NTProofStr)
+     */
+    public void computeSessionBaseKey(final byte[] responseKey, final int keyOffset, final byte[] ntProofStr,
+            final int proofOffset, final byte[] out, final int offset) {
+
+        checkRange(responseKey, keyOffset, KEY_LENGTH, "responseKey");
+        checkRange(ntProofStr, proofOffset, KEY_LENGTH, "ntProofStr");
+        checkRange(out, offset, KEY_LENGTH, "out");
+        hmac(responseKey, keyOffset, ntProofStr, proofOffset, KEY_LENGTH, null, 0, 0, out, offset);
+    }
+
+    /**
+     * LMv2 response = HMAC_MD5(response key, server challenge + client challenge) + client challenge
+     * 
+     * @param out
+     *            receives the 24 bytes of the response
+     */
+    public void computeLMv2Response(final byte[] responseKey, final int keyOffset, final byte[] serverChallenge,
+            final byte[] clientChallenge, final byte[] out, final int offset) {
+
+        checkRange(responseKey, keyOffset, KEY_LENGTH, "responseKey");
+        checkRange(serverChallenge, 0, CHALLENGE_LENGTH, "serverChallenge");
+        checkRange(clientChallenge, 0, CHALLENGE_LENGTH, "clientChallenge");
+        checkRange(out, offset, KEY_LENGTH + CHALLENGE_LENGTH, "out");
+        hmac(responseKey, keyOffset, serverChallenge, 0, CHALLENGE_LENGTH, clientChallenge, 0, CHALLENGE_LENGTH, out, offset);
+        System.arraycopy(clientChallenge, 0, out, offset + KEY_LENGTH, CHALLENGE_LENGTH);
+    }
+
+    /**
+     * Verifies the NT challenge response sent by a client (NTProofStr followed by the NTLMv2_CLIENT_CHALLENGE structure)
+     * 
+     * @param responseKey
+     *            array containing the NTOWFv2 key of the user
+     * @param keyOffset
+     *            position of the key
+     * @param serverChallenge
+     *            8 bytes challenge sent to the client
+     * @param response
+     *            array containing the response
+     * @param responseOffset
+     *            position of the response
+     * @param responseLength
+     *            length of the response
+     * @param sessionBaseKey
+     *            if not null and the response is valid, receives the 16 bytes of the session base key at offset 0
+     * @return true if the response is valid
+     */
+    public boolean verifyNTResponse(final byte[] responseKey, final int keyOffset, final byte[] serverChallenge,
+            final byte[] response, final int responseOffset, final int responseLength, final byte[] sessionBaseKey) {
+
+        checkRange(response, responseOffset, responseLength, "response");
+        if (responseLength < KEY_LENGTH + CLIENT_CHALLENGE_HEADER_LENGTH) {
+            return false;
+        }
+        computeNTProofStr(responseKey, keyOffset, serverChallenge, response, responseOffset + KEY_LENGTH, responseLength
+                - KEY_LENGTH, key, 0);
+
+        // Constant time comparison
+        int difference = 0;
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            difference |= key[i] ^ response[responseOffset + i];
+        }
+        if (difference != 0) {
+            clear(key);
+            return false;
+        }
+        if (sessionBaseKey != null) {
+            computeSessionBaseKey(responseKey, keyOffset, key, 0, sessionBaseKey, 0);
+        }
+        clear(key);
+        return true;
+    }
+
+    /**
+     * HMAC-MD5 of one or two ranges of data, result written in out
+     */
+    private void hmac(final byte[] hmacKey, final int keyOffset, final byte[] data1, final int offset1, final int length1,
+            final byte[] data2, final int offset2, final int length2, final byte[] out, final int offset) {
+
+        try {
+            mac.init(new SecretKeySpec(hmacKey, keyOffset, KEY_LENGTH, HMAC_MD5));
+            mac.update(data1, offset1, length1);
+            if (data2 != null) {
+                mac.update(data2, offset2, length2);
+            }
+            mac.doFinal(out, offset);
+        } catch (InvalidKeyException e) {
+            throw new HashComputingException("InvalidKeyException during Hash computation", e);
+        } catch (ShortBufferException e) {
+            throw new HashComputingException("ShortBufferException during Hash computation", e);
+        }
+    }
+
+    private static void checkRange(final byte[] bytes, final int offset, final int length, final String name) {
+
+        if (bytes == null) {
+            throw new IllegalArgumentException(name + " : null value not allowed");
+        }
+        if ((offset < 0) || (length < 0) || (offset > bytes.length - length)) {
+            throw new IllegalArgumentException(name + " : " + length + " bytes expected at offset " + offset);
+        }
+    }
+
+    private static void clear(final byte[] bytes) {
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = 0;
+        }
+    }
+
+}
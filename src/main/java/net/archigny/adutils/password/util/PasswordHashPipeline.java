@@ -0,0 +1,422 @@
+package net.archigny.adutils.password.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns a newline separated UTF-8 file of candidate passwords into a binary file of their hashes, 16 bytes per line in the order of
+ * the lines (eg. to prepare password audit dictionaries).
+ * <p>
+ * The input is read through a large buffer, decoded into a reused char buffer and packed by batches of lines into one char array,
+ * without any object per line. Each batch is hashed by a {@link BulkPasswordHasher} on its threads, then written to the output
+ * channel. Memory use depends on the batch size and on the maximum line length only, not on the size of the files.
+ * <p>
+ * A trailing carriage return is removed from each line, as well as a leading byte order mark. Lines longer than
+ * <code>maxLineLength</code> chars are rejected : so that the output stays aligned with the input, each of them gives a zero hash
+ * (16 zero bytes), which cannot be mistaken for the hash of a candidate. They are counted and reported as a warning.
+ * Malformed UTF-8 sequences are replaced by U+FFFD. Not thread safe.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class PasswordHashPipeline {
+
+    /**
+     * Hash written for a rejected line : 16 zero bytes
+     */
+    private static final byte[]      REJECTED_HASH  = new byte[PasswordHashes.HASH_LENGTH];
+
+    /**
+     * Logger instance
+     */
+    private final Logger             log            = LoggerFactory.getLogger(PasswordHashPipeline.class);
+
+    private final BulkPasswordHasher hasher;
+
+    /**
+     * Number of lines hashed together
+     */
+    private int                      batchSize      = 65536;
+
+    /**
+     * Size of the read buffer in bytes
+     */
+    private int                      readBufferSize = 1 << 20;
+
+    /**
+     * Lines longer than this number of chars are rejected
+     */
+    private int                      maxLineLength  = 256;
+
+    /**
+     * @param hasher
+     *            computes the hashes of each batch
+     */
+    public PasswordHashPipeline(final BulkPasswordHasher hasher) {
+
+        if (hasher == null) {
+            throw new IllegalArgumentException("hasher : null value not allowed");
+        }
+        this.hasher = hasher;
+    }
+
+    /**
+     * Hashes every line of input into output, which is replaced
+     * 
+     * @param input
+     *            UTF-8 text file, one candidate per line
+     * @param output
+     *            binary file of hashes
+     * @return statistics of the run
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    public Statistics run(final File input, final File output) throws IOException {
+
+        if ((input == null) || (output == null)) {
+            throw new IllegalArgumentException("input, output : null value not allowed");
+        }
+
+        final long startTime = System.nanoTime();
+        final FileInputStream in = new FileInputStream(input);
+        try {
+            final FileOutputStream out = new FileOutputStream(output);
+            try {
+                final Batch batch = new Batch(out.getChannel());
+                final long bytesRead = decode(in.getChannel(), batch);
+                batch.flush();
+                out.getChannel().force(false);
+
+                final long elapsed = System.nanoTime() - startTime;
+                final Statistics statistics = new Statistics(batch.lines, batch.rejectedLines, bytesRead, elapsed);
+                if (statistics.getRejectedLines() > 0) {
+                    log.warn("{} lines of {} were longer than {} chars and have been written as zero hashes", new Object[] {
+                            statistics.getRejectedLines(), input, maxLineLength });
+                }
+                if (log.isInfoEnabled()) {
+                    log.info("{} candidates hashed from {} : {}", new Object[] { statistics.getLines(), input,
+                            String.format("%.1f MB/s", statistics.getThroughput()) });
+                }
+                return statistics;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads and decodes the whole input, feeding the batch line by line
+     * 
+     * @return number of bytes read
+     */
+    private long decode(final FileChannel channel, final Batch batch) throws IOException {
+
+        final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer bytes = ByteBuffer.allocateDirect(readBufferSize);
+        // UTF-8 never gives more chars than bytes
+        final CharBuffer chars = CharBuffer.allocate(readBufferSize);
+
+        long bytesRead = 0;
+        boolean first = true;
+        boolean eof = false;
+        while (!eof) {
+            final int read = channel.read(bytes);
+            if (read < 0) {
+                eof = true;
+            } else {
+                bytesRead += read;
+            }
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, eof);
+            if (eof && result.isUnderflow()) {
+                result = decoder.flush(chars);
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            bytes.compact();
+
+            chars.flip();
+            if (first && chars.hasRemaining()) {
+                first = false;
+                if (chars.get(0) == '\uFEFF') {
+                    chars.get();
+                }
+            }
+            batch.append(chars);
+            chars.clear();
+        }
+        batch.endLastLine();
+        return bytesRead;
+    }
+
+    /**
+     * Lines of the current batch, packed in one char array
+     */
+    private final class Batch {
+
+        private final FileChannel output;
+
+        /**
+         * Initial size of chars, restored after each flush
+         */
+        private final int         initialCapacity;
+
+        /**
+         * Size of chars when every line of the batch has the maximum length
+         */
+        private final int         maximumCapacity;
+
+        private char[]            chars;
+
+        /**
+         * Line i is chars[bounds[i]] to chars[bounds[i + 1]]
+         */
+        private final int[]       bounds     = new int[batchSize + 1];
+
+        private final byte[]      hashes     = new byte[batchSize * PasswordHashes.HASH_LENGTH];
+
+        private final ByteBuffer  hashBuffer = ByteBuffer.wrap(hashes);
+
+        /**
+         * Number of complete lines in the batch
+         */
+        private int               count;
+
+        /**
+         * Number of chars in the batch
+         */
+        private int               length;
+
+        /**
+         * Rejected lines of the batch
+         */
+        private final BitSet      rejected   = new BitSet();
+
+        /**
+         * True if the current line is longer than maxLineLength
+         */
+        private boolean           overLong;
+
+        /**
+         * Number of lines hashed so far
+         */
+        long                      lines;
+
+        /**
+         * Number of lines rejected so far
+         */
+        long                      rejectedLines;
+
+        Batch(final FileChannel output) {
+
+            this.output = output;
+            this.maximumCapacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) batchSize * maxLineLength);
+            this.initialCapacity = (int) Math.min(maximumCapacity, (long) batchSize * 16);
+            this.chars = new char[initialCapacity];
+        }
+
+        void append(final CharBuffer buffer) throws IOException {
+
+            while (buffer.hasRemaining()) {
+                final char c = buffer.get();
+                if (c == '\n') {
+                    endLine();
+                } else if (length - bounds[count] >= maxLineLength) {
+                    // A carriage return may only be the end of a line of the maximum length
+                    if (c != '\r') {
+                        overLong = true;
+                    }
+                } else {
+                    if (length == chars.length) {
+                        chars = Arrays.copyOf(chars, (int) Math.min(maximumCapacity, 2L * length));
+                    }
+                    chars[length++] = c;
+                }
+            }
+        }
+
+        /**
+         * Ends a last line not followed by a newline
+         */
+        void endLastLine() throws IOException {
+
+            if ((length > bounds[count]) || overLong) {
+                endLine();
+            }
+        }
+
+        private void endLine() throws IOException {
+
+            if (overLong) {
+                // Hashed as an empty line, then overwritten by the zero hash
+                overLong = false;
+                rejected.set(count);
+                rejectedLines++;
+                length = bounds[count];
+            } else if ((length > bounds[count]) && (chars[length - 1] == '\r')) {
+                length--;
+            }
+            bounds[++count] = length;
+            if (count == batchSize) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+
+            if (count == 0) {
+                return;
+            }
+            hasher.hash(chars, bounds, count, hashes, 0);
+            for (int i = rejected.nextSetBit(0); i >= 0; i = rejected.nextSetBit(i + 1)) {
+                System.arraycopy(REJECTED_HASH, 0, hashes, i * PasswordHashes.HASH_LENGTH, PasswordHashes.HASH_LENGTH);
+            }
+            rejected.clear();
+            hashBuffer.clear();
+            hashBuffer.limit(count * PasswordHashes.HASH_LENGTH);
+            while (hashBuffer.hasRemaining()) {
+                output.write(hashBuffer);
+            }
+            lines += count;
+            count = 0;
+            length = 0;
+            if (chars.length > initialCapacity) {
+                // Release the room taken by a batch of long lines
+                chars = new char[initialCapacity];
+            }
+        }
+    }
+
+    /**
+     * Result of a run
+     */
+    public static final class Statistics {
+
+        private final long lines;
+
+        private final long rejectedLines;
+
+        private final long bytesRead;
+
+        private final long elapsedNanos;
+
+        Statistics(final long lines, final long rejectedLines, final long bytesRead, final long elapsedNanos) {
+
+            this.lines = lines;
+            this.rejectedLines = rejectedLines;
+            this.bytesRead = bytesRead;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of candidates hashed
+         */
+        public long getLines() {
+
+            return lines;
+        }
+
+        /**
+         * @return number of candidates longer than maxLineLength, written as a zero hash
+         */
+        public long getRejectedLines() {
+
+            return rejectedLines;
+        }
+
+        /**
+         * @return size of the input in bytes
+         */
+        public long getBytesRead() {
+
+            return bytesRead;
+        }
+
+        public long getElapsedNanos() {
+
+            return elapsedNanos;
+        }
+
+        /**
+         * @return input bytes processed per second, in MB (10^6 bytes)
+         */
+        public double getThroughput() {
+
+            return (elapsedNanos == 0) ? 0 : bytesRead * 1000.0 / elapsedNanos;
+        }
+    }
+
+    // Setters & Getters
+
+    public BulkPasswordHasher getHasher() {
+
+        return hasher;
+    }
+
+    public int getBatchSize() {
+
+        return batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize : must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getReadBufferSize() {
+
+        return readBufferSize;
+    }
+
+    public void setReadBufferSize(final int readBufferSize) {
+
+        if (readBufferSize < 16) {
+            throw new IllegalArgumentException("readBufferSize : must be at least 16 bytes");
+        }
+        this.readBufferSize = readBufferSize;
+    }
+
+    /**
+     * @return maximum length of a candidate in chars, trailing carriage return excluded
+     */
+    public int getMaxLineLength() {
+
+        return maxLineLength;
+    }
+
+    /**
+     * Sets the maximum length of a candidate. Longer lines are written as a zero hash (16 zero bytes) and counted in
+     * {@link Statistics#getRejectedLines()}. Memory use grows with batchSize * maxLineLength in the worst case.
+     * 
+     * @param maxLineLength
+     *            maximum length in chars, 256 by default
+     */
+    public void setMaxLineLength(final int maxLineLength) {
+
+        if (maxLineLength <= 0) {
+            throw new IllegalArgumentException("maxLineLength : must be positive");
+        }
+        this.maxLineLength = maxLineLength;
+    }
+
+}
@@ -1,21 +1,6 @@
 package net.archigny.adutils.password.util;
 
-import java.io.UnsupportedEncodingException;
-import java.security.InvalidKeyException;
-import java.security.Key;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
-
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.ShortBufferException;
-import javax.crypto.spec.DESKeySpec;
+import java.nio.ByteBuffer;
 
 /**
  * Classe inspirée de http://www.codeforge.com/read/69875/NTLM.java__html
@@ -29,72 +14,47 @@ public final class PasswordHashes {
      * The magic number used to compute the Lan Manager hashed password :
      * KGS!@#$%
      */
-    public static final byte[] MAGIC = new byte[] { 0x4B, 0x47, 0x53, 0x21, 0x40, 0x23, 0x24, 0x25 };
+    public static final byte[]                MAGIC       = new byte[] { 0x4B, 0x47, 0x53, 0x21, 0x40, 0x23, 0x24, 0x25 };
 
     /**
-     * <p>
-     * Converts an unsigned byte to an unsigned integer.
-     * </p>
-     * <p>
-     * Notice that Java bytes are always signed, but the cryptographic
-     * algorithms rely on unsigned ones, that can be simulated in this way.<br>
-     * A bit mask is employed to prevent that the signum bit is extended to
-     * MSBs.
-     * </p>
+     * Length in bytes of LM and NT hashes
      */
-    private static int unsignedByteToInt(byte b) {
+    public static final int                   HASH_LENGTH = 16;
 
-        return (int) b & 0xFF;
-    }
+    /**
+     * NT hash engine and buffer of the current thread, reused by every NT hash computation
+     */
+    private static final ThreadLocal<NTState> NT_STATE    = new ThreadLocal<NTState>() {
+
+        @Override
+        protected NTState initialValue() {
+
+            return new NTState();
+        }
+    };
 
     /**
-     * <p>
-     * Computes an odd DES key from 56 bits represented as a 7-bytes array.
-     * </p>
-     * <p>
-     * Keeps elements from index <code>offset</code> to index
-     * <code>offset + 7</code> of supplied array.
-     * </p>
-     * 
-     * @param keyData
-     *            a byte array containing the 56 bits used to compute the DES
-     *            key
-     * @param offset
-     *            the offset of the first element of the 56-bits key data
-     * 
-     * @return the odd DES key generated
-     * 
-     * @exception InvalidKeyException
-     * @exception NoSuchAlgorithmException
-     * @exception InvalidKeySpecException
+     * Per thread state of NT hash computations
      */
-    private static Key computeDESKey(byte[] keyData, int offset) throws InvalidKeyException, NoSuchAlgorithmException,
-            InvalidKeySpecException {
-
-        byte[] desKeyData = new byte[8];
-        int[] k = new int[7];
-
-        for (int i = 0; i < 7; i++)
-            k[i] = unsignedByteToInt(keyData[offset + i]);
-
-        desKeyData[0] = (byte) (k[0] >>> 1);
-        desKeyData[1] = (byte) (((k[0] & 0x01) << 6) | (k[1] >>> 2));
-        desKeyData[2] = (byte) (((k[1] & 0x03) << 5) | (k[2] >>> 3));
-        desKeyData[3] = (byte) (((k[2] & 0x07) << 4) | (k[3] >>> 4));
-        desKeyData[4] = (byte) (((k[3] & 0x0F) << 3) | (k[4] >>> 5));
-        desKeyData[5] = (byte) (((k[4] & 0x1F) << 2) | (k[5] >>> 6));
-        desKeyData[6] = (byte) (((k[5] & 0x3F) << 1) | (k[6] >>> 7));
-        desKeyData[7] = (byte) (k[6] & 0x7F);
-
-        for (int i = 0; i < 8; i++)
-            desKeyData[i] = (byte) (unsignedByteToInt(desKeyData[i]) << 1);
-
-        KeySpec desKeySpec = new DESKeySpec(desKeyData);
-        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("DES");
-        SecretKey secretKey = keyFactory.generateSecret(desKeySpec);
-        return secretKey;
+    private static final class NTState {
+
+        final NTHash engine = new NTHash();
+
+        final byte[] digest = new byte[HASH_LENGTH];
     }
 
+    /**
+     * LM hash engine of the current thread, without memo so that no password is kept in memory
+     */
+    private static final ThreadLocal<LMHash>  LM_ENGINE   = new ThreadLocal<LMHash>() {
+
+        @Override
+        protected LMHash initialValue() {
+
+            return new LMHash();
+        }
+    };
+
     /**
      * Converts a byte[] to a lower cased hexadecimal String
      * 
@@ -104,11 +64,7 @@ public final class PasswordHashes {
      */
     public static String getLowerCaseHexString(byte[] bytes) {
 
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
+        return HexCodec.encode(bytes, false);
     }
 
     /**
@@ -120,11 +76,7 @@ public final class PasswordHashes {
      */
     public static String getUpperCaseHexString(byte[] bytes) {
 
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02X", b));
-        }
-        return sb.toString();
+        return HexCodec.encode(bytes, true);
     }
 
     /**
@@ -143,52 +95,33 @@ public final class PasswordHashes {
 
         if (password == null)
             throw new IllegalArgumentException("password : null value not allowed");
-        
-        try {
-            // Gets the first 14-bytes of the ASCII upper cased password
-            int len = password.length();
-            if (len > 14)
-                len = 14;
-            Cipher c = Cipher.getInstance("DES/ECB/NoPadding");
-
-            byte[] lm_pw = new byte[14];
-            byte[] bytes = password.toUpperCase().getBytes();
-            int i;
-            for (i = 0; i < len; i++)
-                lm_pw[i] = bytes[i];
-            for (; i < 14; i++)
-                lm_pw[i] = 0;
-
-            byte[] lm_hpw = new byte[16];
-            // Builds a first DES key with its first 7 bytes
-            Key k = computeDESKey(lm_pw, 0);
-            c.init(Cipher.ENCRYPT_MODE, k);
-            // Hashes the MAGIC number with this key into the first 8 bytes of
-            // the result
-            c.doFinal(MAGIC, 0, 8, lm_hpw, 0);
-
-            // Repeats the work with the last 7 bytes to gets the last 8 bytes
-            // of the result
-            k = computeDESKey(lm_pw, 7);
-            c.init(Cipher.ENCRYPT_MODE, k);
-            c.doFinal(MAGIC, 0, 8, lm_hpw, 8);
-
-            return lm_hpw;
-        } catch (InvalidKeySpecException e) {
-            throw new HashComputingException("InvalidKeySpecException during Hash computation", e);
-        } catch (InvalidKeyException e) {
-            throw new HashComputingException("InvalidKeyException during Hash computation", e);
-        } catch (BadPaddingException e) {
-            throw new HashComputingException("BadPaddingException during Hash computation", e);
-        } catch (IllegalBlockSizeException e) {
-            throw new HashComputingException("IllegalBlockSizeException during Hash computation", e);
-        } catch (ShortBufferException e) {
-            throw new HashComputingException("ShortBufferException during Hash computation", e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new HashComputingException("NoSuchAlgorithmException during Hash computation", e);
-        } catch (NoSuchPaddingException e) {
-            throw new HashComputingException("NoSuchPaddingException during Hash computation", e);
-        }
+
+        byte[] lm_hpw = new byte[HASH_LENGTH];
+        computeLMPassword((CharSequence) password, lm_hpw, 0);
+        return lm_hpw;
+    }
+
+    /**
+     * Computes the Lan Manager hashed version of a password into a caller supplied buffer, with the LM engine of the calling
+     * thread.
+     * 
+     * @param password
+     *            the user password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     * 
+     * @exception HashComputingException
+     *                if a problem is detected during computation
+     */
+    public static void computeLMPassword(CharSequence password, byte[] out, int offset) throws IllegalArgumentException,
+            HashComputingException {
+
+        if ((password == null) || (out == null))
+            throw new IllegalArgumentException("password, out : null value not allowed");
+
+        LM_ENGINE.get().hash(password, out, offset);
     }
 
     /**
@@ -234,20 +167,115 @@ public final class PasswordHashes {
 
         if (password == null)
             throw new IllegalArgumentException("password : null value not allowed");
-        // Gets the first 14-bytes of the UNICODE password
-        int len = password.length();
-        if (len > 14)
-            len = 14;
-        byte[] nt_pw = new byte[2 * len];
-        for (int i = 0; i < len; i++) {
-            char ch = password.charAt(i);
-            nt_pw[2 * i] = (byte) ch;
-            nt_pw[2 * i + 1] = (byte) ((ch >>> 8) & 0xFF);
-        }
 
-        // Return its MD4 digest as the hashed version
-        MessageDigest md = new MD4();
-        return md.digest(nt_pw);
+        byte[] result = new byte[HASH_LENGTH];
+        computeNTPassword((CharSequence) password, result, 0);
+        return result;
+    }
+
+    /**
+     * Computes the NT hashed version of a password into a caller supplied buffer. Nothing is allocated once the calling thread has
+     * computed its first hash, and no copy of the password is left in memory : the caller may wipe the array afterwards.
+     * 
+     * @param password
+     *            the user password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public static void computeNTPassword(char[] password, byte[] out, int offset) throws IllegalArgumentException,
+            HashComputingException {
+
+        if ((password == null) || (out == null))
+            throw new IllegalArgumentException("password, out : null value not allowed");
+
+        NT_STATE.get().engine.hash(password, out, offset);
+    }
+
+    /**
+     * Computes the NT hashed version of a range of characters into a caller supplied buffer
+     * 
+     * @param password
+     *            array containing the user password
+     * @param start
+     *            position of the first character of the password
+     * @param length
+     *            number of characters of the password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public static void computeNTPassword(char[] password, int start, int length, byte[] out, int offset)
+            throws IllegalArgumentException, HashComputingException {
+
+        if ((password == null) || (out == null))
+            throw new IllegalArgumentException("password, out : null value not allowed");
+
+        NT_STATE.get().engine.hash(password, start, length, out, offset);
+    }
+
+    /**
+     * Computes the NT hashed version of a password into a caller supplied buffer, without allocating once the calling thread has
+     * computed its first hash.
+     * 
+     * @param password
+     *            the user password, eg. a StringBuilder that can be wiped afterwards
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @param offset
+     *            position of the hash in out
+     */
+    public static void computeNTPassword(CharSequence password, byte[] out, int offset) throws IllegalArgumentException,
+            HashComputingException {
+
+        if ((password == null) || (out == null))
+            throw new IllegalArgumentException("password, out : null value not allowed");
+
+        NT_STATE.get().engine.hash(password, out, offset);
+    }
+
+    /**
+     * Computes the NT hashed version of a password at the position of a buffer, which is then advanced by 16 bytes.
+     * 
+     * @param password
+     *            the user password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @exception java.nio.BufferOverflowException
+     *                if less than 16 bytes remain in out
+     */
+    public static void computeNTPassword(char[] password, ByteBuffer out) throws IllegalArgumentException,
+            HashComputingException {
+
+        if (out == null)
+            throw new IllegalArgumentException("out : null value not allowed");
+
+        final byte[] digest = NT_STATE.get().digest;
+        computeNTPassword(password, digest, 0);
+        out.put(digest, 0, HASH_LENGTH);
+    }
+
+    /**
+     * Computes the NT hashed version of a password at the position of a buffer, which is then advanced by 16 bytes.
+     * 
+     * @param password
+     *            the user password
+     * @param out
+     *            receives the 16 bytes of the hash
+     * @exception java.nio.BufferOverflowException
+     *                if less than 16 bytes remain in out
+     */
+    public static void computeNTPassword(CharSequence password, ByteBuffer out) throws IllegalArgumentException,
+            HashComputingException {
+
+        if (out == null)
+            throw new IllegalArgumentException("out : null value not allowed");
+
+        final byte[] digest = NT_STATE.get().digest;
+        computeNTPassword(password, digest, 0);
+        out.put(digest, 0, HASH_LENGTH);
     }
 
     /**
@@ -0,0 +1,70 @@
+package net.archigny.adutils.password.util;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+import net.archigny.adutils.password.PasswordSettings;
+
+/**
+ * Thread safe pool of canonical PasswordSettings : equal settings read by several providers (eg. one per domain of a forest) or by
+ * successive refreshes are replaced by one shared instance, so consumers may compare policies by identity and per policy caches
+ * keep one entry per distinct policy.
+ * <p>
+ * Canonical instances are weakly referenced : a policy no longer used by any provider is dropped from the pool.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class PasswordSettingsInterner {
+
+    /**
+     * Pool shared by default between all the providers of the JVM
+     */
+    private static final PasswordSettingsInterner                                SHARED     = new PasswordSettingsInterner();
+
+    /**
+     * Canonical instances, keyed by themselves. Values are weak too as a strong value would keep its own key alive.
+     */
+    private final WeakHashMap<PasswordSettings, WeakReference<PasswordSettings>> canonicals = new WeakHashMap<PasswordSettings, WeakReference<PasswordSettings>>();
+
+    /**
+     * @return pool shared by default between all the providers
+     */
+    public static PasswordSettingsInterner getShared() {
+
+        return SHARED;
+    }
+
+    /**
+     * @param ps
+     *            settings to intern
+     * @return the canonical instance equal to ps, ps itself if there was none
+     */
+    public PasswordSettings intern(final PasswordSettings ps) {
+
+        if (ps == null) {
+            throw new IllegalArgumentException("ps : null value not allowed");
+        }
+        synchronized (canonicals) {
+            final WeakReference<PasswordSettings> ref = canonicals.get(ps);
+            if (ref != null) {
+                final PasswordSettings canonical = ref.get();
+                if (canonical != null) {
+                    return canonical;
+                }
+            }
+            canonicals.put(ps, new WeakReference<PasswordSettings>(ps));
+            return ps;
+        }
+    }
+
+    /**
+     * @return number of canonical instances, including ones not yet reclaimed
+     */
+    public int size() {
+
+        synchronized (canonicals) {
+            return canonicals.size();
+        }
+    }
+
+}
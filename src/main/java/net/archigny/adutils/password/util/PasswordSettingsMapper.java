@@ -1,8 +1,13 @@
 package net.archigny.adutils.password.util;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchResult;
 
 import net.archigny.adutils.password.PasswordSettings;
 
@@ -10,216 +15,364 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ldap.core.ContextMapper;
 import org.springframework.ldap.core.DirContextAdapter;
-
-public class PasswordSettingsMapper implements ContextMapper {
-
-    private Logger                        log                             = LoggerFactory.getLogger(PasswordSettingsMapper.class);
+import org.springframework.ldap.core.DistinguishedName;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+import org.springframework.ldap.support.LdapUtils;
+
+/**
+ * Maps Default Domain Policy or Password Settings Objects entries to PasswordSettings, collected in a map. Each object class has
+ * a {@link DecoderPlan} compiled once, binding its attributes to the fields of the settings.
+ * <p>
+ * Used as a ContextMapper, or as a NameClassPairCallbackHandler for searches made without returning objects : attributes are then
+ * read straight from the JNDI search results, without building a DirContextAdapter per entry.
+ * 
+ * @author Philippe MARASSE
+ */
+public class PasswordSettingsMapper implements ContextMapper, NameClassPairCallbackHandler {
+
+    private Logger                                            log                             = LoggerFactory.getLogger(PasswordSettingsMapper.class);
 
     /**
      * Windows password Complexity flag (pwdProperties attribute)
      */
-    public static int                     DOMAIN_PASSWORD_COMPLEX         = 1;
+    public static int                                         DOMAIN_PASSWORD_COMPLEX         = 1;
 
     /**
      * The password cannot be changed without logging on. Otherwise, if your password has expired, you can change your password and
      * then log on. (pwdProperties attribute)
      */
-    public static int                     DOMAIN_PASSWORD_NO_ANON_CHANGE  = 2;
+    public static int                                         DOMAIN_PASSWORD_NO_ANON_CHANGE  = 2;
 
     /**
      * Allows the built-in administrator account to be locked out from network logons. (pwdProperties attribute)
      */
-    public static int                     DOMAIN_LOCKOUT_ADMINS           = 8;
+    public static int                                         DOMAIN_LOCKOUT_ADMINS           = 8;
 
     /**
      * Forces the client to use a protocol that does not allow the domain controller to get the plaintext password. (pwdProperties
      * attribute)
      */
-    public static int                     DOMAIN_PASSWORD_STORE_CLEARTEXT = 16;
+    public static int                                         DOMAIN_PASSWORD_STORE_CLEARTEXT = 16;
 
     /**
      * Removes the requirement that the machine account password be automatically changed every week. This value should not be used
      * as it can weaken security. (pwdProperties attribute)
      */
-    public static int                     DOMAIN_REFUSE_PASSWORD_CHANGE   = 32;
+    public static int                                         DOMAIN_REFUSE_PASSWORD_CHANGE   = 32;
 
     /**
      * Default Domain Policy Attribute : Maximum Password Age in I8 format
      */
-    public static final String            AD_MAXPWDAGE                    = "maxPwdAge";
+    public static final String                                AD_MAXPWDAGE                    = "maxPwdAge";
 
     /**
      * Default Domain Policy Attribute : Minimum Password Age in I8 format
      */
-    public static final String            AD_MINPWDAGE                    = "minPwdAge";
+    public static final String                                AD_MINPWDAGE                    = "minPwdAge";
 
     /**
      * Default Domain Policy Attribute : Minimum password length
      */
-    public static final String            AD_MINPWDLENGTH                 = "minPwdLength";
+    public static final String                                AD_MINPWDLENGTH                 = "minPwdLength";
 
     /**
      * Default Domain Policy Attribute : Account Lockup duration in I8 format
      */
-    public static final String            AD_LOCKOUT_DURATION             = "lockoutDuration";
+    public static final String                                AD_LOCKOUT_DURATION             = "lockoutDuration";
 
     /**
      * Default Domain Policy Attribute : Lockout Observation Window in I8 format
      */
-    public static final String            AD_LOCKOUT_WINDOW               = "lockoutObservationWindow";
+    public static final String                                AD_LOCKOUT_WINDOW               = "lockoutObservationWindow";
 
     /**
      * Default Domain Policy Attribute : Account Lockout threshold
      */
-    public static final String            AD_LOCKOUT_THRESHOLD            = "lockoutThreshold";
+    public static final String                                AD_LOCKOUT_THRESHOLD            = "lockoutThreshold";
 
     /**
      * Default Domain Policy Attribute : Password history length
      */
-    public static final String            AD_PWD_HISTORY_LENGTH           = "pwdHistoryLength";
+    public static final String                                AD_PWD_HISTORY_LENGTH           = "pwdHistoryLength";
 
     /**
      * Default Domain Policy Attribute : Bitmap of password properties
      */
-    public static final String            AD_PWD_PROPERTIES               = "pwdProperties";
+    public static final String                                AD_PWD_PROPERTIES               = "pwdProperties";
 
     /**
      * AD attributes read from Default Domain Policy
      */
-    public static final String[]          DEFAULT_DOMAIN_POLICY_ATTRS     = { AD_MAXPWDAGE, AD_MINPWDAGE, AD_MINPWDLENGTH,
+    public static final String[]                              DEFAULT_DOMAIN_POLICY_ATTRS     = { AD_MAXPWDAGE, AD_MINPWDAGE, AD_MINPWDLENGTH,
             AD_LOCKOUT_DURATION, AD_LOCKOUT_WINDOW, AD_LOCKOUT_THRESHOLD, AD_PWD_HISTORY_LENGTH, AD_PWD_PROPERTIES };
 
     /**
      * Password Settings Object Attribute : Maximum Password Age in I8 format
      */
-    public static final String            AD_PSO_MAXPWDAGE                = "msDS-MaximumPasswordAge";
+    public static final String                                AD_PSO_MAXPWDAGE                = "msDS-MaximumPasswordAge";
 
     /**
      * Password Settings Object Attribute : Minimum Password Age in I8 format
      */
-    public static final String            AD_PSO_MINPWDAGE                = "msDS-MinimumPasswordAge";
+    public static final String                                AD_PSO_MINPWDAGE                = "msDS-MinimumPasswordAge";
 
     /**
      * Password Settings Object Attribute : Minimum password length
      */
-    public static final String            AD_PSO_MINPWDLENGTH             = "msDS-MinimumPasswordLength";
+    public static final String                                AD_PSO_MINPWDLENGTH             = "msDS-MinimumPasswordLength";
 
     /**
      * Password Settings Object Attribute : Password history length
      */
-    public static final String            AD_PSO_PWD_HISTORY_LENGTH       = "msDS-PasswordHistoryLength";
+    public static final String                                AD_PSO_PWD_HISTORY_LENGTH       = "msDS-PasswordHistoryLength";
 
     /**
      * Password Settings Object Attribute : Password complexity
      */
-    public static final String            AD_PSO_COMPLEXITY               = "msDS-PasswordComplexityEnabled";
+    public static final String                                AD_PSO_COMPLEXITY               = "msDS-PasswordComplexityEnabled";
 
     /**
      * Password Settings Object Attribute : reversible encryption
      */
-    public static final String            AD_PSO_REVERSIBLE_ENC           = "msDS-PasswordReversibleEncryptionEnabled";
+    public static final String                                AD_PSO_REVERSIBLE_ENC           = "msDS-PasswordReversibleEncryptionEnabled";
 
     /**
      * Password Settings Object Attribute : Lockout Observation Window in I8 format
      */
-    public static final String            AD_PSO_LOCKOUT_WINDOW           = "msDS-LockoutObservationWindow";
+    public static final String                                AD_PSO_LOCKOUT_WINDOW           = "msDS-LockoutObservationWindow";
 
     /**
      * Password Settings Object Attribute : Account Lockup duration in I8 format
      */
-    public static final String            AD_PSO_LOCKOUT_DURATION         = "msDS-LockoutDuration";
+    public static final String                                AD_PSO_LOCKOUT_DURATION         = "msDS-LockoutDuration";
 
     /**
      * Password Settings Object Attribute : Account Lockout threshold
      */
-    public static final String            AD_PSO_LOCKOUT_THRESHOLD        = "msDS-LockoutThreshold";
+    public static final String                                AD_PSO_LOCKOUT_THRESHOLD        = "msDS-LockoutThreshold";
 
     /**
      * AD attributes read from Password Settings Objects
      */
-    public static final String[]          PSO_ATTRS                       = { AD_PSO_MAXPWDAGE, AD_PSO_MINPWDAGE,
+    public static final String[]                              PSO_ATTRS                       = { AD_PSO_MAXPWDAGE, AD_PSO_MINPWDAGE,
             AD_PSO_MINPWDLENGTH, AD_PSO_PWD_HISTORY_LENGTH, AD_PSO_COMPLEXITY, AD_PSO_REVERSIBLE_ENC, AD_PSO_LOCKOUT_WINDOW,
             AD_PSO_LOCKOUT_DURATION, AD_PSO_LOCKOUT_THRESHOLD            };
 
+    /**
+     * Update Sequence Number of the last change of an object, local to the DC
+     */
+    public static final String                                AD_USN_CHANGED                  = "uSNChanged";
+
     /**
      * String representation of boolean false returned by AD
      */
-    public static final String            LDAP_TRUE_VALUE                 = "TRUE";
+    public static final String                                LDAP_TRUE_VALUE                 = FieldDecoders.LDAP_TRUE_VALUE;
+
+    /**
+     * Decoding of Default Domain Policy entries (domainDNS object class), binding DEFAULT_DOMAIN_POLICY_ATTRS. Can be extended
+     * through {@link DecoderPlan.Builder#bindAll(DecoderPlan)}.
+     */
+    public static final DecoderPlan<PasswordSettings.Builder> DEFAULT_DOMAIN_POLICY_PLAN      = DecoderPlan.<PasswordSettings.Builder> builder()
+            .bind(AD_MAXPWDAGE, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.maximumPasswordAge(value);
+                }
+            }).bind(AD_MINPWDAGE, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.minimumPasswordAge(value);
+                }
+            }).bind(AD_MINPWDLENGTH, new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final int value) {
+
+                    target.minimumPasswordLength(value);
+                }
+            }).bind(AD_LOCKOUT_DURATION, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.lockoutDuration(value);
+                }
+            }).bind(AD_LOCKOUT_WINDOW, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.lockoutObservationWindow(value);
+                }
+            }).bind(AD_LOCKOUT_THRESHOLD, new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final int value) {
+
+                    target.lockoutThreshold(value);
+                }
+            }).bind(AD_PWD_HISTORY_LENGTH, new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final int value) {
+
+                    target.historyLength(value);
+                }
+            }).bind(AD_PWD_PROPERTIES, new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final int value) {
+
+                    target.passwordComplexity((value & DOMAIN_PASSWORD_COMPLEX) != 0);
+                }
+            }).build();
+
+    /**
+     * Decoding of Password Settings Objects (msDS-PasswordSettings object class), binding PSO_ATTRS. Can be extended through
+     * {@link DecoderPlan.Builder#bindAll(DecoderPlan)}.
+     */
+    public static final DecoderPlan<PasswordSettings.Builder> PSO_PLAN = DecoderPlan.<PasswordSettings.Builder> builder()
+            .bind(AD_PSO_MAXPWDAGE, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.maximumPasswordAge(value);
+                }
+            }).bind(AD_PSO_MINPWDAGE, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.minimumPasswordAge(value);
+                }
+            }).bind(AD_PSO_MINPWDLENGTH, new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final int value) {
+
+                    target.minimumPasswordLength(value);
+                }
+            }).bind(AD_PSO_PWD_HISTORY_LENGTH, new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final int value) {
+
+                    target.historyLength(value);
+                }
+            }).bind(AD_PSO_COMPLEXITY, new FieldDecoders.BooleanField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final boolean value) {
+
+                    target.passwordComplexity(value);
+                }
+            }).bind(AD_PSO_REVERSIBLE_ENC, new FieldDecoders.BooleanField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final boolean value) {
+
+                    target.reversibleEncryption(value);
+                }
+            }).bind(AD_PSO_LOCKOUT_WINDOW, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.lockoutObservationWindow(value);
+                }
+            }).bind(AD_PSO_LOCKOUT_DURATION, new FieldDecoders.LongField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final long value) {
+
+                    target.lockoutDuration(value);
+                }
+            }).bind(AD_PSO_LOCKOUT_THRESHOLD, new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                @Override
+                protected void set(final PasswordSettings.Builder target, final int value) {
+
+                    target.lockoutThreshold(value);
+                }
+            }).build();
 
     /**
      * Map of the PSOs, key is PSO's suffix in lower case (cn=xxx)
      */
-    private Map<String, PasswordSettings> policies;
+    private Map<String, PasswordSettings>               policies;
 
     /**
-     * Attribute set used used by ldap query (only PSO_ATTRS and DEFAULT_DOMAIN_POLICY_ATTRS are valid)
+     * Decoding of the entries
      */
-    private String[]                      attributeSet;
+    private final DecoderPlan<PasswordSettings.Builder> plan;
+
+    /**
+     * Pool of canonical settings, null if settings are not interned
+     */
+    private final PasswordSettingsInterner              interner;
 
     /**
      * @param policies
+     *            Map receiving the settings, key is first RDN in lower case
+     * @param attributeSet
+     *            Attribute set used by ldap query, DEFAULT_DOMAIN_POLICY_ATTRS or PSO_ATTRS
      */
     public PasswordSettingsMapper(final Map<String, PasswordSettings> policies, final String[] attributeSet) {
 
-        if (PSO_ATTRS == attributeSet || DEFAULT_DOMAIN_POLICY_ATTRS == attributeSet) {
-            this.attributeSet = attributeSet;
-        } else {
-            throw new IllegalArgumentException("attributeSet must be one of DEFAULT_DOMAIN_POLICY_ATTRS or PSO_ATTRS");
-        }
-        this.policies = policies;
+        this(policies, attributeSet, null);
     }
 
     /**
-     * Convert a string attribute to Long
-     * 
-     * @param context
-     * @param attribute
-     * @return parsed string attribute
+     * @param policies
+     *            Map receiving the settings, key is first RDN in lower case
+     * @param attributeSet
+     *            Attribute set used by ldap query, DEFAULT_DOMAIN_POLICY_ATTRS or PSO_ATTRS
+     * @param interner
+     *            Pool the settings are interned into before being put in policies, null to keep the instances read
      */
-    private long attributeToLong(final DirContextAdapter context, final String attribute) {
+    public PasswordSettingsMapper(final Map<String, PasswordSettings> policies, final String[] attributeSet,
+            final PasswordSettingsInterner interner) {
 
-        Object[] values = context.getObjectAttributes(attribute);
-        Object value;
-        if ((values != null) && ((value = values[0]) != null)) {
-            return Long.parseLong((String) value);
-        }
-        // Return a value or raise an exception ?
-        return 0;
+        this(policies, standardPlan(attributeSet), interner);
     }
 
     /**
-     * Convert a string attribute to Integer
-     * 
-     * @param context
-     * @param attribute
-     * @return parsed string attribute
+     * @param policies
+     *            Map receiving the settings, key is first RDN in lower case
+     * @param plan
+     *            Decoding of the entries, eg. PSO_PLAN or a plan extending it. Searches have to request
+     *            {@link DecoderPlan#getAttributeNames()}.
+     * @param interner
+     *            Pool the settings are interned into before being put in policies, null to keep the instances read
      */
-    private int attributeToInt(final DirContextAdapter context, final String attribute) {
+    public PasswordSettingsMapper(final Map<String, PasswordSettings> policies, final DecoderPlan<PasswordSettings.Builder> plan,
+            final PasswordSettingsInterner interner) {
 
-        Object[] values = context.getObjectAttributes(attribute);
-        Object value;
-        if ((values != null) && ((value = values[0]) != null)) {
-            return Integer.parseInt((String) value);
+        if ((policies == null) || (plan == null)) {
+            throw new IllegalArgumentException("policies, plan : null value not allowed");
         }
-        // Return a value or raise an exception ?
-        return 0;
+        this.policies = policies;
+        this.plan = plan;
+        this.interner = interner;
     }
 
     /**
-     * Convert a string attribute to Boolean
-     * 
-     * @param context
-     * @param attribute
-     * @return parsed string attribute
+     * @return plan of a standard attribute set
      */
-    private boolean attributeToBoolean(final DirContextAdapter context, final String attribute) {
+    private static DecoderPlan<PasswordSettings.Builder> standardPlan(final String[] attributeSet) {
 
-        Object[] values = context.getObjectAttributes(attribute);
-        Object value;
-        if ((values != null) && ((value = values[0]) != null)) {
-            return LDAP_TRUE_VALUE.equalsIgnoreCase((String) value);
+        if (Arrays.equals(PSO_ATTRS, attributeSet)) {
+            return PSO_PLAN;
+        } else if (Arrays.equals(DEFAULT_DOMAIN_POLICY_ATTRS, attributeSet)) {
+            return DEFAULT_DOMAIN_POLICY_PLAN;
         }
-        return false;
+        throw new IllegalArgumentException(
+                "attributeSet must be one of DEFAULT_DOMAIN_POLICY_ATTRS or PSO_ATTRS, other attributes need a DecoderPlan");
     }
 
     @Override
@@ -228,53 +381,46 @@ public class PasswordSettingsMapper implements ContextMapper {
         final DirContextAdapter context = (DirContextAdapter) ctx;
 
         final Name dn = context.getDn();
-        final String name = dn.get(dn.size() - 1);
+        mapFromAttributes(dn.get(dn.size() - 1), context.getAttributes());
+        return null;
+    }
 
-        log.debug("Context returned : Name = [{}] Attributes : {}", name, context.getAttributes().toString());
+    /**
+     * Maps one entry of a search made without returning objects, its DN being relative to the search base
+     */
+    @Override
+    public void handleNameClassPair(final NameClassPair nameClassPair) {
 
-        long maxPwdAge;
-        long minPwdAge;
-        int minPwdLength;
-        long lockoutDuration;
-        long lockoutWindow;
-        int lockoutThresold;
-        int pwdHistoryLength;
-        int pwdProperties;
-        boolean complexity = false;
-        boolean reversible = false;
+        final DistinguishedName dn = new DistinguishedName(nameClassPair.getName());
+        mapFromAttributes(dn.get(dn.size() - 1), ((SearchResult) nameClassPair).getAttributes());
+    }
 
-        try {
+    /**
+     * Maps the attributes of one entry, read directly from JNDI. Absent attributes are read as 0 or false.
+     * 
+     * @param name
+     *            First RDN of the entry (cn=xxx), key of the settings once in lower case
+     * @param attributes
+     *            attributes of the entry
+     */
+    public void mapFromAttributes(final String name, final Attributes attributes) {
 
-            if (attributeSet == DEFAULT_DOMAIN_POLICY_ATTRS) {
-                maxPwdAge = attributeToLong(context, AD_MAXPWDAGE);
-                minPwdAge = attributeToLong(context, AD_MINPWDAGE);
-                minPwdLength = attributeToInt(context, AD_MINPWDLENGTH);
-                lockoutDuration = attributeToLong(context, AD_LOCKOUT_DURATION);
-                lockoutWindow = attributeToLong(context, AD_LOCKOUT_WINDOW);
-                lockoutThresold = attributeToInt(context, AD_LOCKOUT_THRESHOLD);
-                pwdHistoryLength = attributeToInt(context, AD_PWD_HISTORY_LENGTH);
-                pwdProperties = attributeToInt(context, AD_PWD_PROPERTIES);
-
-                complexity = (pwdProperties & DOMAIN_PASSWORD_COMPLEX) != 0;
-            } else {
-                maxPwdAge = attributeToLong(context, AD_PSO_MAXPWDAGE);
-                minPwdAge = attributeToLong(context, AD_PSO_MINPWDAGE);
-                minPwdLength = attributeToInt(context, AD_PSO_MINPWDLENGTH);
-                lockoutDuration = attributeToLong(context, AD_PSO_LOCKOUT_DURATION);
-                lockoutWindow = attributeToLong(context, AD_PSO_LOCKOUT_WINDOW);
-                lockoutThresold = attributeToInt(context, AD_PSO_LOCKOUT_THRESHOLD);
-                pwdHistoryLength = attributeToInt(context, AD_PSO_PWD_HISTORY_LENGTH);
-                complexity = attributeToBoolean(context, AD_PSO_COMPLEXITY);
-                reversible = attributeToBoolean(context, AD_PSO_REVERSIBLE_ENC);
-            }
-
-            policies.put(name.toLowerCase(), new PasswordSettings(reversible, pwdHistoryLength, complexity, minPwdLength,
-                    minPwdAge, maxPwdAge, lockoutThresold, lockoutDuration, lockoutWindow));
+        if (log.isDebugEnabled()) {
+            log.debug("Context returned : Name = [{}] Attributes : {}", name, attributes);
+        }
 
+        final PasswordSettings.Builder builder = PasswordSettings.builder();
+        try {
+            plan.decode(attributes, builder);
         } catch (NumberFormatException e) {
-            // Conversion issue, returning null...
+            // Conversion issue, entry is ignored...
+            return;
+        } catch (NamingException e) {
+            throw LdapUtils.convertLdapException(e);
         }
-        return null;
+
+        final PasswordSettings ps = builder.build();
+        policies.put(name.toLowerCase(), (interner == null) ? ps : interner.intern(ps));
     }
 
 }
@@ -0,0 +1,183 @@
+package net.archigny.adutils.password.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.archigny.adutils.password.PasswordSettings;
+
+/**
+ * Local copy of the last password settings read from the directory, used to start without waiting for the directory.
+ * <p>
+ * Binary format (DataOutputStream) : magic, format version, timestamp of the snapshot, number of entries, then for each entry its
+ * key and the fields of the PasswordSettings. The file is written to a temporary file which is then renamed, so readers never see a
+ * partially written file. The temporary file is synced to disk before being renamed, so a crash leaves either the previous file or
+ * the new one.
+ * 
+ * @author Philippe MARASSE
+ */
+public final class PasswordSettingsSnapshotFile {
+
+    /**
+     * File signature ("ADPS")
+     */
+    public static final int                     MAGIC        = 0x41445053;
+
+    /**
+     * Current format version
+     */
+    public static final int                     VERSION      = 1;
+
+    /**
+     * Highest number of entries accepted when reading, a higher count means a corrupted file
+     */
+    public static final int                     MAX_ENTRIES  = 100000;
+
+    /**
+     * Initial capacity of the map read, whatever the count read
+     */
+    private static final int                    MAX_CAPACITY = 256;
+
+    /**
+     * Time when the settings have been read from the directory, ms since epoch
+     */
+    private final long                          timestamp;
+
+    /**
+     * The settings, key depends on the provider (cn=xxx for PSO's)
+     */
+    private final Map<String, PasswordSettings> policies;
+
+    private PasswordSettingsSnapshotFile(final long timestamp, final Map<String, PasswordSettings> policies) {
+
+        this.timestamp = timestamp;
+        this.policies = Collections.unmodifiableMap(policies);
+    }
+
+    /**
+     * Reads a snapshot file
+     * 
+     * @param file
+     *            file to read
+     * @return the snapshot, or null if the file does not exist
+     * @throws IOException
+     *             if the file cannot be read, is corrupted or has an unknown version
+     */
+    public static PasswordSettingsSnapshotFile read(final File file) throws IOException {
+
+        if (file == null) {
+            throw new IllegalArgumentException("file : null value not allowed");
+        }
+
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a password settings snapshot : " + file);
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported password settings snapshot version " + version + " : " + file);
+            }
+            final long timestamp = in.readLong();
+            final int count = in.readInt();
+            if ((count < 0) || (count > MAX_ENTRIES)) {
+                throw new IOException("Invalid entry count " + count + " in password settings snapshot : " + file);
+            }
+            final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>(
+                    Math.min(count, MAX_CAPACITY) * 2);
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                policies.put(key, new PasswordSettings(in.readBoolean(), in.readInt(), in.readBoolean(), in.readInt(),
+                        in.readLong(), in.readLong(), in.readInt(), in.readLong(), in.readLong()));
+            }
+            return new PasswordSettingsSnapshotFile(timestamp, policies);
+        } catch (RuntimeException e) {
+            // Values rejected while decoding
+            throw new IOException("Corrupted password settings snapshot : " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces a snapshot file
+     * 
+     * @param file
+     *            file to write
+     * @param policies
+     *            settings to save
+     * @param timestamp
+     *            time when the settings have been read from the directory
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static void write(final File file, final Map<String, PasswordSettings> policies, final long timestamp)
+            throws IOException {
+
+        if ((file == null) || (policies == null)) {
+            throw new IllegalArgumentException("file, policies : null value not allowed");
+        }
+
+        final File temp = new File(file.getPath() + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(temp);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(timestamp);
+            out.writeInt(policies.size());
+            for (Map.Entry<String, PasswordSettings> entry : policies.entrySet()) {
+                final PasswordSettings ps = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(ps.isReversibleEncryption());
+                out.writeInt(ps.getHistoryLength());
+                out.writeBoolean(ps.isPasswordComplexity());
+                out.writeInt(ps.getMinimumPasswordLength());
+                out.writeLong(ps.getMinimumPasswordAge());
+                out.writeLong(ps.getMaximumPasswordAge());
+                out.writeInt(ps.getLockoutThreshold());
+                out.writeLong(ps.getLockoutDuration());
+                out.writeLong(ps.getLockoutObservationWindow());
+            }
+            // On disk before the rename, otherwise a crash may leave an empty or partial file under the final name
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        // Atomic on POSIX file systems, Windows does not replace an existing file
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            throw new IOException("Unable to replace password settings snapshot " + file);
+        }
+    }
+
+    public long getTimestamp() {
+
+        return timestamp;
+    }
+
+    /**
+     * @return unmodifiable map of the settings
+     */
+    public Map<String, PasswordSettings> getPolicies() {
+
+        return policies;
+    }
+
+}
@@ -0,0 +1,167 @@
+package net.archigny.adutils.password.util;
+
+import java.util.Map;
+
+/**
+ * Immutable map whose keys are RDN's in lower case (cn=xxx), looked up directly from the first RDN of a DN string without building
+ * any object : the RDN is located by {@link #locate(String)}, then hashed and compared ignoring case.
+ * <p>
+ * Only RDN's without escaped or quoted characters, multiple values or spaces around separators are located ; the others are
+ * reported as {@link #COMPLEX} and have to be parsed by a full DN parser.
+ * 
+ * @author Philippe MARASSE
+ * 
+ * @param <V>
+ *            Type of the values
+ */
+public final class RdnIndex<V> {
+
+    /**
+     * Returned by {@link #locate(String)} when DN is not valid
+     */
+    public static final long MALFORMED = -1L;
+
+    /**
+     * Returned by {@link #locate(String)} when the first RDN needs a full DN parser
+     */
+    public static final long COMPLEX   = -2L;
+
+    /**
+     * Open addressing table of keys, length is a power of 2
+     */
+    private final String[]   keys;
+
+    /**
+     * Values, same positions as keys
+     */
+    private final Object[]   values;
+
+    /**
+     * keys.length - 1
+     */
+    private final int        mask;
+
+    /**
+     * @param entries
+     *            keys have to be RDN's in lower case, as produced by {@link java.lang.String#toLowerCase()}
+     */
+    public RdnIndex(final Map<String, V> entries) {
+
+        int capacity = 8;
+        while (capacity < entries.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (Map.Entry<String, V> entry : entries.entrySet()) {
+            final String key = entry.getKey();
+            int slot = hashIgnoreCase(key, 0, key.length()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * Looks up the first RDN of a DN
+     * 
+     * @param dn
+     *            DN string
+     * @param rdn
+     *            position of the RDN in dn, as returned by {@link #locate(String)}
+     * @return value, or null if the RDN is not indexed
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final String dn, final long rdn) {
+
+        if (rdn < 0) {
+            throw new IllegalArgumentException("rdn : not a located RDN");
+        }
+        final int start = (int) (rdn >>> 32);
+        final int length = (int) rdn - start;
+        int slot = hashIgnoreCase(dn, start, start + length) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if ((key.length() == length) && key.regionMatches(true, 0, dn, start, length)) {
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Locates the first RDN of a DN string (eg. "CN=test" in "CN=test,CN=Password Settings Container,...")
+     * 
+     * @param dn
+     *            DN string
+     * @return start index in the upper 32 bits and end index (excluded) in the lower 32 bits, or {@link #MALFORMED} or
+     *         {@link #COMPLEX}
+     */
+    public static long locate(final String dn) {
+
+        final int length = dn.length();
+        int start = 0;
+        while ((start < length) && (dn.charAt(start) == ' ')) {
+            start++;
+        }
+
+        int equals = -1;
+        int end = start;
+        for (; end < length; end++) {
+            final char c = dn.charAt(end);
+            if ((c == ',') || (c == ';')) {
+                break;
+            }
+            switch (c) {
+                case '=':
+                    if (equals < 0) {
+                        equals = end;
+                    } else {
+                        return COMPLEX;
+                    }
+                    break;
+                case '\\':
+                case '"':
+                case '+':
+                case '#':
+                case '<':
+                case '>':
+                    return COMPLEX;
+                default:
+                    break;
+            }
+        }
+
+        // Trailing spaces of the value
+        int last = end;
+        while ((last > start) && (dn.charAt(last - 1) == ' ')) {
+            last--;
+        }
+
+        if ((equals <= start) || (equals >= last - 1)) {
+            return MALFORMED;
+        }
+        if ((dn.charAt(equals - 1) == ' ') || (dn.charAt(equals + 1) == ' ')) {
+            return COMPLEX;
+        }
+        return ((long) start << 32) | last;
+    }
+
+    /**
+     * Hash of a region of s, consistent with String.regionMatches(true, ...) : characters are folded the same way
+     */
+    private static int hashIgnoreCase(final String s, final int start, final int end) {
+
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        // Spread high bits as the table is indexed by low bits
+        return hash ^ (hash >>> 16);
+    }
+
+}
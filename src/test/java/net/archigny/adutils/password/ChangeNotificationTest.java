@@ -0,0 +1,247 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import net.archigny.adutils.password.util.PasswordSettingsMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeNotificationTest {
+
+    private static final String                          DOMAIN_DN    = "DC=in,DC=archigny,DC=org";
+
+    private static final String                          CONTAINER_DN = PasswordSettingsContainerProvider.AD_DEFAULT_CONTAINER_RDN
+                                                                              + "," + DOMAIN_DN;
+
+    private static final String                          PSO_DN       = "CN=test," + CONTAINER_DN;
+
+    private InMemoryDirectory                            directory;
+
+    private PasswordSettingsContainerProvider            psoProvider;
+
+    private DefaultDomainPolicyPasswordSettingsProvider domainProvider;
+
+    @Before
+    public void setUp() {
+
+        directory = new InMemoryDirectory();
+        directory.put(DOMAIN_DN, InMemoryDirectory.attributes("objectClass", "domainDNS", PasswordSettingsMapper.AD_MAXPWDAGE,
+                "-36288000000000", PasswordSettingsMapper.AD_MINPWDLENGTH, "7"));
+        directory.put(PSO_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MAXPWDAGE, "-36288000000000", PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "8",
+                PasswordSettingsMapper.AD_USN_CHANGED, "1000"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        if (psoProvider != null) {
+            psoProvider.destroy();
+        }
+        if (domainProvider != null) {
+            domainProvider.destroy();
+        }
+    }
+
+    private static void waitFor(final Condition condition) throws InterruptedException {
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.isMet()) {
+            assertTrue("Condition not met in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private interface Condition {
+
+        boolean isMet();
+    }
+
+    @Test
+    public void testPsoNotification() throws Exception {
+
+        psoProvider = new PasswordSettingsContainerProvider();
+        psoProvider.setContextSource(directory);
+        psoProvider.setNotificationContextSource(directory);
+        psoProvider.setContainerDN(CONTAINER_DN);
+        psoProvider.afterPropertiesSet();
+
+        assertEquals(8, psoProvider.getPasswordSettings(PSO_DN).getMinimumPasswordLength());
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return psoProvider.isNotified();
+            }
+        });
+
+        directory.modify(PSO_DN, PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "12", PasswordSettingsMapper.AD_USN_CHANGED, "1001");
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return psoProvider.getPasswordSettings(PSO_DN).getMinimumPasswordLength() == 12;
+            }
+        });
+
+        // Resync done after subscription, periodic refreshes do not read the directory anymore
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return psoProvider.refresh() && directory.getSearchCount() == 2;
+            }
+        });
+        assertTrue(psoProvider.refresh());
+        assertEquals(2, directory.getSearchCount());
+
+        // Created PSO is notified too
+        final String newDN = "CN=other," + CONTAINER_DN;
+        directory.put(newDN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "14", PasswordSettingsMapper.AD_USN_CHANGED, "1002"));
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return psoProvider.getPasswordSettings(newDN) != null;
+            }
+        });
+        assertEquals(14, psoProvider.getPasswordSettings(newDN).getMinimumPasswordLength());
+
+        // Lost subscription : back to polling
+        directory.dropNotifications();
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return !psoProvider.isNotified();
+            }
+        });
+        assertTrue(psoProvider.refresh());
+        assertEquals(3, directory.getSearchCount());
+    }
+
+    @Test
+    public void testPsoDeletion() throws Exception {
+
+        final String otherDN = "CN=other," + CONTAINER_DN;
+        directory.put(otherDN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "14", PasswordSettingsMapper.AD_USN_CHANGED, "1001"));
+
+        psoProvider = new PasswordSettingsContainerProvider();
+        psoProvider.setContextSource(directory);
+        psoProvider.setNotificationContextSource(directory);
+        psoProvider.setContainerDN(CONTAINER_DN);
+        psoProvider.afterPropertiesSet();
+
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return psoProvider.isNotified() && directory.getSearchCount() == 2;
+            }
+        });
+
+        // A deletion is notified on the tombstone : the container is read again
+        directory.remove(PSO_DN);
+        directory.put(PSO_DN, InMemoryDirectory.attributes(PasswordSettingsContainerProvider.AD_IS_DELETED, "TRUE"));
+        directory.remove(PSO_DN);
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return psoProvider.getPasswordSettings(PSO_DN) == null;
+            }
+        });
+        assertEquals(3, directory.getSearchCount());
+        assertNotNull(psoProvider.getPasswordSettings(otherDN));
+    }
+
+    @Test
+    public void testDefaultDomainPolicyNotification() throws Exception {
+
+        domainProvider = new DefaultDomainPolicyPasswordSettingsProvider();
+        domainProvider.setContextSource(directory);
+        domainProvider.setNotificationContextSource(directory);
+        domainProvider.setDomainDN(DOMAIN_DN);
+        domainProvider.afterPropertiesSet();
+
+        assertEquals(7, domainProvider.getPasswordSettings().getMinimumPasswordLength());
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return domainProvider.isNotified();
+            }
+        });
+
+        directory.modify(DOMAIN_DN, PasswordSettingsMapper.AD_MINPWDLENGTH, "9");
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return domainProvider.getPasswordSettings().getMinimumPasswordLength() == 9;
+            }
+        });
+    }
+
+    @Test
+    public void testMalformedNotifiedDN() throws Exception {
+
+        domainProvider = new DefaultDomainPolicyPasswordSettingsProvider();
+        domainProvider.setContextSource(directory);
+        domainProvider.setDomainDN(DOMAIN_DN);
+        domainProvider.afterPropertiesSet();
+
+        // Not applied, which makes the provider read its settings again
+        final PasswordSettings ps = domainProvider.getPasswordSettings();
+        assertFalse(domainProvider.applyNotification("=malformed", InMemoryDirectory.attributes(
+                PasswordSettingsMapper.AD_MINPWDLENGTH, "9")));
+        assertFalse(domainProvider.applyNotification("", InMemoryDirectory.attributes(PasswordSettingsMapper.AD_MINPWDLENGTH,
+                "9")));
+        assertSame(ps, domainProvider.getPasswordSettings());
+    }
+
+    @Test
+    public void testQuietDirectory() throws Exception {
+
+        // Notification search only returns with the first change, as with the JNDI LDAP provider
+        directory.setBlockingNotifications(true);
+        domainProvider = new DefaultDomainPolicyPasswordSettingsProvider();
+        domainProvider.setContextSource(directory);
+        domainProvider.setNotificationContextSource(directory);
+        domainProvider.setDomainDN(DOMAIN_DN);
+        domainProvider.afterPropertiesSet();
+
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return domainProvider.isNotified();
+            }
+        });
+
+        directory.modify(DOMAIN_DN, PasswordSettingsMapper.AD_MINPWDLENGTH, "9");
+        waitFor(new Condition() {
+
+            @Override
+            public boolean isMet() {
+
+                return domainProvider.getPasswordSettings().getMinimumPasswordLength() == 9;
+            }
+        });
+    }
+
+}
@@ -67,8 +67,13 @@ public class DefaultDomainPolicyPasswordSettingsProviderTest {
         long secondFetch = provider.getLastTimeFetched();
         Thread.sleep(300);
         
+        // Expired : the cached policy is still served while the refresh runs in background
         ps = provider.getPasswordSettings();
         long thirdFetch = provider.getLastTimeFetched();
+        for (int i = 0; (i < 50) && (thirdFetch == secondFetch); i++) {
+            Thread.sleep(100);
+            thirdFetch = provider.getLastTimeFetched();
+        }
 
         assertEquals(firstFetch, secondFetch);
         assertTrue(thirdFetch > secondFetch);
@@ -0,0 +1,111 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import net.archigny.adutils.password.util.PasswordSettingsMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EffectivePasswordSettingsResolverTest {
+
+    private static final String                         DOMAIN_DN    = "DC=in,DC=archigny,DC=org";
+
+    private static final String                         CONTAINER_DN = PasswordSettingsContainerProvider.AD_DEFAULT_CONTAINER_RDN
+                                                                              + "," + DOMAIN_DN;
+
+    private static final String                         PSO_DN       = "CN=test," + CONTAINER_DN;
+
+    private static final String                         USER_PSO     = "CN=user1,CN=Users," + DOMAIN_DN;
+
+    private static final String                         USER_DEFAULT = "CN=user2,CN=Users," + DOMAIN_DN;
+
+    private InMemoryDirectory                           directory;
+
+    private PasswordSettingsContainerProvider           psoProvider;
+
+    private DefaultDomainPolicyPasswordSettingsProvider domainProvider;
+
+    private EffectivePasswordSettingsResolver           resolver;
+
+    @Before
+    public void setUp() throws Exception {
+
+        directory = new InMemoryDirectory();
+        directory.put(DOMAIN_DN, InMemoryDirectory.attributes("objectClass", "domainDNS", PasswordSettingsMapper.AD_MAXPWDAGE,
+                "-36288000000000", PasswordSettingsMapper.AD_MINPWDLENGTH, "7"));
+        directory.put(PSO_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MAXPWDAGE, "-36288000000000", PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "12"));
+        directory.put(USER_PSO, InMemoryDirectory.attributes("objectClass", "user",
+                EffectivePasswordSettingsResolver.AD_RESULTANT_PSO, PSO_DN,
+                EffectivePasswordSettingsResolver.AD_USER_ACCOUNT_CONTROL, "512"));
+        directory.put(USER_DEFAULT, InMemoryDirectory.attributes("objectClass", "user",
+                EffectivePasswordSettingsResolver.AD_USER_ACCOUNT_CONTROL, "66048"));
+
+        psoProvider = new PasswordSettingsContainerProvider();
+        psoProvider.setContextSource(directory);
+        psoProvider.setContainerDN(CONTAINER_DN);
+        psoProvider.afterPropertiesSet();
+
+        domainProvider = new DefaultDomainPolicyPasswordSettingsProvider();
+        domainProvider.setContextSource(directory);
+        domainProvider.setDomainDN(DOMAIN_DN);
+        domainProvider.afterPropertiesSet();
+
+        PasswordSettingsProvider provider = new PasswordSettingsProvider();
+        provider.setPsoContainerProvider(psoProvider);
+        provider.setDefaultPolicyProvider(domainProvider);
+        provider.afterPropertiesSet();
+
+        resolver = new EffectivePasswordSettingsResolver();
+        resolver.setContextSource(directory);
+        resolver.setPasswordSettingsProvider(provider);
+        resolver.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        psoProvider.destroy();
+        domainProvider.destroy();
+    }
+
+    @Test
+    public void testResolve() {
+
+        assertEquals(12, resolver.getPasswordSettings(USER_PSO).getMinimumPasswordLength());
+        assertFalse(resolver.isPasswordNeverExpires(USER_PSO));
+
+        assertEquals(-36288000000000L, resolver.getPasswordSettings(USER_PSO).getMaximumPasswordAge());
+
+        // DONT_EXPIRE_PASSWORD : default policy, without maximum age
+        final PasswordSettings ps = resolver.getPasswordSettings(USER_DEFAULT);
+        assertTrue(resolver.isPasswordNeverExpires(USER_DEFAULT));
+        assertEquals(7, ps.getMinimumPasswordLength());
+        assertEquals(I8.NEVER, ps.getMaximumPasswordAge());
+        assertEquals(PasswordSettings.MILLIS_NEVER, ps.getMaximumPasswordAgeMillis());
+        assertEquals(PasswordMetaData.NEVER_EXPIRES, PasswordMetaData.computeExpirationTime(I8.convertToI8(1000L), ps));
+        assertEquals(-36288000000000L, domainProvider.getPasswordSettings().getMaximumPasswordAge());
+        assertSame(ps, resolver.getPasswordSettings(USER_DEFAULT));
+    }
+
+    @Test
+    public void testCache() {
+
+        final int lookups = directory.getLookupCount();
+        resolver.getPasswordSettings(USER_PSO);
+        resolver.isPasswordNeverExpires(USER_PSO);
+        resolver.getPasswordSettings(USER_PSO.toUpperCase());
+        assertEquals(lookups + 1, directory.getLookupCount());
+
+        // PSO removed from the user : seen once evicted
+        directory.put(USER_PSO, InMemoryDirectory.attributes("objectClass", "user",
+                EffectivePasswordSettingsResolver.AD_USER_ACCOUNT_CONTROL, "512"));
+        assertEquals(12, resolver.getPasswordSettings(USER_PSO).getMinimumPasswordLength());
+        resolver.evict(USER_PSO);
+        assertEquals(7, resolver.getPasswordSettings(USER_PSO).getMinimumPasswordLength());
+        assertEquals(lookups + 2, directory.getLookupCount());
+    }
+
+}
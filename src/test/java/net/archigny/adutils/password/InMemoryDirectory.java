@@ -0,0 +1,573 @@
+package net.archigny.adutils.password;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import net.archigny.adutils.password.util.LdapChangeNotificationListener;
+
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.ldap.core.DistinguishedName;
+
+/**
+ * In-memory stand-in of an AD domain controller for tests : supports lookups, base/one level/subtree searches with simple filters
+ * (equality, presence, &amp;, |), paged searches (page size &lt; 128) and change notification searches.
+ * 
+ * @author Philippe MARASSE
+ */
+public class InMemoryDirectory implements ContextSource {
+
+    /**
+     * Entries, key is lower cased DN
+     */
+    private final Map<String, Attributes>       entries       = Collections.synchronizedMap(new LinkedHashMap<String, Attributes>());
+
+    /**
+     * Original DN's, same keys
+     */
+    private final Map<String, String>           dns           = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    /**
+     * Running notification searches
+     */
+    private final List<NotificationEnumeration> notifications = new CopyOnWriteArrayList<NotificationEnumeration>();
+
+    /**
+     * Number of regular searches done
+     */
+    private final AtomicInteger                 searchCount   = new AtomicInteger(0);
+
+    /**
+     * Number of lookups done
+     */
+    private final AtomicInteger                 lookupCount   = new AtomicInteger(0);
+
+    /**
+     * Number of pages returned by paged searches
+     */
+    private final AtomicInteger                 pageCount     = new AtomicInteger(0);
+
+    /**
+     * Notification searches only return once their first change has arrived, as with the JNDI LDAP provider
+     */
+    private volatile boolean                    blockingNotifications;
+
+    /**
+     * Builds attributes from name/value pairs, a value can be a String or a String[]
+     */
+    public static Attributes attributes(final Object... pairs) {
+
+        final BasicAttributes attrs = new BasicAttributes(true);
+        for (int i = 0; i < pairs.length; i += 2) {
+            final BasicAttribute attr = new BasicAttribute((String) pairs[i]);
+            if (pairs[i + 1] instanceof String[]) {
+                for (String value : (String[]) pairs[i + 1]) {
+                    attr.add(value);
+                }
+            } else {
+                attr.add(pairs[i + 1]);
+            }
+            attrs.put(attr);
+        }
+        return attrs;
+    }
+
+    /**
+     * Adds or replaces an entry, and notifies the listeners watching it
+     */
+    public void put(final String dn, final Attributes attributes) {
+
+        final String key = normalize(dn);
+        entries.put(key, (Attributes) attributes.clone());
+        dns.put(key, dn);
+        for (NotificationEnumeration notification : notifications) {
+            if (notification.watches(key)) {
+                notification.push(result(dn, attributes, notification.attributes));
+            }
+        }
+    }
+
+    /**
+     * Replaces some attribute values of an existing entry
+     */
+    public void modify(final String dn, final Object... pairs) {
+
+        final Attributes attrs = (Attributes) entries.get(normalize(dn)).clone();
+        final Attributes changes = attributes(pairs);
+        final NamingEnumeration<? extends Attribute> all = changes.getAll();
+        while (all.hasMoreElements()) {
+            attrs.put(all.nextElement());
+        }
+        put(dn, attrs);
+    }
+
+    /**
+     * Removes an entry without notifying, as AD would rename it
+     */
+    public void remove(final String dn) {
+
+        entries.remove(normalize(dn));
+        dns.remove(normalize(dn));
+    }
+
+    /**
+     * Makes all running notification searches fail
+     */
+    public void dropNotifications() {
+
+        for (NotificationEnumeration notification : notifications) {
+            notification.push(NotificationEnumeration.DROPPED);
+        }
+    }
+
+    public int getSearchCount() {
+
+        return searchCount.get();
+    }
+
+    public int getLookupCount() {
+
+        return lookupCount.get();
+    }
+
+    public int getPageCount() {
+
+        return pageCount.get();
+    }
+
+    public int getNotificationCount() {
+
+        return notifications.size();
+    }
+
+    public void setBlockingNotifications(final boolean blockingNotifications) {
+
+        this.blockingNotifications = blockingNotifications;
+    }
+
+    @Override
+    public DirContext getReadOnlyContext() {
+
+        return (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class },
+                new ContextHandler());
+    }
+
+    @Override
+    public DirContext getReadWriteContext() {
+
+        return getReadOnlyContext();
+    }
+
+    @Override
+    public DirContext getContext(final String principal, final String credentials) {
+
+        return getReadOnlyContext();
+    }
+
+    private static String normalize(final String dn) {
+
+        return new DistinguishedName(dn).toString().toLowerCase();
+    }
+
+    private static String parent(final String key) {
+
+        final DistinguishedName name = new DistinguishedName(key);
+        if (name.isEmpty()) {
+            return null;
+        }
+        name.removeLast();
+        return name.toString().toLowerCase();
+    }
+
+    private static Attributes filter(final Attributes attrs, final String[] ids) {
+
+        if (ids == null) {
+            return (Attributes) attrs.clone();
+        }
+        final BasicAttributes result = new BasicAttributes(true);
+        for (String id : ids) {
+            final Attribute attr = attrs.get(id);
+            if (attr != null) {
+                result.put((Attribute) attr.clone());
+            }
+        }
+        return result;
+    }
+
+    private static SearchResult result(final String dn, final Attributes attrs, final String[] ids) {
+
+        final Attributes filtered = filter(attrs, ids);
+        final SearchResult result = new SearchResult(dn, new DirContextAdapter(filtered, new DistinguishedName(dn)), filtered, false);
+        result.setNameInNamespace(dn);
+        return result;
+    }
+
+    /**
+     * Minimal LDAP filter evaluation
+     */
+    private static boolean matches(final String filter, final Attributes attrs) {
+
+        final String f = filter.trim();
+        if (!f.startsWith("(") || !f.endsWith(")")) {
+            throw new IllegalArgumentException("Unsupported filter " + filter);
+        }
+        final String body = f.substring(1, f.length() - 1);
+        if (body.startsWith("&") || body.startsWith("|")) {
+            final boolean and = body.startsWith("&");
+            for (String sub : split(body.substring(1))) {
+                if (matches(sub, attrs) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+        if (body.startsWith("!")) {
+            return !matches(body.substring(1), attrs);
+        }
+        final int eq = body.indexOf('=');
+        final Attribute attr = attrs.get(body.substring(0, eq));
+        final String value = body.substring(eq + 1);
+        if (attr == null) {
+            return false;
+        }
+        if ("*".equals(value)) {
+            return true;
+        }
+        try {
+            final NamingEnumeration<?> values = attr.getAll();
+            while (values.hasMore()) {
+                if (value.equalsIgnoreCase(String.valueOf(values.next()))) {
+                    return true;
+                }
+            }
+        } catch (NamingException e) {
+            throw new IllegalStateException(e);
+        }
+        return false;
+    }
+
+    private static List<String> split(final String filters) {
+
+        final List<String> result = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < filters.length(); i++) {
+            final char c = filters.charAt(i);
+            if (c == '(') {
+                if (depth++ == 0) {
+                    start = i;
+                }
+            } else if (c == ')' && --depth == 0) {
+                result.add(filters.substring(start, i + 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Implementation of the LdapContext proxies
+     */
+    private final class ContextHandler implements InvocationHandler {
+
+        private Control[]               requestControls;
+
+        private Control[]               responseControls;
+
+        private NotificationEnumeration notification;
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+            final String name = method.getName();
+            if ("setRequestControls".equals(name)) {
+                requestControls = (Control[]) args[0];
+                return null;
+            } else if ("getRequestControls".equals(name)) {
+                return requestControls;
+            } else if ("getResponseControls".equals(name)) {
+                return responseControls;
+            } else if ("close".equals(name)) {
+                if (notification != null) {
+                    notification.close();
+                }
+                return null;
+            } else if ("getAttributes".equals(name) && args.length == 2) {
+                return lookup(args[0].toString(), (String[]) args[1]);
+            } else if ("getAttributes".equals(name) && args.length == 1) {
+                return lookup(args[0].toString(), null);
+            } else if ("search".equals(name) && args.length == 3 && args[2] instanceof SearchControls) {
+                return search(args[0].toString(), (String) args[1], (SearchControls) args[2]);
+            } else if ("getNameInNamespace".equals(name)) {
+                return "";
+            } else if ("toString".equals(name)) {
+                return "InMemoryDirectory context";
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        private Attributes lookup(final String dn, final String[] ids) throws NamingException {
+
+            lookupCount.incrementAndGet();
+            final Attributes attrs = entries.get(normalize(dn));
+            if (attrs == null) {
+                throw new NameNotFoundException(dn);
+            }
+            return filter(attrs, ids);
+        }
+
+        private NamingEnumeration<SearchResult> search(final String base, final String filter, final SearchControls sc)
+                throws NamingException {
+
+            final String baseKey = normalize(base);
+            if (isNotification()) {
+                notification = new NotificationEnumeration(baseKey, sc.getSearchScope(), sc.getReturningAttributes());
+                notifications.add(notification);
+                if (blockingNotifications) {
+                    // Waits for the first change
+                    notification.hasMore();
+                }
+                return notification;
+            }
+
+            searchCount.incrementAndGet();
+            final List<SearchResult> results = new ArrayList<SearchResult>();
+            synchronized (entries) {
+                for (Map.Entry<String, Attributes> entry : entries.entrySet()) {
+                    final String key = entry.getKey();
+                    final boolean inScope;
+                    switch (sc.getSearchScope()) {
+                        case SearchControls.OBJECT_SCOPE:
+                            inScope = key.equals(baseKey);
+                            break;
+                        case SearchControls.ONELEVEL_SCOPE:
+                            inScope = baseKey.equals(parent(key));
+                            break;
+                        default:
+                            inScope = key.equals(baseKey) || key.endsWith("," + baseKey) || baseKey.length() == 0;
+                    }
+                    if (inScope && matches(filter, entry.getValue())) {
+                        results.add(result(dns.get(key), entry.getValue(), sc.getReturningAttributes()));
+                    }
+                }
+            }
+            final Control paged = getRequestControl(PagedResultsControl.OID);
+            if (paged == null) {
+                return new ListEnumeration(results);
+            }
+
+            // Request value : SEQUENCE { INTEGER pageSize, OCTET STRING cookie }, cookie is the offset of the page
+            final byte[] request = paged.getEncodedValue();
+            final int pageSize = request[4];
+            final int cookieLength = request[6];
+            final int offset = (cookieLength == 0) ? 0 : Integer.parseInt(new String(request, 7, cookieLength));
+            final int end = Math.min(offset + pageSize, results.size());
+            final byte[] cookie = (end < results.size()) ? Integer.toString(end).getBytes() : new byte[0];
+
+            final byte[] response = new byte[7 + cookie.length];
+            response[0] = 0x30;
+            response[1] = (byte) (5 + cookie.length);
+            response[2] = 0x02;
+            response[3] = 1;
+            response[4] = 0;
+            response[5] = 0x04;
+            response[6] = (byte) cookie.length;
+            System.arraycopy(cookie, 0, response, 7, cookie.length);
+            try {
+                responseControls = new Control[] { new PagedResultsResponseControl(PagedResultsControl.OID, false, response) };
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            pageCount.incrementAndGet();
+            return new ListEnumeration(new ArrayList<SearchResult>(results.subList(offset, end)));
+        }
+
+        private Control getRequestControl(final String oid) {
+
+            if (requestControls != null) {
+                for (Control control : requestControls) {
+                    if (oid.equals(control.getID())) {
+                        return control;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private boolean isNotification() {
+
+            return getRequestControl(LdapChangeNotificationListener.LDAP_SERVER_NOTIFICATION_OID) != null;
+        }
+    }
+
+    /**
+     * Enumeration over a finished search
+     */
+    private static final class ListEnumeration implements NamingEnumeration<SearchResult> {
+
+        private final Iterator<SearchResult> iterator;
+
+        ListEnumeration(final List<SearchResult> results) {
+
+            this.iterator = results.iterator();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+
+            return iterator.hasNext();
+        }
+
+        @Override
+        public SearchResult nextElement() {
+
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasMore() {
+
+            return iterator.hasNext();
+        }
+
+        @Override
+        public SearchResult next() {
+
+            return iterator.next();
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    /**
+     * Enumeration over a notification search, blocking until next change
+     */
+    private final class NotificationEnumeration implements NamingEnumeration<SearchResult> {
+
+        static final String                 CLOSED  = "closed";
+
+        static final String                 DROPPED = "dropped";
+
+        private final BlockingQueue<Object> queue   = new LinkedBlockingQueue<Object>();
+
+        private final String                baseKey;
+
+        private final int                   scope;
+
+        final String[]                      attributes;
+
+        private Object                      next;
+
+        NotificationEnumeration(final String baseKey, final int scope, final String[] attributes) {
+
+            this.baseKey = baseKey;
+            this.scope = scope;
+            this.attributes = attributes;
+        }
+
+        boolean watches(final String key) {
+
+            return (scope == SearchControls.OBJECT_SCOPE) ? key.equals(baseKey) : baseKey.equals(parent(key));
+        }
+
+        void push(final Object item) {
+
+            queue.add(item);
+        }
+
+        @Override
+        public boolean hasMore() throws NamingException {
+
+            if (next == null) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    next = CLOSED;
+                }
+            }
+            if (next == DROPPED) {
+                notifications.remove(this);
+                throw new CommunicationException("Connection dropped");
+            }
+            if (next == CLOSED) {
+                notifications.remove(this);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public SearchResult next() throws NamingException {
+
+            if (!hasMore()) {
+                throw new NoSuchElementException();
+            }
+            final SearchResult result = (SearchResult) next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+
+            try {
+                return hasMore();
+            } catch (NamingException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public SearchResult nextElement() {
+
+            try {
+                return next();
+            } catch (NamingException e) {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public void close() {
+
+            notifications.remove(this);
+            queue.add(CLOSED);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class PasswordExpirationCalculatorTest {
+
+    private static final PasswordSettings[] POLICIES = {
+            new PasswordSettings(false, 0, false, 8, 0, 90 * I8.DAY, 5, 5 * I8.MINUTE, 2 * I8.MINUTE),
+            new PasswordSettings(false, 0, false, 8, 0, I8.NEVER, 5, 5 * I8.MINUTE, 2 * I8.MINUTE),
+            new PasswordSettings(false, 0, false, 8, 0, 30 * I8.DAY, 5, 5 * I8.MINUTE, 2 * I8.MINUTE) };
+
+    @Test
+    public void testSpecialValues() {
+
+        final long now = I8.convertToI8(System.currentTimeMillis());
+        final long[] pwdLastSet = { now, 0, now, I8.NEVER, Long.MAX_VALUE };
+        final byte[] indexes = { 0, 0, 1, 2, 2 };
+        final long[] expirations = new long[pwdLastSet.length];
+
+        new PasswordExpirationCalculator(POLICIES).computeExpirationTimes(pwdLastSet, indexes, expirations);
+
+        assertEquals(I8.convertToEpoch(now - 90 * I8.DAY), expirations[0]);
+        assertEquals(0, expirations[1]);
+        assertEquals(PasswordMetaData.NEVER_EXPIRES, expirations[2]);
+        // Not a date : far in the past, without overflow
+        assertTrue(expirations[3] < 0);
+        assertTrue(expirations[3] > Long.MIN_VALUE / I8.AD_TO_TIME_SCALE - I8.AD_TO_EPOCH / I8.AD_TO_TIME_SCALE);
+        // Beyond the range of I8 values
+        assertEquals(PasswordMetaData.NEVER_EXPIRES, expirations[4]);
+    }
+
+    @Test
+    public void testSameAsPasswordMetaData() {
+
+        final Random random = new Random(9);
+        final long now = I8.convertToI8(System.currentTimeMillis());
+        final long[] pwdLastSet = new long[300000];
+        final int[] indexes = new int[pwdLastSet.length];
+        for (int i = 0; i < pwdLastSet.length; i++) {
+            pwdLastSet[i] = (i % 100 == 0) ? 0 : now + random.nextInt(365) * I8.DAY + random.nextInt(86400) * I8.SECOND;
+            indexes[i] = random.nextInt(POLICIES.length);
+        }
+
+        final PasswordExpirationCalculator calculator = new PasswordExpirationCalculator(POLICIES);
+        final long[] sequential = new long[pwdLastSet.length];
+        calculator.computeExpirationTimes(pwdLastSet, indexes, sequential);
+        for (int i = 0; i < pwdLastSet.length; i++) {
+            assertEquals(PasswordMetaData.computeExpirationTime(pwdLastSet[i], POLICIES[indexes[i]]), sequential[i]);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final long[] parallel = new long[pwdLastSet.length];
+            calculator.computeExpirationTimes(pwdLastSet, indexes, parallel, executor, 4);
+            assertArrayEquals(sequential, parallel);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLengths() {
+
+        new PasswordExpirationCalculator(POLICIES).computeExpirationTimes(new long[2], new int[1], new long[2]);
+    }
+
+}
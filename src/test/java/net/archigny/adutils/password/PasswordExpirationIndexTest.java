@@ -0,0 +1,79 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PasswordExpirationIndexTest {
+
+    private static final int ACCOUNTS = 10000;
+
+    @Test
+    public void testRangeQueries() {
+
+        final Random random = new Random(42);
+        final long[] reference = new long[ACCOUNTS];
+        final PasswordExpirationIndex.Builder builder = new PasswordExpirationIndex.Builder();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            // Many duplicates on purpose
+            reference[i] = random.nextInt(1000) * 1000L;
+            builder.add("CN=user" + i, reference[i]);
+        }
+        final PasswordExpirationIndex index = builder.build();
+        assertEquals(ACCOUNTS, index.size());
+
+        for (int q = 0; q < 100; q++) {
+            final long from = random.nextInt(1100) * 1000L - 50000;
+            final long to = from + random.nextInt(200) * 1000L;
+            final List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < ACCOUNTS; i++) {
+                if ((reference[i] >= from) && (reference[i] < to)) {
+                    expected.add("CN=user" + i);
+                }
+            }
+
+            final List<String> result = index.getExpiringBetween(from, to);
+            assertEquals(expected.size(), index.countExpiringBetween(from, to));
+            assertEquals(expected.size(), result.size());
+            assertTrue(result.containsAll(expected));
+
+            // Ascending order
+            long previous = Long.MIN_VALUE;
+            for (String dn : result) {
+                final long expiration = index.getExpirationTime(dn);
+                assertTrue(expiration >= previous);
+                previous = expiration;
+            }
+        }
+    }
+
+    @Test
+    public void testUpdates() {
+
+        final PasswordExpirationIndex index = new PasswordExpirationIndex.Builder().add("CN=a", 1000).add("CN=b", 2000)
+                .add("CN=c", 3000).build();
+
+        // Password changed : moves from first to last
+        index.update("cn=A", 5000);
+        assertEquals(Long.valueOf(5000), index.getExpirationTime("CN=a"));
+        assertEquals(0, index.countExpiringBetween(0, 2000));
+        assertEquals("CN=a", index.getExpiringBetween(4000, 6000).get(0));
+
+        // From pwdLastSet and settings
+        final PasswordSettings pso = new PasswordSettings(false, 0, false, 8, 0, I8.DAY, 5, 5 * I8.MINUTE, 2 * I8.MINUTE);
+        index.update("CN=d", I8.convertToI8(0), pso);
+        assertEquals(Long.valueOf(86400000L), index.getExpirationTime("CN=d"));
+        assertEquals(4, index.size());
+
+        assertTrue(index.remove("CN=b"));
+        assertFalse(index.remove("CN=b"));
+        assertNull(index.getExpirationTime("CN=b"));
+        assertEquals(3, index.size());
+        assertEquals(1, index.countExpiringBetween(0, 4000));
+    }
+
+}
@@ -0,0 +1,139 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.archigny.adutils.password.util.PasswordSettingsMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PasswordExpirationScannerTest {
+
+    private static final String                         DOMAIN_DN    = "DC=in,DC=archigny,DC=org";
+
+    private static final String                         USERS_DN     = "CN=Users," + DOMAIN_DN;
+
+    private static final String                         CONTAINER_DN = PasswordSettingsContainerProvider.AD_DEFAULT_CONTAINER_RDN
+                                                                              + "," + DOMAIN_DN;
+
+    private static final String                         PSO_DN       = "CN=test," + CONTAINER_DN;
+
+    private InMemoryDirectory                           directory;
+
+    private PasswordSettingsContainerProvider           psoProvider;
+
+    private DefaultDomainPolicyPasswordSettingsProvider domainProvider;
+
+    private PasswordExpirationScanner                   scanner;
+
+    private final long                                  lastSet      = I8.convertToI8(System.currentTimeMillis());
+
+    @Before
+    public void setUp() throws Exception {
+
+        directory = new InMemoryDirectory();
+        directory.put(DOMAIN_DN, InMemoryDirectory.attributes("objectClass", "domainDNS", PasswordSettingsMapper.AD_MAXPWDAGE,
+                Long.toString(90 * I8.DAY)));
+        directory.put(PSO_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MAXPWDAGE, Long.toString(30 * I8.DAY)));
+
+        for (int i = 0; i < 4; i++) {
+            directory.put("CN=default" + i + "," + USERS_DN, user(Long.toString(lastSet), null, "512"));
+        }
+        directory.put("CN=pso," + USERS_DN, user(Long.toString(lastSet), PSO_DN, "512"));
+        directory.put("CN=never," + USERS_DN, user(Long.toString(lastSet), null, "66048"));
+        directory.put("CN=mustchange," + USERS_DN, user("0", PSO_DN, "512"));
+
+        psoProvider = new PasswordSettingsContainerProvider();
+        psoProvider.setContextSource(directory);
+        psoProvider.setContainerDN(CONTAINER_DN);
+        psoProvider.afterPropertiesSet();
+
+        domainProvider = new DefaultDomainPolicyPasswordSettingsProvider();
+        domainProvider.setContextSource(directory);
+        domainProvider.setDomainDN(DOMAIN_DN);
+        domainProvider.afterPropertiesSet();
+
+        PasswordSettingsProvider provider = new PasswordSettingsProvider();
+        provider.setPsoContainerProvider(psoProvider);
+        provider.setDefaultPolicyProvider(domainProvider);
+        provider.afterPropertiesSet();
+
+        scanner = new PasswordExpirationScanner();
+        scanner.setContextSource(directory);
+        scanner.setPasswordSettingsProvider(provider);
+        scanner.setSearchBase(USERS_DN);
+        scanner.setPageSize(2);
+        scanner.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        psoProvider.destroy();
+        domainProvider.destroy();
+    }
+
+    private static javax.naming.directory.Attributes user(final String pwdLastSet, final String pso, final String uac) {
+
+        if (pso == null) {
+            return InMemoryDirectory.attributes("objectClass", "user", "objectCategory", "person",
+                    PasswordExpirationScanner.AD_PWD_LAST_SET, pwdLastSet, EffectivePasswordSettingsResolver.AD_USER_ACCOUNT_CONTROL,
+                    uac);
+        }
+        return InMemoryDirectory.attributes("objectClass", "user", "objectCategory", "person",
+                PasswordExpirationScanner.AD_PWD_LAST_SET, pwdLastSet, EffectivePasswordSettingsResolver.AD_RESULTANT_PSO, pso,
+                EffectivePasswordSettingsResolver.AD_USER_ACCOUNT_CONTROL, uac);
+    }
+
+    @Test
+    public void testScan() {
+
+        final Map<String, Long> expirations = new HashMap<String, Long>();
+        long count = scanner.scan(new IPasswordExpirationHandler() {
+
+            @Override
+            public void handleExpiration(final String dn, final long expirationTime) {
+
+                expirations.put(dn, expirationTime);
+            }
+        });
+
+        assertEquals(7, count);
+        assertEquals(7, expirations.size());
+        assertEquals(4, directory.getPageCount());
+
+        final long set = I8.convertToEpoch(lastSet);
+        assertEquals(set + 90 * 86400000L, expirations.get("CN=default0," + USERS_DN).longValue());
+        assertEquals(set + 30 * 86400000L, expirations.get("CN=pso," + USERS_DN).longValue());
+        assertEquals(PasswordMetaData.NEVER_EXPIRES, expirations.get("CN=never," + USERS_DN).longValue());
+        assertEquals(0, expirations.get("CN=mustchange," + USERS_DN).longValue());
+    }
+
+    @Test
+    public void testMalformedPso() {
+
+        directory.put("CN=malformed," + USERS_DN, user(Long.toString(lastSet), "=malformed", "512"));
+
+        final Map<String, Long> expirations = new HashMap<String, Long>();
+        long count = scanner.scan(new IPasswordExpirationHandler() {
+
+            @Override
+            public void handleExpiration(final String dn, final long expirationTime) {
+
+                expirations.put(dn, expirationTime);
+            }
+        });
+
+        // Malformed resultant PSO : default policy applied, the scan goes on
+        assertEquals(8, count);
+        final long set = I8.convertToEpoch(lastSet);
+        assertEquals(set + 90 * 86400000L, expirations.get("CN=malformed," + USERS_DN).longValue());
+        assertEquals(set + 30 * 86400000L, expirations.get("CN=pso," + USERS_DN).longValue());
+    }
+
+}
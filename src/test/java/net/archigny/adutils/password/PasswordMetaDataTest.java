@@ -102,4 +102,19 @@ public class PasswordMetaDataTest {
         
     }
 
+    @Test
+    public void testComputeExpirationTimeSpecialValues() {
+
+        long pwdLastSet = I8.convertToI8(System.currentTimeMillis());
+
+        // Password must be changed at next logon
+        PasswordSettings pso = new PasswordSettings(false, 0, false, 8, 0, 90 * I8.DAY, 5, 5 * I8.MINUTE, 2 * I8.MINUTE);
+        assertEquals(0, PasswordMetaData.computeExpirationTime(0, pso));
+
+        // Password never expires
+        pso = new PasswordSettings(false, 0, false, 8, 0, I8.NEVER, 5, 5 * I8.MINUTE, 2 * I8.MINUTE);
+        assertEquals(PasswordMetaData.NEVER_EXPIRES, PasswordMetaData.computeExpirationTime(pwdLastSet, pso));
+        assertEquals(PasswordMetaData.NEVER_EXPIRES, new PasswordMetaData(pwdLastSet).getExpirationTime(pso));
+    }
+
 }
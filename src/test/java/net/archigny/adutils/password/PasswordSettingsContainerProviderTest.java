@@ -4,6 +4,10 @@ import static org.junit.Assert.*;
 
 import java.util.Map;
 
+import net.archigny.adutils.password.util.DecoderPlan;
+import net.archigny.adutils.password.util.FieldDecoders;
+import net.archigny.adutils.password.util.PasswordSettingsMapper;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -125,12 +129,108 @@ public class PasswordSettingsContainerProviderTest {
         long secondFetch = provider.getLastTimeFetched();
         Thread.sleep(300);
         
+        // Expired : the cached policy is still served while the refresh runs in background
         pso = provider.getPasswordSettings(psoTestName);
+        assertNotNull(pso);
         long thirdFetch = provider.getLastTimeFetched();
+        for (int i = 0; (i < 50) && (thirdFetch == secondFetch); i++) {
+            Thread.sleep(100);
+            thirdFetch = provider.getLastTimeFetched();
+        }
         
         assertEquals(firstFetch, secondFetch);
         assertTrue(thirdFetch > secondFetch);
         
     }
 
+    @Test
+    public void testIncremental() throws Exception {
+
+        PasswordSettingsContainerProvider provider = new PasswordSettingsContainerProvider();
+        provider.setContextSource(ldapCS);
+        provider.setContainerDN(PasswordSettingsContainerProvider.AD_DEFAULT_CONTAINER_RDN + "," + DOMAIN_DN);
+        provider.setIncremental(true);
+        provider.afterPropertiesSet();
+
+        Map<String, PasswordSettings> policies = provider.getAllPasswordSettings();
+        assertEquals(3, policies.size());
+
+        // Nothing changed in the container : PSO's checked but snapshot kept as is
+        assertTrue(provider.refresh());
+        assertSame(policies, provider.getAllPasswordSettings());
+
+        // Full reload forced
+        provider.setFullSyncInterval(0);
+        Thread.sleep(10);
+        assertTrue(provider.refresh());
+        assertNotSame(policies, provider.getAllPasswordSettings());
+        assertEquals(3, provider.getAllPasswordSettings().size());
+    }
+
+    @Test
+    public void testGetPasswordSettingsDnString() throws Exception {
+
+        InMemoryDirectory directory = new InMemoryDirectory();
+        directory.put("CN=test," + CONTAINER_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "8", PasswordSettingsMapper.AD_USN_CHANGED, "1000"));
+        directory.put("CN=a\\,b," + CONTAINER_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "9", PasswordSettingsMapper.AD_USN_CHANGED, "1001"));
+
+        PasswordSettingsContainerProvider provider = new PasswordSettingsContainerProvider();
+        provider.setContextSource(directory);
+        provider.setContainerDN(CONTAINER_DN);
+        provider.afterPropertiesSet();
+
+        PasswordSettings pso = provider.getPasswordSettings("CN=test," + CONTAINER_DN);
+        assertNotNull(pso);
+        assertEquals(8, pso.getMinimumPasswordLength());
+        assertSame(pso, provider.getPasswordSettings("cn=TEST," + CONTAINER_DN.toLowerCase()));
+
+        // Escaped characters go through the DN parser once, then the result is cached
+        final PasswordSettings escaped = provider.getPasswordSettings("CN=a\\,b," + CONTAINER_DN);
+        assertEquals(9, escaped.getMinimumPasswordLength());
+        assertSame(escaped, provider.getPasswordSettings("CN=a\\,b," + CONTAINER_DN));
+
+        // Unknown and malformed DN's
+        assertNull(provider.getPasswordSettings("CN=unknown," + CONTAINER_DN));
+        assertNull(provider.getPasswordSettings("CN=unknown\\,x," + CONTAINER_DN));
+        assertNull(provider.getPasswordSettings("CN=unknown\\,x," + CONTAINER_DN));
+        assertNull(provider.getPasswordSettings("=malformed"));
+        assertNull(provider.getPasswordSettings(PSO_NON_EXISTENT));
+        assertNull(provider.getPasswordSettings(""));
+        assertNull(provider.getPasswordSettings((String) null));
+
+        provider.destroy();
+    }
+
+    @Test
+    public void testExtendedPsoPlan() throws Exception {
+
+        InMemoryDirectory directory = new InMemoryDirectory();
+        directory.put("CN=test," + CONTAINER_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "8", "extensionAttribute1", "15",
+                PasswordSettingsMapper.AD_USN_CHANGED, "1000"));
+
+        PasswordSettingsContainerProvider provider = new PasswordSettingsContainerProvider();
+        provider.setContextSource(directory);
+        provider.setContainerDN(CONTAINER_DN);
+        // Extra attribute is requested, then decoded after the standard ones
+        provider.setPsoPlan(DecoderPlan.<PasswordSettings.Builder> builder().bindAll(PasswordSettingsMapper.PSO_PLAN)
+                .bind("extensionAttribute1", new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                    @Override
+                    protected void set(final PasswordSettings.Builder target, final int value) {
+
+                        target.lockoutThreshold(value);
+                    }
+                }).build());
+        provider.afterPropertiesSet();
+
+        PasswordSettings pso = provider.getPasswordSettings("CN=test," + CONTAINER_DN);
+        assertEquals(8, pso.getMinimumPasswordLength());
+        assertEquals(15, pso.getLockoutThreshold());
+
+        provider.destroy();
+    }
+
 }
@@ -2,8 +2,12 @@ package net.archigny.adutils.password;
 
 import static org.junit.Assert.*;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
+import javax.naming.Name;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -127,4 +131,71 @@ public class PasswordSettingsProviderTest {
         assertSame(defaultPolicy, nonExistentPolicy);
         
     }
+
+    /**
+     * PSO provider publishing a new map on demand
+     */
+    private static class StubPsoProvider implements IPasswordSettingsProvider {
+
+        volatile Map<String, PasswordSettings> psos = Collections.emptyMap();
+
+        @Override
+        public Map<String, PasswordSettings> getAllPasswordSettings() {
+
+            return psos;
+        }
+
+        @Override
+        public PasswordSettings getPasswordSettings(final String DN) {
+
+            return null;
+        }
+
+        @Override
+        public PasswordSettings getPasswordSettings(final Name name) {
+
+            return null;
+        }
+    }
+
+    @Test
+    public void testMergedView() throws Exception {
+
+        PasswordSettingsProvider provider = new PasswordSettingsProvider();
+        StubPsoProvider psoProvider = new StubPsoProvider();
+        FixedPasswordSettingsProvider defaultProvider = new FixedPasswordSettingsProvider();
+
+        provider.setDefaultPolicyProvider(defaultProvider);
+        provider.setPsoContainerProvider(psoProvider);
+        provider.afterPropertiesSet();
+        assertEquals(0, provider.getVersion());
+
+        Map<String, PasswordSettings> policies = provider.getAllPasswordSettings();
+        assertEquals(1, policies.size());
+        assertSame(defaultProvider.getPasswordSettings(), policies.get(PasswordSettingsProvider.DEFAULT_POLICY));
+        assertEquals(1, provider.getVersion());
+
+        // Nothing published : same view
+        assertSame(policies, provider.getAllPasswordSettings());
+        assertEquals(1, provider.getVersion());
+
+        try {
+            policies.put(PSO_TEST, defaultProvider.getPasswordSettings());
+            fail("Merged view should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        // New PSO snapshot published : view rebuilt
+        HashMap<String, PasswordSettings> psos = new HashMap<String, PasswordSettings>();
+        psos.put(PSO_TEST, new PasswordSettings(false, 0, false, 0, 0, 0, 0, 0, 0));
+        psoProvider.psos = Collections.unmodifiableMap(psos);
+
+        Map<String, PasswordSettings> rebuilt = provider.getAllPasswordSettings();
+        assertNotSame(policies, rebuilt);
+        assertEquals(2, rebuilt.size());
+        assertEquals(2, provider.getVersion());
+        assertSame(rebuilt, provider.getAllPasswordSettings());
+    }
+
 }
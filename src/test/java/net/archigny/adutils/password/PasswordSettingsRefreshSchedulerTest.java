@@ -0,0 +1,229 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.directory.DirContext;
+
+import net.archigny.adutils.password.util.PasswordSettingsMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.core.ContextSource;
+
+public class PasswordSettingsRefreshSchedulerTest {
+
+    private PasswordSettingsRefreshScheduler scheduler;
+
+    /**
+     * Dummy provider counting its refreshes
+     */
+    private static class CountingRefreshable implements IRefreshable {
+
+        final AtomicInteger refreshes   = new AtomicInteger(0);
+
+        final AtomicInteger interrupted = new AtomicInteger(0);
+
+        final long          interval;
+
+        final long          duration;
+
+        CountingRefreshable(final long interval, final long duration) {
+
+            this.interval = interval;
+            this.duration = duration;
+        }
+
+        @Override
+        public boolean refresh() {
+
+            refreshes.incrementAndGet();
+            if (duration > 0) {
+                try {
+                    Thread.sleep(duration);
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public long getRefreshInterval() {
+
+            return interval;
+        }
+    }
+
+    /**
+     * Directory which cannot be reached for its first connections
+     */
+    private static class FlakyContextSource implements ContextSource {
+
+        final ContextSource delegate;
+
+        final AtomicInteger failures;
+
+        FlakyContextSource(final ContextSource delegate, final int failures) {
+
+            this.delegate = delegate;
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public DirContext getReadOnlyContext() {
+
+            if (failures.getAndDecrement() > 0) {
+                throw new CommunicationException(new javax.naming.CommunicationException("DC is down"));
+            }
+            return delegate.getReadOnlyContext();
+        }
+
+        @Override
+        public DirContext getReadWriteContext() {
+
+            return getReadOnlyContext();
+        }
+
+        @Override
+        public DirContext getContext(final String principal, final String credentials) {
+
+            return getReadOnlyContext();
+        }
+    }
+
+    @Before
+    public void setUp() {
+
+        scheduler = new PasswordSettingsRefreshScheduler();
+        scheduler.setMinimumSpacing(10);
+        scheduler.setRetryInterval(50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        scheduler.destroy();
+    }
+
+    @Test
+    public void testPeriodicRefresh() throws Exception {
+
+        CountingRefreshable target = new CountingRefreshable(100, 0);
+        scheduler.register(target);
+
+        // Startup fetch is supposed to have been done by the provider
+        assertEquals(0, target.refreshes.get());
+        Thread.sleep(550);
+        assertTrue(target.refreshes.get() >= 3);
+
+        scheduler.unregister(target);
+        int count = target.refreshes.get();
+        Thread.sleep(300);
+        assertTrue(target.refreshes.get() <= count + 1);
+    }
+
+    @Test
+    public void testRequestRefresh() throws Exception {
+
+        CountingRefreshable target = new CountingRefreshable(3600000L, 0);
+        assertFalse(scheduler.requestRefresh(target));
+
+        scheduler.register(target);
+        assertTrue(scheduler.requestRefresh(target));
+        Thread.sleep(200);
+        assertEquals(1, target.refreshes.get());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+
+        CountingRefreshable target = new CountingRefreshable(3600000L, 10000L);
+        scheduler.register(target, 100);
+        scheduler.requestRefresh(target);
+
+        // Interrupted after 100 ms, then retried after 50 ms
+        Thread.sleep(400);
+        assertTrue(target.interrupted.get() >= 1);
+        assertTrue(target.refreshes.get() >= 2);
+    }
+
+    @Test
+    public void testDeadlineIgnored() throws Exception {
+
+        // Like a blocking JNDI read, ignores interrupts
+        final AtomicInteger concurrent = new AtomicInteger(0);
+        final AtomicInteger overlaps = new AtomicInteger(0);
+        final CountingRefreshable target = new CountingRefreshable(3600000L, 0) {
+
+            @Override
+            public boolean refresh() {
+
+                if (concurrent.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                refreshes.incrementAndGet();
+                final long end = System.currentTimeMillis() + 300;
+                while (System.currentTimeMillis() < end) {
+                    Thread.interrupted();
+                    Thread.yield();
+                }
+                concurrent.decrementAndGet();
+                return false;
+            }
+        };
+        scheduler.register(target, 100);
+        scheduler.requestRefresh(target);
+
+        // Retry planned when the refresh really ends, not at its deadline
+        Thread.sleep(250);
+        assertEquals(1, target.refreshes.get());
+        Thread.sleep(500);
+        assertTrue(target.refreshes.get() >= 2);
+        assertEquals(0, overlaps.get());
+    }
+
+    @Test
+    public void testSpacing() throws Exception {
+
+        scheduler.setMinimumSpacing(200);
+        CountingRefreshable first = new CountingRefreshable(3600000L, 0);
+        CountingRefreshable second = new CountingRefreshable(3600000L, 0);
+        scheduler.register(first);
+        scheduler.register(second);
+
+        scheduler.requestRefresh(first);
+        scheduler.requestRefresh(second);
+        Thread.sleep(100);
+        assertEquals(1, first.refreshes.get() + second.refreshes.get());
+    }
+
+    @Test
+    public void testRetryAfterFailedStartup() throws Exception {
+
+        final String domainDN = "DC=in,DC=archigny,DC=org";
+        final InMemoryDirectory directory = new InMemoryDirectory();
+        directory.put(domainDN, InMemoryDirectory.attributes("objectClass", "domainDNS", PasswordSettingsMapper.AD_MINPWDLENGTH,
+                "7"));
+
+        final DefaultDomainPolicyPasswordSettingsProvider provider = new DefaultDomainPolicyPasswordSettingsProvider();
+        provider.setContextSource(new FlakyContextSource(directory, 1));
+        provider.setDomainDN(domainDN);
+        provider.setRefreshScheduler(scheduler);
+        provider.afterPropertiesSet();
+        try {
+            // Startup fetch failed, retried after retryInterval instead of refreshInterval
+            assertEquals(0, provider.getLastTimeFetched());
+            Thread.sleep(300);
+            assertTrue(provider.getLastTimeFetched() > 0);
+            assertEquals(7, provider.getPasswordSettings().getMinimumPasswordLength());
+        } finally {
+            provider.destroy();
+        }
+    }
+
+}
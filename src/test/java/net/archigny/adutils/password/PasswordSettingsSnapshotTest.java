@@ -0,0 +1,130 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import javax.naming.directory.DirContext;
+
+import net.archigny.adutils.password.util.PasswordSettingsMapper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.core.ContextSource;
+
+public class PasswordSettingsSnapshotTest {
+
+    private static final String DOMAIN_DN    = "DC=in,DC=archigny,DC=org";
+
+    private static final String CONTAINER_DN = PasswordSettingsContainerProvider.AD_DEFAULT_CONTAINER_RDN + "," + DOMAIN_DN;
+
+    private static final String PSO_DN       = "CN=test," + CONTAINER_DN;
+
+    @Rule
+    public TemporaryFolder      folder       = new TemporaryFolder();
+
+    /**
+     * Directory which cannot be reached
+     */
+    private static class UnreachableContextSource implements ContextSource {
+
+        @Override
+        public DirContext getReadOnlyContext() {
+
+            throw new CommunicationException(new javax.naming.CommunicationException("DC is down"));
+        }
+
+        @Override
+        public DirContext getReadWriteContext() {
+
+            return getReadOnlyContext();
+        }
+
+        @Override
+        public DirContext getContext(final String principal, final String credentials) {
+
+            return getReadOnlyContext();
+        }
+    }
+
+    @Test
+    public void testWarmStart() throws Exception {
+
+        final File psoFile = new File(folder.getRoot(), "pso.snapshot");
+        final File domainFile = new File(folder.getRoot(), "domain.snapshot");
+
+        final InMemoryDirectory directory = new InMemoryDirectory();
+        directory.put(DOMAIN_DN, InMemoryDirectory.attributes("objectClass", "domainDNS", PasswordSettingsMapper.AD_MINPWDLENGTH,
+                "7"));
+        directory.put(PSO_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "12"));
+
+        // First start : read from the directory, then saved
+        PasswordSettingsContainerProvider psoProvider = new PasswordSettingsContainerProvider();
+        psoProvider.setContextSource(directory);
+        psoProvider.setContainerDN(CONTAINER_DN);
+        psoProvider.setSnapshotFile(psoFile);
+        psoProvider.afterPropertiesSet();
+        psoProvider.destroy();
+
+        DefaultDomainPolicyPasswordSettingsProvider domainProvider = new DefaultDomainPolicyPasswordSettingsProvider();
+        domainProvider.setContextSource(directory);
+        domainProvider.setDomainDN(DOMAIN_DN);
+        domainProvider.setSnapshotFile(domainFile);
+        domainProvider.afterPropertiesSet();
+        domainProvider.destroy();
+
+        assertTrue(psoFile.exists());
+        assertTrue(domainFile.exists());
+
+        // Second start, directory is down : settings served from the snapshots
+        psoProvider = new PasswordSettingsContainerProvider();
+        psoProvider.setContextSource(new UnreachableContextSource());
+        psoProvider.setContainerDN(CONTAINER_DN);
+        psoProvider.setSnapshotFile(psoFile);
+        psoProvider.afterPropertiesSet();
+        assertEquals(12, psoProvider.getPasswordSettings(PSO_DN).getMinimumPasswordLength());
+        assertTrue(psoProvider.getLastTimeFetched() > 0);
+        psoProvider.destroy();
+
+        domainProvider = new DefaultDomainPolicyPasswordSettingsProvider();
+        domainProvider.setContextSource(new UnreachableContextSource());
+        domainProvider.setDomainDN(DOMAIN_DN);
+        domainProvider.setSnapshotFile(domainFile);
+        domainProvider.afterPropertiesSet();
+        assertEquals(7, domainProvider.getPasswordSettings().getMinimumPasswordLength());
+        domainProvider.destroy();
+    }
+
+    @Test
+    public void testUnchangedSettingsNotSaved() throws Exception {
+
+        final File psoFile = new File(folder.getRoot(), "pso.snapshot");
+
+        final InMemoryDirectory directory = new InMemoryDirectory();
+        directory.put(PSO_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "12"));
+
+        final PasswordSettingsContainerProvider psoProvider = new PasswordSettingsContainerProvider();
+        psoProvider.setContextSource(directory);
+        psoProvider.setContainerDN(CONTAINER_DN);
+        psoProvider.setSnapshotFile(psoFile);
+        psoProvider.afterPropertiesSet();
+        assertTrue(psoFile.exists());
+
+        // Same settings read again : the file is not rewritten
+        assertTrue(psoFile.delete());
+        assertTrue(psoProvider.refresh());
+        assertFalse(psoFile.exists());
+
+        // Settings changed : saved again
+        directory.put(PSO_DN, InMemoryDirectory.attributes("objectClass", "msDS-PasswordSettings",
+                PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "14"));
+        assertTrue(psoProvider.refresh());
+        assertTrue(psoFile.exists());
+        psoProvider.destroy();
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.archigny.adutils.password;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PasswordSettingsTest {
+
+    private static final PasswordSettings PSO = new PasswordSettings(false, 24, true, 8, I8.DAY, 90 * I8.DAY, 5, 30 * I8.MINUTE,
+                                                  30 * I8.MINUTE);
+
+    @Test
+    public void testBuilder() {
+
+        PasswordSettings built = PasswordSettings.builder().historyLength(24).passwordComplexity(true).minimumPasswordLength(8)
+                .minimumPasswordAge(I8.DAY).maximumPasswordAge(90 * I8.DAY).lockoutThreshold(5).lockoutDuration(30 * I8.MINUTE)
+                .lockoutObservationWindow(30 * I8.MINUTE).build();
+
+        assertEquals(PSO, built);
+        assertEquals(PSO.hashCode(), built.hashCode());
+        assertTrue(built.isValid());
+
+        PasswordSettings other = PasswordSettings.builder().from(PSO).reversibleEncryption(true).build();
+        assertFalse(PSO.equals(other));
+        assertTrue(other.isReversibleEncryption());
+        assertEquals(24, other.getHistoryLength());
+    }
+
+    @Test
+    public void testDurations() {
+
+        assertEquals(90 * 86400000L, PSO.getMaximumPasswordAgeMillis());
+        assertEquals(90, PSO.getMaximumPasswordAge(TimeUnit.DAYS));
+        assertEquals(86400000L, PSO.getMinimumPasswordAgeMillis());
+        assertEquals(30, PSO.getLockoutDuration(TimeUnit.MINUTES));
+        assertEquals(1800000L, PSO.getLockoutObservationWindowMillis());
+        assertEquals(1800, PSO.getLockoutObservationWindow(TimeUnit.SECONDS));
+
+        PasswordSettings never = PasswordSettings.builder().from(PSO).maximumPasswordAge(I8.NEVER).lockoutDuration(0).build();
+        assertEquals(PasswordSettings.MILLIS_NEVER, never.getMaximumPasswordAgeMillis());
+        assertEquals(Long.MAX_VALUE, never.getMaximumPasswordAge(TimeUnit.DAYS));
+        assertEquals(Long.MAX_VALUE, never.getLockoutDuration(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testValidation() {
+
+        // Maximum age cannot be zero, minimum age cannot be greater than maximum age
+        assertFalse(PasswordSettings.builder().from(PSO).maximumPasswordAge(0).build().isValid());
+        assertFalse(PasswordSettings.builder().from(PSO).minimumPasswordAge(91 * I8.DAY).build().isValid());
+        assertFalse(PasswordSettings.builder().from(PSO).lockoutObservationWindow(31 * I8.MINUTE).build().isValid());
+    }
+
+}
@@ -0,0 +1,44 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.security.MessageDigest;
+import java.security.Security;
+
+import org.junit.Test;
+
+public class ADUtilsProviderTest {
+
+    @Test
+    public void testMessageDigest() throws Exception {
+
+        ADUtilsProvider.install();
+        assertFalse(ADUtilsProvider.install());
+        assertNotNull(Security.getProvider(ADUtilsProvider.NAME));
+
+        MessageDigest md = MessageDigest.getInstance("MD4", ADUtilsProvider.NAME);
+        assertTrue(md instanceof MD4);
+        assertEquals(ADUtilsProvider.NAME, md.getProvider().getName());
+        assertEquals(16, md.getDigestLength());
+
+        // RFC 1320 test suite
+        assertEquals("31d6cfe0d16ae931b73c59d7e0c089c0", HexCodec.encode(md.digest(), false));
+        assertEquals("a448017aaf21d8525fc10ae87aa6729d", HexCodec.encode(md.digest("abc".getBytes("US-ASCII")), false));
+
+        // Instances are independent
+        MessageDigest other = MessageDigest.getInstance("MD4", ADUtilsProvider.NAME);
+        assertNotSame(md, other);
+        md.update("a".getBytes("US-ASCII"));
+        assertEquals("d9130a8164549fe818874806e1c7014b",
+                HexCodec.encode(other.digest("message digest".getBytes("US-ASCII")), false));
+        assertEquals("bde52cb31de33e46245e05fbdbd6fb24", HexCodec.encode(md.digest(), false));
+
+        // Clone of a digest in progress
+        md.update("message ".getBytes("US-ASCII"));
+        MessageDigest clone = (MessageDigest) md.clone();
+        assertEquals("d9130a8164549fe818874806e1c7014b",
+                HexCodec.encode(clone.digest("digest".getBytes("US-ASCII")), false));
+        assertEquals("d9130a8164549fe818874806e1c7014b", HexCodec.encode(md.digest("digest".getBytes("US-ASCII")), false));
+    }
+
+}
@@ -0,0 +1,67 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testEviction() {
+
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(2, 0);
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        // "a" becomes the most recently used
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 50);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100, 0);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 1000;
+            threads[t] = new Thread() {
+
+                @Override
+                public void run() {
+
+                    for (int i = 0; i < 1000; i++) {
+                        cache.put(Integer.valueOf(offset + i), Integer.valueOf(i));
+                        cache.get(Integer.valueOf(offset + i / 2));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(cache.size() <= 100);
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,119 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BreachedHashStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes the hashes sorted in unsigned order
+     */
+    private File write(final byte[][] hashes) throws IOException {
+
+        byte[][] sorted = hashes.clone();
+        Arrays.sort(sorted, new Comparator<byte[]>() {
+
+            @Override
+            public int compare(final byte[] a, final byte[] b) {
+
+                for (int i = 0; i < a.length; i++) {
+                    int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+                    if (difference != 0) {
+                        return difference;
+                    }
+                }
+                return 0;
+            }
+        });
+        File file = folder.newFile("hashes.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (byte[] hash : sorted) {
+                out.write(hash);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[][] randomHashes(final int count, final long seed) {
+
+        Random random = new Random(seed);
+        byte[][] hashes = new byte[count][16];
+        for (byte[] hash : hashes) {
+            random.nextBytes(hash);
+        }
+        return hashes;
+    }
+
+    @Test
+    public void testContains() throws Exception {
+
+        byte[][] hashes = randomHashes(20000, 1);
+        hashes[0] = PasswordHashes.computeNTPassword("Password");
+        File file = write(hashes);
+
+        // Small segments so that entries are spread on several mappings
+        BreachedHashStore[] stores = { new BreachedHashStore(file), new BreachedHashStore(file, 10, 10) };
+        for (BreachedHashStore store : stores) {
+            assertEquals(20000, store.size());
+            assertTrue(store.contains(PasswordHashes.computeNTPassword("Password")));
+            assertFalse(store.contains(PasswordHashes.computeNTPassword("not breached")));
+            for (byte[] hash : hashes) {
+                assertTrue(store.contains(hash));
+            }
+            for (byte[] hash : randomHashes(20000, 2)) {
+                assertFalse(store.contains(hash));
+            }
+            store.close();
+        }
+        assertTrue(stores[1].hasBloomFilter());
+        assertFalse(stores[0].hasBloomFilter());
+    }
+
+    @Test
+    public void testEmptyAndInvalidFiles() throws Exception {
+
+        BreachedHashStore empty = new BreachedHashStore(folder.newFile("empty.bin"), 10);
+        assertEquals(0, empty.size());
+        assertFalse(empty.contains(new byte[16]));
+
+        File truncated = folder.newFile("truncated.bin");
+        FileOutputStream out = new FileOutputStream(truncated);
+        out.write(new byte[20]);
+        out.close();
+        try {
+            new BreachedHashStore(truncated);
+            fail("Truncated file accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        File unsorted = folder.newFile("unsorted.bin");
+        out = new FileOutputStream(unsorted);
+        out.write(new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+        out.write(new byte[16]);
+        out.close();
+        try {
+            new BreachedHashStore(unsorted, 10);
+            fail("Unsorted file accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkPasswordHasherTest {
+
+    private ExecutorService executor;
+
+    private CharSequence[]  passwords;
+
+    @Before
+    public void setUp() {
+
+        executor = Executors.newFixedThreadPool(3);
+        Random random = new Random(7);
+        passwords = new CharSequence[5000];
+        for (int i = 0; i < passwords.length; i++) {
+            char[] password = new char[1 + random.nextInt(20)];
+            for (int j = 0; j < password.length; j++) {
+                password[j] = (char) (0x21 + random.nextInt(0x5E));
+            }
+            passwords[i] = new String(password);
+        }
+    }
+
+    @After
+    public void tearDown() {
+
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testNT() {
+
+        byte[] hashes = new BulkPasswordHasher(BulkPasswordHasher.Algorithm.NT, executor, 4).hash(passwords);
+        assertEquals(passwords.length * 16, hashes.length);
+        for (int i = 0; i < passwords.length; i++) {
+            assertTrue(Arrays.equals(PasswordHashes.computeNTPassword(passwords[i].toString()),
+                    Arrays.copyOfRange(hashes, i * 16, i * 16 + 16)));
+        }
+    }
+
+    @Test
+    public void testLM() {
+
+        byte[] hashes = new byte[16 + passwords.length * 16];
+        new BulkPasswordHasher(BulkPasswordHasher.Algorithm.LM, executor, 4).hash(passwords, 0, passwords.length, hashes, 16);
+        for (int i = 0; i < passwords.length; i++) {
+            assertTrue(Arrays.equals(PasswordHashes.computeLMPassword(passwords[i].toString()),
+                    Arrays.copyOfRange(hashes, 16 + i * 16, 32 + i * 16)));
+        }
+    }
+
+    @Test
+    public void testPacked() {
+
+        final StringBuilder packed = new StringBuilder();
+        final int[] bounds = new int[passwords.length + 1];
+        for (int i = 0; i < passwords.length; i++) {
+            packed.append(passwords[i]);
+            bounds[i + 1] = packed.length();
+        }
+        final char[] chars = packed.toString().toCharArray();
+
+        for (BulkPasswordHasher.Algorithm algorithm : BulkPasswordHasher.Algorithm.values()) {
+            final BulkPasswordHasher hasher = new BulkPasswordHasher(algorithm, executor, 4);
+            final byte[] hashes = new byte[passwords.length * 16];
+            hasher.hash(chars, bounds, passwords.length, hashes, 0);
+            assertTrue(algorithm.name(), Arrays.equals(hasher.hash(passwords), hashes));
+        }
+    }
+
+    @Test
+    public void testIterator() {
+
+        final BulkPasswordHasher hasher = new BulkPasswordHasher(BulkPasswordHasher.Algorithm.NT, executor, 4);
+        final byte[] expected = hasher.hash(passwords);
+        final int[] seen = new int[1];
+
+        long count = hasher.hash(Arrays.asList(passwords).iterator(), 1000, new IBulkHashHandler() {
+
+            @Override
+            public void handleHashes(final CharSequence[] chunk, final int chunkCount, final byte[] hashes) {
+
+                for (int i = 0; i < chunkCount; i++) {
+                    assertSame(passwords[seen[0] + i], chunk[i]);
+                }
+                assertTrue(Arrays.equals(Arrays.copyOfRange(expected, seen[0] * 16, (seen[0] + chunkCount) * 16),
+                        Arrays.copyOf(hashes, chunkCount * 16)));
+                seen[0] += chunkCount;
+            }
+        });
+        assertEquals(passwords.length, count);
+        assertEquals(passwords.length, seen[0]);
+    }
+
+    @Test
+    public void testFailure() {
+
+        passwords[4321] = null;
+        try {
+            new BulkPasswordHasher(BulkPasswordHasher.Algorithm.NT, executor, 4).hash(passwords);
+            fail("Null candidate accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected, rethrown from a worker thread
+        }
+    }
+
+}
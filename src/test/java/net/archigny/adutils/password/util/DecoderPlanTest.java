@@ -0,0 +1,115 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+import org.junit.Test;
+
+public class DecoderPlanTest {
+
+    private static final String PRECEDENCE   = "msDS-PasswordSettingsPrecedence";
+
+    private static final String APPLIES_TO   = "msDS-PSOAppliesTo";
+
+    private static final String WHEN_CHANGED = "whenChanged";
+
+    /**
+     * Attributes of a PSO which are not part of PasswordSettings
+     */
+    private static final class PsoScope {
+
+        int          precedence;
+
+        List<String> appliesTo;
+
+        long         whenChanged;
+    }
+
+    private static final DecoderPlan<PsoScope> PLAN = DecoderPlan.<PsoScope> builder()
+            .bind(PRECEDENCE, new FieldDecoders.IntField<PsoScope>() {
+
+                @Override
+                protected void set(final PsoScope target, final int value) {
+
+                    target.precedence = value;
+                }
+            }).bind(APPLIES_TO, new FieldDecoders.StringsField<PsoScope>() {
+
+                @Override
+                protected void set(final PsoScope target, final List<String> values) {
+
+                    target.appliesTo = values;
+                }
+            }).bind(WHEN_CHANGED, new FieldDecoders.TimeField<PsoScope>() {
+
+                @Override
+                protected void set(final PsoScope target, final long timestamp) {
+
+                    target.whenChanged = timestamp;
+                }
+            }).build();
+
+    @Test
+    public void testDecode() throws Exception {
+
+        final BasicAttributes attributes = new BasicAttributes(true);
+        // Names as returned by the directory, in another case than bound
+        attributes.put("msds-passwordsettingsprecedence", "10");
+        final BasicAttribute appliesTo = new BasicAttribute("MSDS-PSOAPPLIESTO");
+        appliesTo.add("CN=Admins,DC=example,DC=com");
+        appliesTo.add("CN=jdoe,DC=example,DC=com");
+        attributes.put(appliesTo);
+        attributes.put(WHEN_CHANGED, "19700101000001.0Z");
+        attributes.put("cn", "not bound");
+
+        final PsoScope scope = new PsoScope();
+        assertEquals(3, PLAN.decode(attributes, scope));
+        assertEquals(10, scope.precedence);
+        assertEquals(Arrays.asList("CN=Admins,DC=example,DC=com", "CN=jdoe,DC=example,DC=com"), scope.appliesTo);
+        assertEquals(1000, scope.whenChanged);
+
+        assertTrue(PLAN.isBound("WHENCHANGED"));
+        assertFalse(PLAN.isBound("cn"));
+        assertEquals(Arrays.asList(PRECEDENCE, APPLIES_TO, WHEN_CHANGED), Arrays.asList(PLAN.getAttributeNames()));
+    }
+
+    @Test
+    public void testBindAll() throws Exception {
+
+        final DecoderPlan<PsoScope> extended = DecoderPlan.<PsoScope> builder().bindAll(PLAN)
+                .bind(PasswordSettingsMapper.AD_USN_CHANGED, new FieldDecoders.LongField<PsoScope>() {
+
+                    @Override
+                    protected void set(final PsoScope target, final long value) {
+
+                        target.whenChanged = -value;
+                    }
+                }).build();
+
+        final BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(PRECEDENCE, "1");
+        attributes.put(PasswordSettingsMapper.AD_USN_CHANGED, "1234");
+        final PsoScope scope = new PsoScope();
+        assertEquals(2, extended.decode(attributes, scope));
+        assertEquals(1, scope.precedence);
+        assertEquals(-1234, scope.whenChanged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundTwice() {
+
+        DecoderPlan.<PsoScope> builder().bindAll(PLAN).bind("whenchanged", new FieldDecoders.TimeField<PsoScope>() {
+
+            @Override
+            protected void set(final PsoScope target, final long timestamp) {
+
+            }
+        }).build();
+    }
+
+}
@@ -0,0 +1,63 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import net.archigny.adutils.password.I8;
+
+import org.junit.Test;
+
+public class FieldDecodersTest {
+
+    @Test
+    public void testParseLong() throws Exception {
+
+        final long[] values = { 0, 7, -7, I8.NEVER, Long.MAX_VALUE, 90 * I8.DAY };
+        for (long value : values) {
+            assertEquals(value, FieldDecoders.parseLong(String.valueOf(value).getBytes("US-ASCII")));
+        }
+        final String[] invalid = { "", "-", "12a", "9223372036854775808", "-9223372036854775809", "99999999999999999999" };
+        for (String value : invalid) {
+            try {
+                FieldDecoders.parseLong(value.getBytes("US-ASCII"));
+                fail(value + " parsed");
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseBoolean() throws Exception {
+
+        assertTrue(FieldDecoders.parseBoolean("TRUE"));
+        assertTrue(FieldDecoders.parseBoolean("true".getBytes("US-ASCII")));
+        assertFalse(FieldDecoders.parseBoolean("FALSE".getBytes("US-ASCII")));
+        assertFalse(FieldDecoders.parseBoolean("TRUE1"));
+    }
+
+    @Test
+    public void testParseGeneralizedTime() throws Exception {
+
+        final SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss.SSS");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        assertEquals(format.parse("20120808114143.000").getTime(), FieldDecoders.parseGeneralizedTime("20120808114143.0Z"));
+        assertEquals(format.parse("20000229235959.250").getTime(), FieldDecoders.parseGeneralizedTime("20000229235959.25Z"));
+        assertEquals(format.parse("19691231230000.000").getTime(), FieldDecoders.parseGeneralizedTime("19700101000000+0100"));
+        assertEquals(0, FieldDecoders.parseGeneralizedTime("19700101000000Z"));
+
+        final String[] invalid = { "2012080811414", "20121308114143.0Z", "20120808114143.Z", "20120808114143.0" };
+        for (String value : invalid) {
+            try {
+                FieldDecoders.parseGeneralizedTime(value);
+                fail(value + " parsed");
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class HexCodecTest {
+
+    private static final byte[] BYTES = { 0x00, 0x7F, (byte) 0x80, (byte) 0xAB, (byte) 0xFF, 0x0C };
+
+    @Test
+    public void testEncode() {
+
+        assertEquals("007f80abff0c", HexCodec.encode(BYTES, false));
+        assertEquals("007F80ABFF0C", HexCodec.encode(BYTES, true));
+
+        char[] chars = new char[8];
+        assertEquals(7, HexCodec.encode(BYTES, 2, 3, false, chars, 1));
+        assertEquals("80abff", new String(chars, 1, 6));
+
+        assertEquals("x:7F80", HexCodec.encode(BYTES, 1, 2, true, new StringBuilder("x:")).toString());
+
+        CharBuffer buffer = CharBuffer.allocate(12);
+        HexCodec.encode(BYTES, 0, BYTES.length, false, buffer);
+        assertEquals(0, buffer.remaining());
+        buffer.flip();
+        assertEquals("007f80abff0c", buffer.toString());
+    }
+
+    @Test
+    public void testDecode() {
+
+        assertTrue(Arrays.equals(BYTES, HexCodec.decode("007f80ABff0C")));
+
+        byte[] out = new byte[8];
+        assertEquals(2, HexCodec.decode("abFF", out, 6));
+        assertEquals((byte) 0xAB, out[6]);
+        assertEquals((byte) 0xFF, out[7]);
+
+        try {
+            HexCodec.decode("abc");
+            fail("Odd length accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            HexCodec.decode("0g");
+            fail("Invalid digit accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testMatches() {
+
+        assertTrue(HexCodec.matches(BYTES, 0, BYTES.length, "007F80abFF0c"));
+        assertTrue(HexCodec.matches(BYTES, 3, 2, "abff"));
+        assertFalse(HexCodec.matches(BYTES, 3, 2, "abfe"));
+        assertFalse(HexCodec.matches(BYTES, 3, 2, "abf"));
+        assertFalse(HexCodec.matches(BYTES, 3, 2, "abÿ"));
+    }
+
+}
@@ -0,0 +1,80 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class LMHashTest {
+
+    /**
+     * Reference implementation through the JCA DES cipher
+     */
+    private static byte[] reference(final byte[] password) throws Exception {
+
+        Cipher cipher = Cipher.getInstance("DES/ECB/NoPadding");
+        byte[] result = new byte[16];
+        for (int half = 0; half < 2; half++) {
+            byte[] key = new byte[8];
+            long bits = 0;
+            for (int i = 0; i < 7; i++) {
+                bits = (bits << 8) | (password[half * 7 + i] & 0xFF);
+            }
+            for (int i = 0; i < 8; i++) {
+                key[i] = (byte) (((bits >>> (49 - 7 * i)) & 0x7F) << 1);
+            }
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "DES"));
+            cipher.doFinal(PasswordHashes.MAGIC, 0, 8, result, half * 8);
+        }
+        return result;
+    }
+
+    @Test
+    public void testSameAsDES() throws Exception {
+
+        LMHash engine = new LMHash();
+        Random random = new Random(3);
+        byte[] password = new byte[14];
+        byte[] out = new byte[16];
+        for (int i = 0; i < 2000; i++) {
+            random.nextBytes(password);
+            engine.hash(password, out, 0);
+            assertTrue(Arrays.equals(reference(password), out));
+        }
+    }
+
+    @Test
+    public void testMemo() throws Exception {
+
+        LMHash plain = new LMHash();
+        LMHash memo = new LMHash(64);
+        Random random = new Random(5);
+        byte[] expected = new byte[16];
+        byte[] out = new byte[16];
+        // Few distinct halves, so most of them are found in the memo, some collide
+        String[] halves = new String[200];
+        for (int i = 0; i < halves.length; i++) {
+            halves[i] = Integer.toString(random.nextInt(1000000), 36);
+        }
+        for (int i = 0; i < 5000; i++) {
+            String password = halves[random.nextInt(halves.length)] + halves[random.nextInt(halves.length)];
+            plain.hash(password, expected, 0);
+            memo.hash(password, out, 0);
+            assertTrue(password, Arrays.equals(expected, out));
+        }
+    }
+
+    @Test
+    public void testEmptyPassword() {
+
+        byte[] out = new byte[16];
+        new LMHash().hash("", out, 0);
+        assertEquals("aad3b435b51404eeaad3b435b51404ee", PasswordHashes.getLowerCaseHexString(out));
+    }
+
+}
@@ -0,0 +1,120 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+
+import net.archigny.adutils.password.InMemoryDirectory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.core.ContextSource;
+
+public class LdapChangeNotificationListenerTest {
+
+    private static final String              DOMAIN_DN = "DC=in,DC=archigny,DC=org";
+
+    private InMemoryDirectory                directory;
+
+    private LdapChangeNotificationListener   listener;
+
+    /**
+     * Records the callbacks, in order
+     */
+    private final BlockingQueue<String>      events    = new LinkedBlockingQueue<String>();
+
+    private final IChangeNotificationHandler handler   = new IChangeNotificationHandler() {
+
+        @Override
+        public void subscriptionStarted() {
+
+            events.add("started");
+        }
+
+        @Override
+        public void entryChanged(final String dn, final Attributes attributes) {
+
+            events.add("changed " + dn);
+        }
+
+        @Override
+        public void subscriptionLost() {
+
+            events.add("lost");
+        }
+    };
+
+    @Before
+    public void setUp() {
+
+        directory = new InMemoryDirectory();
+        directory.put(DOMAIN_DN, InMemoryDirectory.attributes("objectClass", "domainDNS"));
+        // Search only returns with the first change, as the JNDI LDAP provider does
+        directory.setBlockingNotifications(true);
+        listener = new LdapChangeNotificationListener(directory, DOMAIN_DN, SearchControls.OBJECT_SCOPE, null, handler);
+        listener.setConfirmationDelay(100);
+        listener.setRetryDelay(50);
+    }
+
+    @After
+    public void tearDown() {
+
+        listener.stop();
+    }
+
+    @Test
+    public void testSubscribedWithoutChange() throws Exception {
+
+        listener.start();
+        assertEquals("started", events.poll(2, TimeUnit.SECONDS));
+        assertTrue(listener.isSubscribed());
+
+        directory.modify(DOMAIN_DN, "description", "changed");
+        assertEquals("changed " + DOMAIN_DN, events.poll(2, TimeUnit.SECONDS));
+
+        directory.dropNotifications();
+        assertEquals("lost", events.poll(2, TimeUnit.SECONDS));
+        assertFalse(listener.isSubscribed());
+    }
+
+    @Test
+    public void testFailedSearchNotConfirmed() throws Exception {
+
+        listener = new LdapChangeNotificationListener(new ContextSource() {
+
+            @Override
+            public DirContext getReadOnlyContext() {
+
+                throw new CommunicationException(new javax.naming.CommunicationException("DC is down"));
+            }
+
+            @Override
+            public DirContext getReadWriteContext() {
+
+                return getReadOnlyContext();
+            }
+
+            @Override
+            public DirContext getContext(final String principal, final String credentials) {
+
+                return getReadOnlyContext();
+            }
+        }, DOMAIN_DN, SearchControls.OBJECT_SCOPE, null, handler);
+        listener.setConfirmationDelay(20);
+        listener.setRetryDelay(20);
+        listener.start();
+
+        // Failed attempts are never confirmed
+        assertNull(events.poll(300, TimeUnit.MILLISECONDS));
+        assertFalse(listener.isSubscribed());
+    }
+
+}
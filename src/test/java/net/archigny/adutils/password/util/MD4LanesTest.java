@@ -0,0 +1,83 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MD4LanesTest {
+
+    private static String[] passwords(final int count, final int maxLength) {
+
+        final Random random = new Random(3);
+        final String[] passwords = new String[count];
+        for (int i = 0; i < count; i++) {
+            final char[] password = new char[random.nextInt(maxLength + 1)];
+            for (int j = 0; j < password.length; j++) {
+                password[j] = (char) (0x20 + random.nextInt(0x1000));
+            }
+            passwords[i] = new String(password);
+        }
+        return passwords;
+    }
+
+    @Test
+    public void testNT() {
+
+        // Lengths around the one-block limit, count not a multiple of the lanes
+        final String[] passwords = passwords(1003, 40);
+        final byte[] hashes = new byte[16 + passwords.length * 16];
+        new MD4Lanes().hashNT(passwords, 0, passwords.length, hashes, 16);
+        for (int i = 0; i < passwords.length; i++) {
+            assertTrue(passwords[i], Arrays.equals(PasswordHashes.computeNTPassword(passwords[i]),
+                    Arrays.copyOfRange(hashes, 16 + i * 16, 32 + i * 16)));
+        }
+    }
+
+    @Test
+    public void testNTPacked() {
+
+        final String[] passwords = passwords(501, 30);
+        final StringBuilder packed = new StringBuilder();
+        final int[] bounds = new int[passwords.length + 1];
+        for (int i = 0; i < passwords.length; i++) {
+            packed.append(passwords[i]);
+            bounds[i + 1] = packed.length();
+        }
+
+        final MD4Lanes engine = new MD4Lanes();
+        final byte[] expected = new byte[passwords.length * 16];
+        engine.hashNT(passwords, 0, passwords.length, expected, 0);
+        final byte[] hashes = new byte[passwords.length * 16];
+        engine.hashNT(packed.toString().toCharArray(), bounds, 0, passwords.length, hashes, 0);
+        assertTrue(Arrays.equals(expected, hashes));
+    }
+
+    @Test
+    public void testDigest() {
+
+        final Random random = new Random(5);
+        final byte[][] messages = new byte[300][];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new byte[i % 70];
+            random.nextBytes(messages[i]);
+        }
+
+        final byte[] digests = new byte[messages.length * 16];
+        new MD4Lanes().digest(messages, 0, messages.length, digests, 0);
+        final MD4 md4 = new MD4();
+        for (int i = 0; i < messages.length; i++) {
+            assertTrue("Length " + messages[i].length,
+                    Arrays.equals(md4.digest(messages[i]), Arrays.copyOfRange(digests, i * 16, i * 16 + 16)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRange() {
+
+        new MD4Lanes().hashNT(new String[] { "a", "b" }, 1, 2, new byte[32], 0);
+    }
+
+}
@@ -0,0 +1,63 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NTHashTest {
+
+    /**
+     * Reference implementation : MD4 over the UTF-16LE encoding
+     */
+    private static byte[] reference(final char[] password) throws Exception {
+
+        byte[] encoded = new String(password).getBytes("UTF-16LE");
+        return new MD4().digest(encoded);
+    }
+
+    @Test
+    public void testKnownValues() {
+
+        NTHash engine = new NTHash();
+        byte[] out = new byte[16];
+
+        engine.hash("", out, 0);
+        assertEquals("31d6cfe0d16ae931b73c59d7e0c089c0", PasswordHashes.getLowerCaseHexString(out));
+
+        // [MS-NLMP] 4.2.1
+        engine.hash("Password", out, 0);
+        assertEquals("a4f49c406510bdcab6824ee7c30fd852", PasswordHashes.getLowerCaseHexString(out));
+    }
+
+    @Test
+    public void testSameAsMD4() throws Exception {
+
+        NTHash engine = new NTHash();
+        Random random = new Random(42);
+        byte[] out = new byte[20];
+
+        // Covers one, two and more blocks, and every padding position
+        for (int length = 0; length < 140; length++) {
+            char[] password = new char[length];
+            for (int i = 0; i < length; i++) {
+                password[i] = (char) (random.nextInt(0x2FFF) + 0x20);
+            }
+            byte[] expected = reference(password);
+
+            engine.hash(password, out, 4);
+            assertTrue("char[] of length " + length, Arrays.equals(expected, Arrays.copyOfRange(out, 4, 20)));
+
+            engine.hash(new StringBuilder().append(password), out, 0);
+            assertTrue("CharSequence of length " + length, Arrays.equals(expected, Arrays.copyOf(out, 16)));
+
+            char[] padded = new char[length + 3];
+            System.arraycopy(password, 0, padded, 2, length);
+            engine.hash(padded, 2, length, out, 0);
+            assertTrue("range of length " + length, Arrays.equals(expected, Arrays.copyOf(out, 16)));
+        }
+    }
+
+}
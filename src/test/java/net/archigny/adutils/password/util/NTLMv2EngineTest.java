@@ -0,0 +1,67 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Test vectors of [MS-NLMP] 4.2.4
+ */
+public class NTLMv2EngineTest {
+
+    private static final String USER             = "User";
+
+    private static final String DOMAIN           = "Domain";
+
+    private static final String PASSWORD         = "Password";
+
+    private static final byte[] SERVER_CHALLENGE = HexCodec.decode("0123456789abcdef");
+
+    private static final byte[] CLIENT_CHALLENGE = HexCodec.decode("aaaaaaaaaaaaaaaa");
+
+    /**
+     * MsvAvNbDomainName "Domain", MsvAvNbComputerName "Server", MsvAvEOL
+     */
+    private static final byte[] AV_PAIRS         = HexCodec.decode("02000c0044006f006d00610069006e00"
+                                                         + "01000c0053006500720076006500720000000000");
+
+    @Test
+    public void testVectors() {
+
+        NTLMv2Engine engine = NTLMv2Engine.forCurrentThread();
+        byte[] responseKey = new byte[16];
+        engine.computeNTOWFv2(PASSWORD, USER, DOMAIN, responseKey, 0);
+        assertEquals("0c868a403bfd7a93a3001ef22ef02e3f", HexCodec.encode(responseKey, false));
+
+        byte[] ntHash = PasswordHashes.computeNTPassword(PASSWORD);
+        byte[] fromHash = new byte[16];
+        engine.computeNTOWFv2(ntHash, 0, "user", DOMAIN, fromHash, 0);
+        assertTrue(Arrays.equals(responseKey, fromHash));
+
+        byte[] lmv2 = new byte[24];
+        engine.computeLMv2Response(responseKey, 0, SERVER_CHALLENGE, CLIENT_CHALLENGE, lmv2, 0);
+        assertEquals("86c35097ac9cec102554764a57cccc19aaaaaaaaaaaaaaaa", HexCodec.encode(lmv2, false));
+
+        // NT response : NTProofStr followed by temp
+        byte[] response = new byte[16 + 28 + AV_PAIRS.length + 4];
+        int tempLength = NTLMv2Engine.writeClientChallenge(0, CLIENT_CHALLENGE, AV_PAIRS, response, 16);
+        assertEquals(response.length - 16, tempLength);
+        engine.computeNTProofStr(responseKey, 0, SERVER_CHALLENGE, response, 16, tempLength, response, 0);
+        assertEquals("68cd0ab851e51c96aabc927bebef6a1c", HexCodec.encode(Arrays.copyOf(response, 16), false));
+
+        byte[] sessionBaseKey = new byte[16];
+        engine.computeSessionBaseKey(responseKey, 0, response, 0, sessionBaseKey, 0);
+        assertEquals("8de40ccadbc14a82f15cb0ad0de95ca3", HexCodec.encode(sessionBaseKey, false));
+
+        byte[] verifiedKey = new byte[16];
+        assertTrue(engine.verifyNTResponse(responseKey, 0, SERVER_CHALLENGE, response, 0, response.length, verifiedKey));
+        assertTrue(Arrays.equals(sessionBaseKey, verifiedKey));
+
+        response[20] ^= 1;
+        assertFalse(engine.verifyNTResponse(responseKey, 0, SERVER_CHALLENGE, response, 0, response.length, null));
+        assertFalse(engine.verifyNTResponse(responseKey, 0, SERVER_CHALLENGE, response, 0, 20, null));
+    }
+
+}
@@ -0,0 +1,125 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PasswordHashPipelineTest {
+
+    @Rule
+    public TemporaryFolder       folder = new TemporaryFolder();
+
+    private ExecutorService      executor;
+
+    private PasswordHashPipeline pipeline;
+
+    @Before
+    public void setUp() {
+
+        executor = Executors.newFixedThreadPool(2);
+        pipeline = new PasswordHashPipeline(new BulkPasswordHasher(BulkPasswordHasher.Algorithm.NT, executor, 2));
+    }
+
+    @After
+    public void tearDown() {
+
+        executor.shutdownNow();
+    }
+
+    private File write(final String content) throws IOException {
+
+        final File file = folder.newFile("input.txt");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private void check(final File output, final String... lines) throws IOException {
+
+        final RandomAccessFile in = new RandomAccessFile(output, "r");
+        try {
+            assertEquals(lines.length * 16L, in.length());
+            final byte[] hash = new byte[16];
+            for (String line : lines) {
+                in.readFully(hash);
+                // null : rejected line
+                final byte[] expected = (line == null) ? new byte[16] : PasswordHashes.computeNTPassword(line);
+                assertTrue(line, Arrays.equals(expected, hash));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testLines() throws IOException {
+
+        final File output = folder.newFile("output.bin");
+        final PasswordHashPipeline.Statistics statistics = pipeline.run(
+                write("\uFEFFpassword\r\n\nPässwörd€\nlast"), output);
+
+        assertEquals(4, statistics.getLines());
+        check(output, "password", "", "Pässwörd€", "last");
+    }
+
+    @Test
+    public void testBatches() throws IOException {
+
+        final Random random = new Random(11);
+        final String[] lines = new String[1000];
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            final char[] line = new char[random.nextInt(30)];
+            for (int j = 0; j < line.length; j++) {
+                line[j] = (char) (0x20 + random.nextInt(0x300));
+            }
+            lines[i] = new String(line);
+            content.append(lines[i]).append('\n');
+        }
+
+        // Lines and multi-byte sequences span read buffers and batches
+        pipeline.setBatchSize(7);
+        pipeline.setReadBufferSize(61);
+        final File output = folder.newFile("output.bin");
+        assertEquals(lines.length, pipeline.run(write(content.toString()), output).getLines());
+        check(output, lines);
+    }
+
+    @Test
+    public void testLongLines() throws IOException {
+
+        pipeline.setMaxLineLength(8);
+        pipeline.setBatchSize(2);
+        final StringBuilder crOnly = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            crOnly.append("pass").append('\r');
+        }
+
+        // Line of exactly 8 chars followed by CR is accepted, CR only line endings make one long line
+        final File output = folder.newFile("output.bin");
+        final PasswordHashPipeline.Statistics statistics = pipeline.run(
+                write("short\n0123456789abcdef\n01234567\r\n" + crOnly + "\nlast"), output);
+
+        assertEquals(5, statistics.getLines());
+        assertEquals(2, statistics.getRejectedLines());
+        check(output, "short", null, "01234567", null, "last");
+    }
+
+}
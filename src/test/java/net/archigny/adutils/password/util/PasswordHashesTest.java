@@ -2,6 +2,7 @@ package net.archigny.adutils.password.util;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -96,4 +97,55 @@ public class PasswordHashesTest {
 //        assertEquals(PW3_NT_AS_STRING, PasswordHashes.computeNTPasswordAsUpperCaseString(PW3_CLEARTEXT));
     }
 
+    @Test
+    public void NTIntoBufferTest() {
+
+        byte[] out = new byte[40];
+        PasswordHashes.computeNTPassword(PW1_CLEARTEXT.toCharArray(), out, 3);
+        assertTrue(Arrays.equals(PW1_NT_AS_BYTEA, Arrays.copyOfRange(out, 3, 19)));
+
+        PasswordHashes.computeNTPassword(new StringBuilder(PW2_CLEARTEXT), out, 24);
+        assertTrue(Arrays.equals(PW2_NT_AS_BYTEA, Arrays.copyOfRange(out, 24, 40)));
+        // First hash untouched
+        assertTrue(Arrays.equals(PW1_NT_AS_BYTEA, Arrays.copyOfRange(out, 3, 19)));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+        PasswordHashes.computeNTPassword(PW1_CLEARTEXT.toCharArray(), buffer);
+        PasswordHashes.computeNTPassword(PW2_CLEARTEXT, buffer);
+        assertEquals(32, buffer.position());
+        byte[] read = new byte[16];
+        buffer.flip();
+        buffer.get(read);
+        assertTrue(Arrays.equals(PW1_NT_AS_BYTEA, read));
+        buffer.get(read);
+        assertTrue(Arrays.equals(PW2_NT_AS_BYTEA, read));
+
+        try {
+            PasswordHashes.computeNTPassword(PW1_CLEARTEXT, out, 30);
+            fail("Hash does not fit in buffer");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void NTLongPasswordTest() throws Exception {
+
+        // The whole password is hashed, not only its first 14 characters
+        String password = "correct horse battery staple, longer than fourteen characters";
+        byte[] expected = new MD4().digest(password.getBytes("UTF-16LE"));
+        assertTrue(Arrays.equals(expected, PasswordHashes.computeNTPassword(password)));
+        assertFalse(Arrays.equals(expected, PasswordHashes.computeNTPassword(password.substring(0, 14))));
+    }
+
+    @Test
+    public void LMIntoBufferTest() {
+
+        byte[] out = new byte[20];
+        PasswordHashes.computeLMPassword(new StringBuilder(PW2_CLEARTEXT), out, 4);
+        assertTrue(Arrays.equals(PW2_LM_AS_BYTEA, Arrays.copyOfRange(out, 4, 20)));
+        PasswordHashes.computeLMPassword(PW1_CLEARTEXT, out, 0);
+        assertTrue(Arrays.equals(PW1_LM_AS_BYTEA, Arrays.copyOf(out, 16)));
+    }
+
 }
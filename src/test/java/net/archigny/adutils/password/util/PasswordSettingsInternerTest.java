@@ -0,0 +1,57 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import javax.naming.directory.BasicAttributes;
+
+import net.archigny.adutils.password.I8;
+import net.archigny.adutils.password.PasswordSettings;
+
+import org.junit.Test;
+
+public class PasswordSettingsInternerTest {
+
+    private static PasswordSettings policy(final int minimumPasswordLength) {
+
+        return PasswordSettings.builder().minimumPasswordLength(minimumPasswordLength).maximumPasswordAge(90 * I8.DAY).build();
+    }
+
+    @Test
+    public void testIntern() {
+
+        final PasswordSettingsInterner interner = new PasswordSettingsInterner();
+        final PasswordSettings first = policy(8);
+        final PasswordSettings equal = policy(8);
+        final PasswordSettings other = policy(12);
+
+        assertNotSame(first, equal);
+        assertSame(first, interner.intern(first));
+        assertSame(first, interner.intern(equal));
+        assertSame(other, interner.intern(other));
+        assertEquals(2, interner.size());
+    }
+
+    @Test
+    public void testMapperInterning() {
+
+        final PasswordSettingsInterner interner = new PasswordSettingsInterner();
+        final BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "8");
+
+        // Same PSO read by the providers of two domains
+        final HashMap<String, PasswordSettings> first = new HashMap<String, PasswordSettings>();
+        final HashMap<String, PasswordSettings> second = new HashMap<String, PasswordSettings>();
+        new PasswordSettingsMapper(first, PasswordSettingsMapper.PSO_ATTRS, interner).mapFromAttributes("cn=test", attributes);
+        new PasswordSettingsMapper(second, PasswordSettingsMapper.PSO_ATTRS, interner).mapFromAttributes("CN=Test", attributes);
+        assertSame(first.get("cn=test"), second.get("cn=test"));
+
+        // Without interner, each read is a new instance
+        final HashMap<String, PasswordSettings> third = new HashMap<String, PasswordSettings>();
+        new PasswordSettingsMapper(third, PasswordSettingsMapper.PSO_ATTRS).mapFromAttributes("cn=test", attributes);
+        assertEquals(first.get("cn=test"), third.get("cn=test"));
+        assertNotSame(first.get("cn=test"), third.get("cn=test"));
+    }
+
+}
@@ -0,0 +1,89 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+
+import net.archigny.adutils.password.I8;
+import net.archigny.adutils.password.PasswordSettings;
+
+import org.junit.Test;
+
+public class PasswordSettingsMapperTest {
+
+    @Test
+    public void testHandleNameClassPair() throws Exception {
+
+        final BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(PasswordSettingsMapper.AD_PSO_MAXPWDAGE, String.valueOf(90 * I8.DAY));
+        attributes.put(PasswordSettingsMapper.AD_PSO_MINPWDAGE, String.valueOf(I8.DAY));
+        // Values returned as binary are parsed from their bytes
+        attributes.put(PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "12".getBytes("US-ASCII"));
+        attributes.put(PasswordSettingsMapper.AD_PSO_LOCKOUT_DURATION, String.valueOf(30 * I8.MINUTE).getBytes("US-ASCII"));
+        attributes.put(PasswordSettingsMapper.AD_PSO_LOCKOUT_THRESHOLD, "5");
+        attributes.put(PasswordSettingsMapper.AD_PSO_COMPLEXITY, "true".getBytes("US-ASCII"));
+        attributes.put(PasswordSettingsMapper.AD_PSO_REVERSIBLE_ENC, "FALSE");
+
+        final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>();
+        new PasswordSettingsMapper(policies, PasswordSettingsMapper.PSO_ATTRS).handleNameClassPair(new SearchResult("CN=Test",
+                null, attributes));
+
+        final PasswordSettings pso = policies.get("cn=test");
+        assertNotNull(pso);
+        assertEquals(90 * I8.DAY, pso.getMaximumPasswordAge());
+        assertEquals(I8.DAY, pso.getMinimumPasswordAge());
+        assertEquals(12, pso.getMinimumPasswordLength());
+        assertEquals(30 * I8.MINUTE, pso.getLockoutDuration());
+        assertEquals(5, pso.getLockoutThreshold());
+        assertEquals(0, pso.getHistoryLength());
+        assertTrue(pso.isPasswordComplexity());
+        assertFalse(pso.isReversibleEncryption());
+    }
+
+    @Test
+    public void testInvalidValue() {
+
+        final BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(PasswordSettingsMapper.AD_PSO_MINPWDLENGTH, "99999999999");
+
+        final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>();
+        new PasswordSettingsMapper(policies, PasswordSettingsMapper.PSO_ATTRS).mapFromAttributes("cn=test", attributes);
+        assertTrue(policies.isEmpty());
+    }
+
+    @Test
+    public void testExtendedPlan() {
+
+        // Site specific attribute overriding the minimum length, added to the standard PSO attributes
+        final DecoderPlan<PasswordSettings.Builder> plan = DecoderPlan.<PasswordSettings.Builder> builder()
+                .bindAll(PasswordSettingsMapper.PSO_PLAN).bind("extensionAttribute1",
+                        new FieldDecoders.IntField<PasswordSettings.Builder>() {
+
+                            @Override
+                            protected void set(final PasswordSettings.Builder target, final int value) {
+
+                                target.minimumPasswordLength(value);
+                            }
+                        }).build();
+        assertEquals(PasswordSettingsMapper.PSO_ATTRS.length + 1, plan.getAttributeNames().length);
+
+        final BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(PasswordSettingsMapper.AD_PSO_MAXPWDAGE, String.valueOf(90 * I8.DAY));
+        attributes.put("extensionAttribute1", "15");
+
+        final HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>();
+        new PasswordSettingsMapper(policies, plan, null).mapFromAttributes("cn=test", attributes);
+        assertEquals(90 * I8.DAY, policies.get("cn=test").getMaximumPasswordAge());
+        assertEquals(15, policies.get("cn=test").getMinimumPasswordLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAttributeSet() {
+
+        new PasswordSettingsMapper(new HashMap<String, PasswordSettings>(), new String[] { "extensionAttribute1" });
+    }
+
+}
@@ -0,0 +1,109 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import net.archigny.adutils.password.I8;
+import net.archigny.adutils.password.PasswordSettings;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PasswordSettingsSnapshotFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteRead() throws Exception {
+
+        final File file = new File(folder.getRoot(), "pso.snapshot");
+        assertNull(PasswordSettingsSnapshotFile.read(file));
+
+        HashMap<String, PasswordSettings> policies = new HashMap<String, PasswordSettings>();
+        policies.put("cn=test", new PasswordSettings(true, 24, true, 12, I8.DAY, 90 * I8.DAY, 5, 30 * I8.MINUTE, 10 * I8.MINUTE));
+        policies.put("cn=other", new PasswordSettings(false, 0, false, 8, 0, I8.NEVER, 0, 0, 0));
+        PasswordSettingsSnapshotFile.write(file, policies, 123456789L);
+
+        // Replaces existing file
+        policies.remove("cn=other");
+        PasswordSettingsSnapshotFile.write(file, policies, 987654321L);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        final PasswordSettingsSnapshotFile snapshot = PasswordSettingsSnapshotFile.read(file);
+        assertEquals(987654321L, snapshot.getTimestamp());
+        assertEquals(1, snapshot.getPolicies().size());
+
+        final PasswordSettings ps = snapshot.getPolicies().get("cn=test");
+        assertTrue(ps.isReversibleEncryption());
+        assertEquals(24, ps.getHistoryLength());
+        assertTrue(ps.isPasswordComplexity());
+        assertEquals(12, ps.getMinimumPasswordLength());
+        assertEquals(I8.DAY, ps.getMinimumPasswordAge());
+        assertEquals(90 * I8.DAY, ps.getMaximumPasswordAge());
+        assertEquals(5, ps.getLockoutThreshold());
+        assertEquals(30 * I8.MINUTE, ps.getLockoutDuration());
+        assertEquals(10 * I8.MINUTE, ps.getLockoutObservationWindow());
+    }
+
+    @Test
+    public void testUnknownVersion() throws Exception {
+
+        final File file = new File(folder.getRoot(), "pso.snapshot");
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(PasswordSettingsSnapshotFile.MAGIC);
+        out.writeInt(PasswordSettingsSnapshotFile.VERSION + 1);
+        out.close();
+
+        try {
+            PasswordSettingsSnapshotFile.read(file);
+            fail("Unknown version should be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCorruptedCount() throws Exception {
+
+        final File file = new File(folder.getRoot(), "pso.snapshot");
+        for (int count : new int[] { -1, Integer.MAX_VALUE, PasswordSettingsSnapshotFile.MAX_ENTRIES + 1 }) {
+            final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            out.writeInt(PasswordSettingsSnapshotFile.MAGIC);
+            out.writeInt(PasswordSettingsSnapshotFile.VERSION);
+            out.writeLong(123456789L);
+            out.writeInt(count);
+            out.close();
+
+            try {
+                PasswordSettingsSnapshotFile.read(file);
+                fail("Entry count " + count + " should be rejected");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+
+        // Plausible count, but truncated file
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(PasswordSettingsSnapshotFile.MAGIC);
+        out.writeInt(PasswordSettingsSnapshotFile.VERSION);
+        out.writeLong(123456789L);
+        out.writeInt(1000);
+        out.writeUTF("cn=test");
+        out.close();
+
+        try {
+            PasswordSettingsSnapshotFile.read(file);
+            fail("Truncated file should be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package net.archigny.adutils.password.util;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RdnIndexTest {
+
+    private static String rdn(final String dn) {
+
+        final long position = RdnIndex.locate(dn);
+        assertTrue(position >= 0);
+        return dn.substring((int) (position >>> 32), (int) position);
+    }
+
+    @Test
+    public void testLocate() {
+
+        assertEquals("CN=test", rdn("CN=test,CN=Password Settings Container,CN=System,DC=in,DC=archigny,DC=org"));
+        assertEquals("cn=passe 15j", rdn("  cn=passe 15j  ,cn=System"));
+        assertEquals("cn=alone", rdn("cn=alone"));
+        assertEquals("cn=semicolon", rdn("cn=semicolon;dc=org"));
+
+        assertEquals(RdnIndex.COMPLEX, RdnIndex.locate("cn=a\\,b,cn=System"));
+        assertEquals(RdnIndex.COMPLEX, RdnIndex.locate("cn=\"quoted\",cn=System"));
+        assertEquals(RdnIndex.COMPLEX, RdnIndex.locate("cn=a+sn=b,cn=System"));
+        assertEquals(RdnIndex.COMPLEX, RdnIndex.locate("cn = spaced,cn=System"));
+
+        assertEquals(RdnIndex.MALFORMED, RdnIndex.locate(""));
+        assertEquals(RdnIndex.MALFORMED, RdnIndex.locate("non-existent"));
+        assertEquals(RdnIndex.MALFORMED, RdnIndex.locate("=value,cn=System"));
+        assertEquals(RdnIndex.MALFORMED, RdnIndex.locate("cn=,cn=System"));
+    }
+
+    @Test
+    public void testGet() {
+
+        Map<String, Integer> entries = new HashMap<String, Integer>();
+        for (int i = 0; i < 50; i++) {
+            entries.put("cn=pso " + i, i);
+        }
+        RdnIndex<Integer> index = new RdnIndex<Integer>(entries);
+
+        for (int i = 0; i < 50; i++) {
+            String dn = "CN=PSO " + i + ",CN=Password Settings Container,CN=System";
+            assertEquals(Integer.valueOf(i), index.get(dn, RdnIndex.locate(dn)));
+        }
+        String unknown = "cn=pso 50,cn=System";
+        assertNull(index.get(unknown, RdnIndex.locate(unknown)));
+        String prefix = "cn=pso,cn=System";
+        assertNull(index.get(prefix, RdnIndex.locate(prefix)));
+    }
+
+}